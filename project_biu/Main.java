@@ -1,38 +1,99 @@
+import graph.DispatchMode;
+import graph.TopicManagerSingleton;
+import ingest.BinaryIngestServer;
+import ingest.IngestStats;
+import ingest.UdpIngestServer;
 import server.HTTPServer;
 import server.MyHTTPServer;
+import server.NioHTTPServer;
+import server.ServerSettings;
+import servlets.BatchPublisher;
 import servlets.ConfLoader;
 import servlets.HtmlLoader;
+import servlets.MetricsExporter;
+import servlets.TopicApi;
+import servlets.TopicAwaiter;
 import servlets.TopicDisplayer;
+import servlets.TopicEvents;
+import servlets.TopicSocket;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class Main {
     private static volatile boolean stop = false;
     private static final int PORT = 1234;
+    private static final int INGEST_PORT = 1235;
+    private static final int MAX_FEEDERS = 64;
     private static final int N_THREADS = 5;
+    private static final int MAX_CONNECTIONS = 1000;
 
     public static void main(String[] args) {
-        HTTPServer server = setupServer();
+        if (args.length > 1)
+            setupDispatch(args[1]);
+        BinaryIngestServer ingestServer = new BinaryIngestServer(INGEST_PORT, MAX_FEEDERS);
+        UdpIngestServer udpServer = new UdpIngestServer(INGEST_PORT);
+        Map<String, IngestStats> ingestStats = new LinkedHashMap<>();
+        ingestStats.put("tcp", ingestServer.getStats());
+        ingestStats.put("udp", udpServer.getStats());
+        HTTPServer server = setupServer(args.length > 0 ? args[0] : "pool", ingestStats);
         server.start();
+        ingestServer.start();
+        try {
+            udpServer.start();
+        } catch (IOException e) {
+            System.err.println("Error: Could not listen for datagrams on port " + INGEST_PORT);
+            e.printStackTrace();
+        }
 
         printServerAddress();
         waitForShutdown();
 
+        udpServer.close();
+        ingestServer.close();
         server.close();
         System.out.println("Server stopped successfully.");
     }
 
+    /**
+     * Chooses how a published message reaches the agents of the graph.
+     * @param mode The name of a {@link DispatchMode}, e.g. "depth_first" for graphs thousands of agents deep,
+     *             an unknown name keeps the topological dispatch.
+     */
+    private static void setupDispatch(String mode) {
+        try {
+            TopicManagerSingleton.get().setDispatchMode(DispatchMode.valueOf(mode.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: Unknown dispatch mode " + mode + ", using " + DispatchMode.TOPOLOGICAL);
+        }
+    }
+
     /**
      * Creates and configures the HTTP server with all the required servlets.
+     * @param engine The server engine to use: "nio" for the selector based server, "virtual" for a virtual thread
+     *               per connection, anything else for the thread pool server.
+     * @param ingestStats The counters of the ingestion listeners, exported on /metrics.
      * @return A fully configured HTTPServer instance.
      */
-    private static HTTPServer setupServer() {
-        HTTPServer server = new MyHTTPServer(PORT, N_THREADS);
+    private static HTTPServer setupServer(String engine, Map<String, IngestStats> ingestStats) {
+        ServerSettings settings = new ServerSettings()
+                .setWorkerThreads(N_THREADS)
+                .setVirtualThreads(engine.equals("virtual"))
+                .setMaxConnections(MAX_CONNECTIONS);
+        HTTPServer server = engine.equals("nio") ? new NioHTTPServer(PORT, settings) : new MyHTTPServer(PORT, settings);
         server.addServlet("GET", "/publish", new TopicDisplayer());
+        server.addServlet("POST", "/publish", new BatchPublisher());
         server.addServlet("GET", "/app/", new HtmlLoader("html_files"));
-        server.addServlet("POST", "/upload", new ConfLoader());
+        // loading a configuration replaces the whole graph, one upload at a time
+        server.addServlet("POST", "/upload", new ConfLoader(), 1);
+        server.addServlet("GET", "/events", new TopicEvents());
+        server.addServlet("GET", "/socket", new TopicSocket());
+        server.addServlet("GET", "/await", new TopicAwaiter());
+        server.addServlet("GET", "/api/topics", new TopicApi());
+        server.addServlet("GET", "/metrics", new MetricsExporter(server.getStats(), ingestStats));
         return server;
     }
 
@@ -2,12 +2,12 @@ package configs;
 
 import graph.*;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.List;
 import java.util.*;
 
 /**
@@ -55,29 +55,44 @@ public class GenericConfig implements Config {
     @Override
     public void create() {
 
-        List<String> linesFromFile = new ArrayList<>();
+        m_listAgents = new HashSet<>();
+        if (m_filename == null)
+            return;
         try {
-            // Read all lines from the file
-            linesFromFile = Files.readAllLines(Paths.get(m_filename));
-            // Check if the file has the correct format
-            if (linesFromFile.size() % 3 != 0) {
-                linesFromFile = null;
+            // Check if the file has the correct format before creating any agent
+            if (countLines() % 3 != 0)
                 return;
+
+            // Create a set of agents from the file, reading it three lines at a time
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(m_filename))) {
+                String classLine;
+                while ((classLine = reader.readLine()) != null) {
+                    // Get the agent class name by the format: graph.AgentName
+                    String agentClass = "graph." + classLine.split("\\.")[1];
+                    String[] subs = reader.readLine().split(",");
+                    String[] pubs = reader.readLine().split(",");
+
+                    // Create the agent and add it to the set
+                    Agent agent = (Agent) dynamicallyCreateAgentClass(agentClass, subs, pubs);
+                    m_listAgents.add(agent);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
-        // Create a set of agents from the file
-        m_listAgents = new HashSet<>();
-        for (int i = 0; i < linesFromFile.size() / 3; i++) {
-            // Get the agent class name by the format: graph.AgentName
-            String agentClass = "graph."+linesFromFile.get(i * 3).split("\\.")[1];
-            String[] subs = linesFromFile.get(i * 3 + 1).split(",");
-            String[] pubs = linesFromFile.get(i * 3 + 2).split(",");
-
-            // Create the agent and add it to the set
-            Agent agent = (Agent) dynamicallyCreateAgentClass(agentClass, subs, pubs);
-            m_listAgents.add(agent);
+    }
+
+    /**
+     * this method counts the lines of the configuration file without keeping them in memory.
+     * @return the number of lines in the file.
+     * @throws IOException if the file cannot be read.
+     */
+    private long countLines() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(m_filename))) {
+            long count = 0;
+            while (reader.readLine() != null)
+                count++;
+            return count;
         }
     }
 
@@ -6,6 +6,27 @@ package graph;
 public interface Agent {
     String getName();
     void reset();
-    void callback(String topic, Message msg);
+    /**
+     * Called with each message published to a topic the agent subscribed to.
+     * An agent tells its inputs apart by comparing the topic with the Topic objects it bound at construction.
+     *
+     * @param topic The topic the message was published to.
+     * @param msg The message.
+     */
+    void callback(Topic topic, Message msg);
+    /**
+     * Called once with the messages of several inputs that changed together, e.g. in one wave of the
+     * {@link ExecutionPlan}. An agent with several inputs overrides it to take every message in and then compute
+     * and publish once, the default calls {@link #callback(Topic, Message)} for each message.
+     *
+     * @param topics The topics the messages were published to, the array must not be kept.
+     * @param msgs The messages, in the same order, the array must not be kept.
+     * @param count The number of messages.
+     */
+    default void callbackAll(Topic[] topics, Message[] msgs, int count) {
+        for (int i = 0; i < count; i++) {
+            callback(topics[i], msgs[i]);
+        }
+    }
     void close();
 }
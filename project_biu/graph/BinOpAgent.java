@@ -13,11 +13,11 @@ public class BinOpAgent implements Agent {
     private String m_agentName;
 
     // input topics
-    private String m_firstInputTopic;
-    private String m_secondInputTopic;
+    private Topic m_firstInputTopic;
+    private Topic m_secondInputTopic;
 
     // output topic
-    private String m_outputTopic;
+    private Topic m_outputTopic;
 
     // input messages values & flags
     private double m_firstMsgValue;
@@ -44,26 +44,26 @@ public class BinOpAgent implements Agent {
      */
     public BinOpAgent(String agentName, String firstInputTopic, String secondInputTopic, String outputTopic, BinaryOperator<Double> binOperator) {
         this.m_agentName = agentName;
-        this.m_firstInputTopic = firstInputTopic;
-        this.m_secondInputTopic = secondInputTopic;
-        this.m_outputTopic = outputTopic;
+        this.m_firstInputTopic = TopicManagerSingleton.get().getTopic(firstInputTopic);
+        this.m_secondInputTopic = TopicManagerSingleton.get().getTopic(secondInputTopic);
+        this.m_outputTopic = TopicManagerSingleton.get().getTopic(outputTopic);
         this.m_binOp = binOperator;
 
-        TopicManagerSingleton.get().getTopic(firstInputTopic).subscribe(this);
-        TopicManagerSingleton.get().getTopic(secondInputTopic).subscribe(this);
-        TopicManagerSingleton.get().getTopic(outputTopic).addPublisher(this);
+        m_firstInputTopic.subscribe(this);
+        m_secondInputTopic.subscribe(this);
+        m_outputTopic.addPublisher(this);
     }   
 
     public BinOpAgent(String agentName, String firstInputTopic, String outputTopic, BinaryOperator<Double> binOperator) {
         this.m_agentName = agentName;
-        this.m_firstInputTopic = firstInputTopic;
+        this.m_firstInputTopic = TopicManagerSingleton.get().getTopic(firstInputTopic);
         this.m_secondInputTopic = null;
         m_secondMsgIsReceived = true;
-        this.m_outputTopic = outputTopic;
+        this.m_outputTopic = TopicManagerSingleton.get().getTopic(outputTopic);
         this.m_binOp = binOperator;
 
-        TopicManagerSingleton.get().getTopic(firstInputTopic).subscribe(this);
-        TopicManagerSingleton.get().getTopic(outputTopic).addPublisher(this);
+        m_firstInputTopic.subscribe(this);
+        m_outputTopic.addPublisher(this);
     }   
 
 
@@ -96,36 +96,71 @@ public class BinOpAgent implements Agent {
      * @param msg The message.
      */
     @Override
-    public void callback(String topic, Message msg) {
+    public void callback(Topic topic, Message msg) {
+        if (receive(topic, msg))
+            publishResult();
+    }
+
+    /**
+     * This method is used to take in the messages of both inputs at once, e.g. when they changed in the same
+     * wave, and publish the result of the operation once.
+     *
+     * @param topics The topics on which the messages were received.
+     * @param msgs   The received messages.
+     * @param count  The number of messages.
+     */
+    @Override
+    public void callbackAll(Topic[] topics, Message[] msgs, int count) {
+        boolean received = false;
+        for (int i = 0; i < count; i++) {
+            received |= receive(topics[i], msgs[i]);
+        }
+        if (received)
+            publishResult();
+    }
+
+    /**
+     * This method is used to store the value of a message received on an input.
+     *
+     * @param topic The topic on which the message was received.
+     * @param msg   The received message.
+     * @return true if the message is a number from one of the inputs.
+     */
+    private boolean receive(Topic topic, Message msg) {
         if (Double.isNaN(msg.asDouble))
-            return;
+            return false;
 
-        if (topic.equals(m_firstInputTopic)) {
+        if (topic == m_firstInputTopic) {
             m_firstMsgIsReceived = true;
             m_firstMsgValue = msg.asDouble;
 
         } 
-        else if (topic.equals(m_secondInputTopic)) {
+        else if (topic == m_secondInputTopic) {
             m_secondMsgIsReceived = true;
             m_secondMsgValue = msg.asDouble;
         }
         
         // if the message is not from the first or second input topic, return
-        else return;
+        else return false;
+        return true;
+    }
 
+    /**
+     * This method is used to publish the result of the operation once both values are received.
+     */
+    private void publishResult() {
         if (m_firstMsgIsReceived && m_secondMsgIsReceived){
             // for binary operations, publish only if two messages received
             if (m_secondInputTopic != null) {
                 double out = m_binOp.apply(m_firstMsgValue, m_secondMsgValue);
-                TopicManagerSingleton.get().getTopic(m_outputTopic).publish(new Message(out));
+                m_outputTopic.publish(new Message(out));
             }
             // for unary operations, publish the result even if the second message is not received
             else {
                 double out = m_binOp.apply(m_firstMsgValue, m_firstMsgValue);
-                TopicManagerSingleton.get().getTopic(m_outputTopic).publish(new Message(out));
+                m_outputTopic.publish(new Message(out));
             }
         }
-        else return;
     }
 
     /**
@@ -133,10 +168,10 @@ public class BinOpAgent implements Agent {
      */
     @Override
     public void close() {
-        TopicManagerSingleton.get().getTopic(m_firstInputTopic).unsubscribe(this);
+        m_firstInputTopic.unsubscribe(this);
         if (m_secondInputTopic != null) {
-            TopicManagerSingleton.get().getTopic(m_secondInputTopic).unsubscribe(this);
+            m_secondInputTopic.unsubscribe(this);
         }
-        TopicManagerSingleton.get().getTopic(m_outputTopic).removePublisher(this);
+        m_outputTopic.removePublisher(this);
     }
 }
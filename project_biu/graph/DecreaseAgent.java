@@ -11,10 +11,10 @@ public class DecreaseAgent implements Agent {
     private String m_decAgentName;
 
     // input topic
-    private String m_inputTopic;
+    private Topic m_inputTopic;
 
     // output topic
-    private String m_outputTopic;
+    private Topic m_outputTopic;
 
     // input message value
     private double m_decMessageValue;
@@ -42,12 +42,12 @@ public class DecreaseAgent implements Agent {
         }
 
         this.m_decAgentName = agentName;
-        this.m_inputTopic = subscribedTopics[0];
-        this.m_outputTopic = publishedTopics[0];
+        this.m_inputTopic = TopicManagerSingleton.get().getTopic(subscribedTopics[0]);
+        this.m_outputTopic = TopicManagerSingleton.get().getTopic(publishedTopics[0]);
 
         // Subscribe to the input topic and add the agent a s a publisher to the output topic
-        TopicManagerSingleton.get().getTopic(m_inputTopic).subscribe(this);
-        TopicManagerSingleton.get().getTopic(m_outputTopic).addPublisher(this);
+        m_inputTopic.subscribe(this);
+        m_outputTopic.addPublisher(this);
     }
 
 
@@ -87,12 +87,12 @@ public class DecreaseAgent implements Agent {
      * @param msg   The received message. It is expected to contain a valid double value.
      */
     @Override
-    public void callback(String topic, Message msg) {
+    public void callback(Topic topic, Message msg) {
         if (Double.isNaN(msg.asDouble))
             return;
 
         m_decMessageValue = msg.asDouble;
-        TopicManagerSingleton.get().getTopic(m_outputTopic).publish(new Message(m_decMessageValue - 1));
+        m_outputTopic.publish(new Message(m_decMessageValue - 1));
     }
 
     /**
@@ -100,7 +100,7 @@ public class DecreaseAgent implements Agent {
      */
     @Override
     public void close() {
-        TopicManagerSingleton.get().getTopic(m_inputTopic).unsubscribe(this);
-        TopicManagerSingleton.get().getTopic(m_outputTopic).removePublisher(this);  
+        m_inputTopic.unsubscribe(this);
+        m_outputTopic.removePublisher(this);  
     }
 }
@@ -0,0 +1,164 @@
+package graph;
+
+/**
+ * This class dispatches the messages of a thread through a work queue instead of nested calls. A publish
+ * stores the message and queues a delivery for each subscriber, the first publish of the thread then runs the
+ * deliveries in a loop until none is left, and the messages the agents publish meanwhile are queued by the same
+ * loop. The depth of the stack stays the same however long the chains of agents are.
+ * <p>
+ * The queue is a ring of arrays kept by the thread, so a delivery allocates nothing once the ring is large enough.
+ */
+final class DeliveryQueue {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final int INITIAL_CAPACITY = 64;
+
+    // far above the deliveries of a deep graph, a publish going beyond it loops through a cycle forever
+    static final int MAX_DELIVERIES = 1 << 20;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final ThreadLocal<DeliveryQueue> QUEUES = ThreadLocal.withInitial(DeliveryQueue::new);
+
+    // the pending deliveries from m_head (inclusive) to m_tail (exclusive), modulo the capacity
+    private Agent[] m_agents;
+    private Topic[] m_topics;
+    private Message[] m_messages;
+    private int m_head;
+    private int m_tail;
+    private boolean m_draining;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    private DeliveryQueue() {
+        this.m_agents = new Agent[INITIAL_CAPACITY];
+        this.m_topics = new Topic[INITIAL_CAPACITY];
+        this.m_messages = new Message[INITIAL_CAPACITY];
+    }
+
+    /**
+     * This method is used to publish a message and run the deliveries it leads to, unless the thread is already
+     * running deliveries, which will then run those of the message too.
+     *
+     * @param topic The topic.
+     * @param message The message.
+     * @param depthFirst true to run the last queued delivery first, false to run them in the order they were queued.
+     * @throws IllegalStateException if the publish leads to more than {@value #MAX_DELIVERIES} deliveries.
+     */
+    static void publish(Topic topic, Message message, boolean depthFirst) {
+        DeliveryQueue queue = QUEUES.get();
+        topic.store(message);
+        queue.add(topic.getSubscriberArray(), topic, message, depthFirst);
+        if (!queue.m_draining)
+            queue.drain(depthFirst);
+    }
+
+    /**
+     * This method is used to queue the deliveries of a message to the subscribers of its topic.
+     * Stacked deliveries are pushed in reverse, so the first subscriber runs first.
+     *
+     * @param subscribers The subscribers of the topic.
+     * @param topic The topic.
+     * @param message The message.
+     * @param depthFirst true to push the deliveries at the head, false to append them at the tail.
+     */
+    private void add(Agent[] subscribers, Topic topic, Message message, boolean depthFirst) {
+        // one slot stays free, a full ring would look empty
+        if (size() + subscribers.length >= m_agents.length)
+            grow(size() + subscribers.length);
+        int mask = m_agents.length - 1;
+        if (depthFirst) {
+            for (int i = subscribers.length - 1; i >= 0; i--) {
+                m_head = (m_head - 1) & mask;
+                m_agents[m_head] = subscribers[i];
+                m_topics[m_head] = topic;
+                m_messages[m_head] = message;
+            }
+        } else {
+            for (Agent subscriber : subscribers) {
+                m_agents[m_tail] = subscriber;
+                m_topics[m_tail] = topic;
+                m_messages[m_tail] = message;
+                m_tail = (m_tail + 1) & mask;
+            }
+        }
+    }
+
+    /**
+     * This method is used to run the deliveries, taking them from the head, until the queue is empty.
+     * The deliveries left when an agent throws are dropped, as the calls of outer agents were when they nested.
+     *
+     * @param depthFirst how the deliveries were queued, for the error message.
+     */
+    private void drain(boolean depthFirst) {
+        m_draining = true;
+        try {
+            int deliveries = 0;
+            while (m_head != m_tail) {
+                if (++deliveries > MAX_DELIVERIES)
+                    throw new IllegalStateException("More than " + MAX_DELIVERIES + " deliveries for one publish ("
+                            + (depthFirst ? "depth" : "breadth") + " first), the graph probably has a cycle");
+                int head = m_head;
+                Agent agent = m_agents[head];
+                Topic topic = m_topics[head];
+                Message message = m_messages[head];
+                m_agents[head] = null;
+                m_topics[head] = null;
+                m_messages[head] = null;
+                m_head = (head + 1) & (m_agents.length - 1);
+                agent.callback(topic, message);
+            }
+        } finally {
+            while (m_head != m_tail) {
+                m_agents[m_head] = null;
+                m_topics[m_head] = null;
+                m_messages[m_head] = null;
+                m_head = (m_head + 1) & (m_agents.length - 1);
+            }
+            m_head = 0;
+            m_tail = 0;
+            m_draining = false;
+        }
+    }
+
+    /**
+     * @return the number of pending deliveries.
+     */
+    private int size() {
+        return (m_tail - m_head) & (m_agents.length - 1);
+    }
+
+    /**
+     * This method is used to enlarge the ring to a power of two above a size, keeping the pending deliveries in
+     * order from index 0.
+     *
+     * @param minSize The number of deliveries the ring must hold.
+     */
+    private void grow(int minSize) {
+        int capacity = m_agents.length;
+        // one slot stays free, a full ring would look empty
+        while (capacity <= minSize)
+            capacity <<= 1;
+        int size = size();
+        Agent[] agents = new Agent[capacity];
+        Topic[] topics = new Topic[capacity];
+        Message[] messages = new Message[capacity];
+        int mask = m_agents.length - 1;
+        for (int i = 0; i < size; i++) {
+            int from = (m_head + i) & mask;
+            agents[i] = m_agents[from];
+            topics[i] = m_topics[from];
+            messages[i] = m_messages[from];
+        }
+        m_agents = agents;
+        m_topics = topics;
+        m_messages = messages;
+        m_head = 0;
+        m_tail = size;
+    }
+}
@@ -0,0 +1,23 @@
+package graph;
+
+/**
+ * How a published message reaches the agents subscribed to its topic, and the agents downstream of them.
+ */
+public enum DispatchMode {
+    /**
+     * the agents run in the topological order of the graph, each called at most once per publish with all of its
+     * changed inputs, see {@link Agent#callbackAll}. A graph with a cycle has no such order and is dispatched
+     * {@link #DEPTH_FIRST}.
+     */
+    TOPOLOGICAL,
+    /**
+     * every delivery to an agent is queued, and the queue is drained in order: the subscribers of a topic all run
+     * before the agents their messages reach.
+     */
+    BREADTH_FIRST,
+    /**
+     * every delivery to an agent is stacked, and the last one is run first: a message goes down its whole branch
+     * before the next subscriber of the topic runs, in the order nested calls would give, without the nesting.
+     */
+    DEPTH_FIRST
+}
@@ -11,9 +11,9 @@ public class DivideAgent implements Agent {
     private String m_name;
 
     // input topics
-    private String m_firstTopic;
-    private String m_secondTopic;
-    private String m_outputTopic;
+    private Topic m_firstTopic;
+    private Topic m_secondTopic;
+    private Topic m_outputTopic;
 
     // input messages values & flags
     private double m_firstMessage;
@@ -37,13 +37,13 @@ public class DivideAgent implements Agent {
         if (subscribedTopics == null || publishedTopics == null || subscribedTopics.length < 1 || publishedTopics.length < 1)
             throw new IllegalArgumentException("DivideAgent: subscribedTopics and publishedTopics must have at least 2 and 1 values respectively");
         m_name = divAgentName;
-        m_firstTopic = subscribedTopics[0];
-        m_secondTopic = subscribedTopics[1];
-        m_outputTopic = publishedTopics[0];
+        m_firstTopic = TopicManagerSingleton.get().getTopic(subscribedTopics[0]);
+        m_secondTopic = TopicManagerSingleton.get().getTopic(subscribedTopics[1]);
+        m_outputTopic = TopicManagerSingleton.get().getTopic(publishedTopics[0]);
 
-        TopicManagerSingleton.get().getTopic(m_firstTopic).subscribe(this);
-        TopicManagerSingleton.get().getTopic(m_secondTopic).subscribe(this);
-        TopicManagerSingleton.get().getTopic(m_outputTopic).addPublisher(this);
+        m_firstTopic.subscribe(this);
+        m_secondTopic.subscribe(this);
+        m_outputTopic.addPublisher(this);
     }
 
     /**
@@ -85,24 +85,59 @@ public class DivideAgent implements Agent {
      * @param msg   The received message.
      */
     @Override
-    public void callback(String topic, Message msg) {
+    public void callback(Topic topic, Message msg) {
+        if (receive(topic, msg))
+            publishResult();
+    }
+
+    /**
+     * This method is used to take in the messages of both inputs at once, e.g. when they changed in the same
+     * wave, and publish the quotient once.
+     *
+     * @param topics The topics on which the messages were received.
+     * @param msgs   The received messages.
+     * @param count  The number of messages.
+     */
+    @Override
+    public void callbackAll(Topic[] topics, Message[] msgs, int count) {
+        boolean received = false;
+        for (int i = 0; i < count; i++) {
+            received |= receive(topics[i], msgs[i]);
+        }
+        if (received)
+            publishResult();
+    }
+
+    /**
+     * This method is used to store the value of a message received on an input.
+     *
+     * @param topic The topic on which the message was received.
+     * @param msg   The received message.
+     * @return true if the message is a number from one of the inputs.
+     */
+    private boolean receive(Topic topic, Message msg) {
         if (Double.isNaN(msg.asDouble))
-            return;
-        if (topic.equals(m_firstTopic)) {
+            return false;
+        if (topic == m_firstTopic) {
             m_firstReceived = true;
             m_firstMessage = msg.asDouble;
         } 
-        else if (topic.equals(m_secondTopic)) {
+        else if (topic == m_secondTopic) {
             m_secondReceived = true;
             m_secondMessage = msg.asDouble;
         } 
-        else return;
+        else return false;
+        return true;
+    }
 
+    /**
+     * This method is used to publish the quotient once both values are received.
+     */
+    private void publishResult() {
         if (m_firstReceived && m_secondReceived || m_secondMessage == 0){
             double out = m_firstMessage / m_secondMessage;
-            TopicManagerSingleton.get().getTopic(m_outputTopic).publish(new Message(out));
+            m_outputTopic.publish(new Message(out));
         }
-        else return;
     }
 
     /**
@@ -110,8 +145,8 @@ public class DivideAgent implements Agent {
      */
     @Override
     public void close() {
-        TopicManagerSingleton.get().getTopic(m_firstTopic).unsubscribe(this);
-        TopicManagerSingleton.get().getTopic(m_secondTopic).unsubscribe(this);
-        TopicManagerSingleton.get().getTopic(m_outputTopic).removePublisher(this);
+        m_firstTopic.unsubscribe(this);
+        m_secondTopic.unsubscribe(this);
+        m_outputTopic.removePublisher(this);
     }
 }
@@ -0,0 +1,373 @@
+package graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is the topics and agents of the graph compiled into a topological order, and the executor that
+ * propagates a publish through them as a wave.
+ * <p>
+ * A publish starts a wave on the publishing thread. The wave visits the topics and agents in the order of the
+ * plan: a topic stores its message and marks its subscribers, an agent is called once with the messages of all
+ * of its inputs that changed in the wave, through {@link Agent#callbackAll}. Every agent a topic depends on runs
+ * before the topic is stored, so each agent fires at most once per wave, with all of its inputs up to date, and
+ * a topic is stored once per wave with its final value. A diamond A->B, A->C, B+C->D fires D once instead of once
+ * with a stale input.
+ * <p>
+ * The messages an agent publishes while it runs are staged in the wave, so a long chain of agents is run by a
+ * loop instead of nested calls. A graph with a cycle has no topological order, its messages go through the
+ * {@link DeliveryQueue} of the thread, depth first. So does every publish when the {@link DispatchMode} of the
+ * topic manager is not {@link DispatchMode#TOPOLOGICAL}.
+ */
+final class ExecutionPlan {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner classes:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * The position of a topic in a plan, kept by the topic. Both are held in one object so they are always read
+     * together.
+     */
+    static final class Slot {
+        private final ExecutionPlan m_plan;
+        private final int m_position;
+
+        Slot(ExecutionPlan plan, int position) {
+            this.m_plan = plan;
+            this.m_position = position;
+        }
+    }
+
+    /**
+     * The state of the wave running on a thread. It is kept by the thread and reused by its next waves, so a wave
+     * allocates nothing once the plan is known.
+     */
+    private static final class Wave {
+        private ExecutionPlan m_plan;
+        // the positions to visit
+        private final BitSet m_dirty = new BitSet();
+        // the topics stored in this wave
+        private final BitSet m_stored = new BitSet();
+        // the message of each topic position, staged or stored
+        private Message[] m_messages = new Message[0];
+        // the inputs of the agent being called that changed in this wave
+        private Topic[] m_inputTopics = new Topic[0];
+        private Message[] m_inputMessages = new Message[0];
+        private int m_cursor;
+        private boolean m_running;
+
+        /**
+         * This method is used to start a wave through a plan. The publishes of the thread are staged in the wave
+         * until {@link #finish()}.
+         *
+         * @param plan The plan the wave runs through.
+         */
+        void start(ExecutionPlan plan) {
+            m_plan = plan;
+            if (m_messages.length < plan.size())
+                m_messages = new Message[plan.size()];
+            if (m_inputTopics.length < plan.m_maxInputs) {
+                m_inputTopics = new Topic[plan.m_maxInputs];
+                m_inputMessages = new Message[plan.m_maxInputs];
+            }
+            m_cursor = -1;
+            m_running = true;
+        }
+
+        /**
+         * This method is used to stage a message published while the wave runs, or before it starts.
+         * A topic the wave cannot reach any more, e.g. one created after the plan, is published at once.
+         *
+         * @param topic The topic.
+         * @param message The message.
+         */
+        void stage(Topic topic, Message message) {
+            Slot slot = topic.getSlot();
+            if (slot == null || slot.m_plan != m_plan || slot.m_position <= m_cursor) {
+                topic.publishNow(message);
+                return;
+            }
+            m_messages[slot.m_position] = message;
+            m_dirty.set(slot.m_position);
+        }
+
+        /**
+         * This method is used to visit the staged topics and their dependents in the order of the plan.
+         */
+        void run() {
+            ExecutionPlan plan = m_plan;
+            // every edge goes forward, so what is marked while visiting a position is after it
+            for (int i = m_dirty.nextSetBit(0); i >= 0; i = m_dirty.nextSetBit(i + 1)) {
+                m_cursor = i;
+                Topic topic = plan.m_topics[i];
+                if (topic != null) {
+                    m_stored.set(i);
+                    topic.store(m_messages[i]);
+                    for (int subscriber : plan.m_edges[i])
+                        m_dirty.set(subscriber);
+                } else {
+                    call(plan.m_agents[i], plan.m_edges[i]);
+                }
+            }
+        }
+
+        /**
+         * This method is used to call an agent once with all of its inputs that changed in the wave.
+         *
+         * @param agent The agent.
+         * @param inputs The positions of the input topics of the agent.
+         */
+        private void call(Agent agent, int[] inputs) {
+            ExecutionPlan plan = m_plan;
+            int count = 0;
+            for (int input : inputs) {
+                if (m_stored.get(input)) {
+                    m_inputTopics[count] = plan.m_topics[input];
+                    m_inputMessages[count++] = m_messages[input];
+                }
+            }
+            if (count == 1) {
+                agent.callback(m_inputTopics[0], m_inputMessages[0]);
+            } else {
+                agent.callbackAll(m_inputTopics, m_inputMessages, count);
+            }
+            Arrays.fill(m_inputMessages, 0, count, null);
+        }
+
+        /**
+         * This method is used to end the wave, also when an agent threw.
+         */
+        void finish() {
+            // forget the messages, and what an agent that threw left staged
+            for (int i = m_stored.nextSetBit(0); i >= 0; i = m_stored.nextSetBit(i + 1))
+                m_messages[i] = null;
+            for (int i = m_dirty.nextSetBit(0); i >= 0; i = m_dirty.nextSetBit(i + 1))
+                m_messages[i] = null;
+            m_stored.clear();
+            m_dirty.clear();
+            m_running = false;
+            m_plan = null; // the thread does not keep an old graph alive
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final ThreadLocal<Wave> WAVES = ThreadLocal.withInitial(Wave::new);
+
+    // by position, the topic or the agent at the position, the other one is null
+    private final Topic[] m_topics;
+    private final Agent[] m_agents;
+    // by position, the subscribers of a topic or the inputs of an agent
+    private final int[][] m_edges;
+    private final boolean m_acyclic;
+    // the largest number of inputs of an agent
+    private final int m_maxInputs;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    private ExecutionPlan(Topic[] topics, Agent[] agents, int[][] edges, boolean acyclic) {
+        this.m_topics = topics;
+        this.m_agents = agents;
+        this.m_edges = edges;
+        this.m_acyclic = acyclic;
+        int maxInputs = 0;
+        for (int p = 0; p < agents.length; p++) {
+            if (agents[p] != null)
+                maxInputs = Math.max(maxInputs, edges[p].length);
+        }
+        this.m_maxInputs = maxInputs;
+    }
+
+    /**
+     * This method is used to compile the topics and their agents into a plan, in topological order.
+     * A topic comes after the agents publishing to it and an agent after the topics it subscribed to.
+     *
+     * @param topics The topics of the graph.
+     * @return The plan, not acyclic if the graph has a cycle.
+     */
+    static ExecutionPlan compile(Collection<Topic> topics) {
+        List<Topic> topicList = new ArrayList<>(topics);
+        Map<Agent, Integer> agentIds = new IdentityHashMap<>();
+        List<Agent> agentList = new ArrayList<>();
+        List<List<Integer>> successors = new ArrayList<>();
+        List<List<Integer>> inputs = new ArrayList<>();
+
+        // nodes 0..T-1 are the topics, the agents follow in the order they are met
+        int topicCount = topicList.size();
+        for (int t = 0; t < topicCount; t++) {
+            successors.add(new ArrayList<>());
+            inputs.add(null);
+        }
+        for (int t = 0; t < topicCount; t++) {
+            Topic topic = topicList.get(t);
+            for (Agent agent : topic.getSubscribers()) {
+                int node = nodeOf(agent, topicCount, agentIds, agentList, successors, inputs);
+                successors.get(t).add(node);
+                inputs.get(node).add(t);
+            }
+            for (Agent agent : topic.getPublishers()) {
+                int node = nodeOf(agent, topicCount, agentIds, agentList, successors, inputs);
+                successors.get(node).add(t);
+            }
+        }
+
+        // Kahn's algorithm
+        int nodeCount = successors.size();
+        int[] inDegree = new int[nodeCount];
+        for (List<Integer> next : successors) {
+            for (int node : next)
+                inDegree[node]++;
+        }
+        ArrayDeque<Integer> ready = new ArrayDeque<>();
+        for (int node = 0; node < nodeCount; node++) {
+            if (inDegree[node] == 0)
+                ready.add(node);
+        }
+        int[] position = new int[nodeCount];
+        int[] order = new int[nodeCount];
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            int node = ready.poll();
+            position[node] = visited;
+            order[visited++] = node;
+            for (int next : successors.get(node)) {
+                if (--inDegree[next] == 0)
+                    ready.add(next);
+            }
+        }
+        if (visited < nodeCount)
+            return new ExecutionPlan(new Topic[0], new Agent[0], new int[0][], false);
+
+        Topic[] planTopics = new Topic[nodeCount];
+        Agent[] planAgents = new Agent[nodeCount];
+        int[][] edges = new int[nodeCount][];
+        for (int p = 0; p < nodeCount; p++) {
+            int node = order[p];
+            List<Integer> targets;
+            if (node < topicCount) {
+                planTopics[p] = topicList.get(node);
+                targets = successors.get(node);
+            } else {
+                planAgents[p] = agentList.get(node - topicCount);
+                targets = inputs.get(node);
+            }
+            edges[p] = new int[targets.size()];
+            for (int i = 0; i < edges[p].length; i++)
+                edges[p][i] = position[targets.get(i)];
+        }
+        ExecutionPlan plan = new ExecutionPlan(planTopics, planAgents, edges, true);
+        for (int p = 0; p < nodeCount; p++) {
+            if (planTopics[p] != null)
+                planTopics[p].setSlot(new Slot(plan, p));
+        }
+        return plan;
+    }
+
+    /**
+     * This method is used to find the node of an agent while compiling, adding the agent the first time.
+     *
+     * @param agent The agent.
+     * @param topicCount The number of topics, the first agent node.
+     * @param agentIds The node of each agent met so far.
+     * @param agentList The agents met so far.
+     * @param successors The successors of each node.
+     * @param inputs The input topics of each node, null for topics.
+     * @return The node of the agent.
+     */
+    private static int nodeOf(Agent agent, int topicCount, Map<Agent, Integer> agentIds, List<Agent> agentList,
+                              List<List<Integer>> successors, List<List<Integer>> inputs) {
+        Integer node = agentIds.get(agent);
+        if (node == null) {
+            node = topicCount + agentList.size();
+            agentIds.put(agent, node);
+            agentList.add(agent);
+            successors.add(new ArrayList<>());
+            inputs.add(new ArrayList<>());
+        }
+        return node;
+    }
+
+    /**
+     * This method is used to know whether the graph could be ordered.
+     *
+     * @return true if the graph has no cycle and the plan can run waves.
+     */
+    boolean isAcyclic() {
+        return m_acyclic;
+    }
+
+    /**
+     * This method is used to get the number of topics and agents in the plan.
+     *
+     * @return The number of positions of the plan.
+     */
+    int size() {
+        return m_topics.length;
+    }
+
+    /**
+     * This method is used to publish a message, staging it if the thread already runs a wave and starting a wave
+     * otherwise. Without a plan, for a graph with a cycle or a queue dispatch mode, the message goes through the
+     * delivery queue.
+     *
+     * @param topic The topic.
+     * @param message The message.
+     */
+    static void publish(Topic topic, Message message) {
+        Wave wave = WAVES.get();
+        if (wave.m_running) {
+            wave.stage(topic, message);
+            return;
+        }
+        TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get();
+        DispatchMode mode = topicManager.getDispatchMode();
+        ExecutionPlan plan = mode == DispatchMode.TOPOLOGICAL ? topicManager.getPlan() : null;
+        if (plan == null) {
+            DeliveryQueue.publish(topic, message, mode != DispatchMode.BREADTH_FIRST);
+            return;
+        }
+        wave.start(plan);
+        try {
+            wave.stage(topic, message);
+            wave.run();
+        } finally {
+            wave.finish();
+        }
+    }
+
+    /**
+     * This method is used to publish messages to several topics in one wave, an agent depending on several of
+     * them fires once.
+     *
+     * @param batch The message of each topic.
+     */
+    static void publishAll(Map<Topic, Message> batch) {
+        Wave wave = WAVES.get();
+        TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get();
+        boolean topological = !wave.m_running && topicManager.getDispatchMode() == DispatchMode.TOPOLOGICAL;
+        ExecutionPlan plan = topological ? topicManager.getPlan() : null;
+        if (plan == null) {
+            for (Map.Entry<Topic, Message> entry : batch.entrySet())
+                publish(entry.getKey(), entry.getValue());
+            return;
+        }
+        wave.start(plan);
+        try {
+            for (Map.Entry<Topic, Message> entry : batch.entrySet())
+                wave.stage(entry.getKey(), entry.getValue());
+            wave.run();
+        } finally {
+            wave.finish();
+        }
+    }
+}
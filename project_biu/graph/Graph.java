@@ -24,7 +24,7 @@ public class Graph extends ArrayList<Node> {
             return topicMap.get(topicData);
 
         //else, create a new node for the topic
-        String newTopicName = "T" + topicData.m_topicName;
+        String newTopicName = "T" + topicData.getName();
         Node newTopicNode = new Node(newTopicName);
         this.add(newTopicNode);
         topicMap.put(topicData, newTopicNode);
@@ -88,12 +88,12 @@ public class Graph extends ArrayList<Node> {
             Node topicNode = createTopicNode(topic, topicMap);
             topic.setId(topicNode.toString().split("@")[1]);
 
-            for (Agent a : topic.m_listSubscribers) {
+            for (Agent a : topic.getSubscribers()) {
                 Node agentNode = createAgentNode(a, agentMap);
                 topicNode.addEdge(agentNode);
             }
             
-            for (Agent a : topic.m_listPublishers) {
+            for (Agent a : topic.getPublishers()) {
                 Node agentNode = createAgentNode(a, agentMap);
                 agentNode.addEdge(topicNode);
             }
@@ -11,10 +11,10 @@ public class IncAgent implements Agent {
     private String m_agentName;
 
     // input topic
-    private String m_inputTopic;
+    private Topic m_inputTopic;
 
     // output topic
-    private String m_outputTopic;
+    private Topic m_outputTopic;
 
     // last value
     private double m_lastValue;
@@ -35,12 +35,12 @@ public class IncAgent implements Agent {
         }
 
         this.m_agentName = incAgentName;
-        this.m_inputTopic = subscribedTopics[0];
-        this.m_outputTopic = publishedTopics[0];
+        this.m_inputTopic = TopicManagerSingleton.get().getTopic(subscribedTopics[0]);
+        this.m_outputTopic = TopicManagerSingleton.get().getTopic(publishedTopics[0]);
 
         // subscribe to the input topic and add publisher to the output topic
-        TopicManagerSingleton.get().getTopic(m_inputTopic).subscribe(this);
-        TopicManagerSingleton.get().getTopic(m_outputTopic).addPublisher(this);
+        m_inputTopic.subscribe(this);
+        m_outputTopic.addPublisher(this);
     }
 
     /**
@@ -81,12 +81,12 @@ public class IncAgent implements Agent {
      * @param msg   The received message. It is expected to contain a valid double value.
      */
     @Override
-    public void callback(String topic, Message msg) {
+    public void callback(Topic topic, Message msg) {
         if (Double.isNaN(msg.asDouble)) {
             return;
         }
         m_lastValue = msg.asDouble;
-        TopicManagerSingleton.get().getTopic(m_outputTopic).publish(new Message(m_lastValue + 1));
+        m_outputTopic.publish(new Message(m_lastValue + 1));
     }
 
     /**
@@ -94,7 +94,7 @@ public class IncAgent implements Agent {
      */
     @Override
     public void close() {
-        TopicManagerSingleton.get().getTopic(m_inputTopic).unsubscribe(this);
-        TopicManagerSingleton.get().getTopic(m_outputTopic).removePublisher(this);
+        m_inputTopic.unsubscribe(this);
+        m_outputTopic.removePublisher(this);
     }
 }
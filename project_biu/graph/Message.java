@@ -4,16 +4,29 @@ import java.util.Date;
 
 /**
  * This class is used to create a message object with a string, double, and date.
+ * <p>
+ * A message made from a double keeps only the double and the time it was made: its text and bytes are made
+ * the first time they are asked for, so an agent publishing a number to the next agent does not format or
+ * parse it.
  */
 public class Message {
 
+//------------------------------------------------------------------------------------------------------------------
+// Class constants:
+//------------------------------------------------------------------------------------------------------------------
+    // the wall clock time of System.nanoTime() 0, in nanoseconds since the epoch
+    private static final long EPOCH_NANOS = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+
 //------------------------------------------------------------------------------------------------------------------
 // Class variables:
 //------------------------------------------------------------------------------------------------------------------
-    public final byte[] data;
-    public final String asText;
     public final double asDouble;
-    public final Date date;
+
+    // the System.nanoTime() at which the message was made
+    private final long m_nanoTime;
+    // made from the double when first asked for, if the message was made from a double
+    private volatile String m_text;
+    private volatile byte[] m_data;
 
 //------------------------------------------------------------------------------------------------------------------
 // Public Methods:
@@ -21,7 +34,7 @@ public class Message {
 
     /**
      * This constructor is used to create a new Message object with the given string data.
-     * 
+     *
      * @param msgDataAsString The string data to be stored in the Message object.
      */
 
@@ -30,9 +43,8 @@ public class Message {
             throw new NullPointerException("Data cannot be null - check input data");
         }
 
-        this.date = new Date();
-        this.data = msgDataAsString.getBytes();
-        this.asText = msgDataAsString;
+        this.m_nanoTime = System.nanoTime();
+        this.m_text = msgDataAsString;
         double temp;
         try {
             temp = Double.parseDouble(msgDataAsString);
@@ -44,7 +56,7 @@ public class Message {
 
     /**
      * This constructor is used to create a new Message object with the given byte array data.
-     * 
+     *
      * @param msgDataAsByteArray The byte array data to be stored in the Message object.
      */
     public Message(byte[] msgDataAsByteArray) {
@@ -53,11 +65,79 @@ public class Message {
 
     /**
      * This constructor is used to create a new Message object with the given double data.
-     * 
+     *
      * @param msgDataAsDouble The double data to be stored in the Message object.
-     */ 
+     */
     public Message (double msgDataAsDouble) {
-        this(String.valueOf(msgDataAsDouble));
+        this.asDouble = msgDataAsDouble;
+        this.m_nanoTime = System.nanoTime();
+    }
+
+    /**
+     * This constructor is used to create a new Message object with the given double data and time.
+     *
+     * @param msgDataAsDouble The double data to be stored in the Message object.
+     * @param timestamp The time the data was produced in milliseconds since the epoch, e.g. by a remote sensor.
+     */
+    public Message(double msgDataAsDouble, long timestamp) {
+        this.asDouble = msgDataAsDouble;
+        this.m_nanoTime = timestamp * 1_000_000L - EPOCH_NANOS;
+    }
+
+    /**
+     * This method is used to get the text of the message.
+     *
+     * @return The text the message was made from, or the double as formatted by String.valueOf.
+     */
+    public String getText() {
+        String text = m_text;
+        if (text == null) {
+            text = String.valueOf(asDouble);
+            m_text = text;
+        }
+        return text;
+    }
+
+    /**
+     * This method is used to get the bytes of the text of the message, in the default charset.
+     *
+     * @return The bytes of the text, the array must not be changed.
+     */
+    public byte[] getData() {
+        byte[] data = m_data;
+        if (data == null) {
+            data = getText().getBytes();
+            m_data = data;
+        }
+        return data;
+    }
+
+    /**
+     * This method is used to get the time the message was made, without allocating a Date.
+     *
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return Math.floorDiv(m_nanoTime + EPOCH_NANOS, 1_000_000L);
+    }
+
+    /**
+     * This method is used to get the System.nanoTime() at which the message was made, to measure the time a
+     * value takes to go through the graph.
+     *
+     * @return The nano time of the message.
+     */
+    public long getNanoTime() {
+        return m_nanoTime;
+    }
+
+    /**
+     * This method is used to get the time the message was made.
+     *
+     * @return A new Date of the time of the message.
+     */
+    public Date getDate() {
+        return new Date(getTimestamp());
     }
 
 }
@@ -11,9 +11,9 @@ public class ModAgent implements Agent {
     private String m_agentName;
 
     // input topics
-    private String m_firstInputTopic;
-    private String m_secondInputTopic;
-    private String m_outputTopic;
+    private Topic m_firstInputTopic;
+    private Topic m_secondInputTopic;
+    private Topic m_outputTopic;
 
     // input messages values & flags
     private double m_firstMsgValue;
@@ -41,13 +41,13 @@ public class ModAgent implements Agent {
             throw new IllegalArgumentException("ModAgent: modAgentName cannot be null or empty");
         
         this.m_agentName = modAgentName;
-        this.m_firstInputTopic = subscribedTopics[0];
-        this.m_secondInputTopic = subscribedTopics[1];
-        this.m_outputTopic = publishedTopics[0];
+        this.m_firstInputTopic = TopicManagerSingleton.get().getTopic(subscribedTopics[0]);
+        this.m_secondInputTopic = TopicManagerSingleton.get().getTopic(subscribedTopics[1]);
+        this.m_outputTopic = TopicManagerSingleton.get().getTopic(publishedTopics[0]);
 
-        TopicManagerSingleton.get().getTopic(m_firstInputTopic).subscribe(this);
-        TopicManagerSingleton.get().getTopic(m_secondInputTopic).subscribe(this);
-        TopicManagerSingleton.get().getTopic(m_outputTopic).addPublisher(this);
+        m_firstInputTopic.subscribe(this);
+        m_secondInputTopic.subscribe(this);
+        m_outputTopic.addPublisher(this);
     }
 
     /**
@@ -89,27 +89,62 @@ public class ModAgent implements Agent {
      * @param msg The received message.
      */
     @Override
-    public void callback(String topic, Message msg) {
+    public void callback(Topic topic, Message msg) {
+        if (receive(topic, msg))
+            publishResult();
+    }
+
+    /**
+     * This method is used to take in the messages of both inputs at once, e.g. when they changed in the same
+     * wave, and publish the remainder once.
+     *
+     * @param topics The topics on which the messages were received.
+     * @param msgs   The received messages.
+     * @param count  The number of messages.
+     */
+    @Override
+    public void callbackAll(Topic[] topics, Message[] msgs, int count) {
+        boolean received = false;
+        for (int i = 0; i < count; i++) {
+            received |= receive(topics[i], msgs[i]);
+        }
+        if (received)
+            publishResult();
+    }
+
+    /**
+     * This method is used to store the value of a message received on an input.
+     *
+     * @param topic The topic on which the message was received.
+     * @param msg   The received message.
+     * @return true if the message is a number from one of the inputs.
+     */
+    private boolean receive(Topic topic, Message msg) {
         //Check if the message is a number, if not return
         if (Double.isNaN(msg.asDouble))
-            return; 
+            return false; 
 
-        if (topic.equals(m_firstInputTopic)) {
+        if (topic == m_firstInputTopic) {
             m_firstMsgIsReceived = true;
             m_firstMsgValue = msg.asDouble;
         }
-        else if (topic.equals(m_secondInputTopic)) {
+        else if (topic == m_secondInputTopic) {
             m_secondMsgIsReceived = true;
             m_secondMsgValue = msg.asDouble;
         }
-        else return;
+        else return false;
+        return true;
+    }
 
+    /**
+     * This method is used to publish the remainder once both values are received.
+     */
+    private void publishResult() {
         // Publish only if two messages received
         if (m_firstMsgIsReceived && m_secondMsgIsReceived || m_secondMsgValue==0){
             double out = m_secondMsgValue % m_firstMsgValue;
-            TopicManagerSingleton.get().getTopic(m_outputTopic).publish(new Message(out));
+            m_outputTopic.publish(new Message(out));
         }
-        else return;
     }
 
     /**
@@ -117,8 +152,8 @@ public class ModAgent implements Agent {
      */ 
     @Override
     public void close() {
-        TopicManagerSingleton.get().getTopic(m_firstInputTopic).unsubscribe(this);
-        TopicManagerSingleton.get().getTopic(m_secondInputTopic).unsubscribe(this);
-        TopicManagerSingleton.get().getTopic(m_outputTopic).removePublisher(this);  
+        m_firstInputTopic.unsubscribe(this);
+        m_secondInputTopic.unsubscribe(this);
+        m_outputTopic.removePublisher(this);  
     }
 }
@@ -26,7 +26,7 @@ public class ParallelAgent implements Agent {
      * This class is used to hold a topic and a message together in queue.
      */
     public static class MessageQueued {
-        private String m_topic;
+        private Topic m_topic;
         private Message m_msg;
 
         /**
@@ -35,7 +35,7 @@ public class ParallelAgent implements Agent {
          * @param topic The topic of the message.
          * @param msg   The message.
          */
-        MessageQueued(String topic, Message msg) {
+        MessageQueued(Topic topic, Message msg) {
             this.m_msg = msg;
             this.m_topic = topic;
         }
@@ -119,7 +119,7 @@ public class ParallelAgent implements Agent {
      * @param msg   The message.
      */
     @Override
-    public void callback(String topic, Message msg) {
+    public void callback(Topic topic, Message msg) {
         put(new MessageQueued(topic, msg));
     }
 
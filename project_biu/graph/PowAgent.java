@@ -9,9 +9,9 @@ public class PowAgent implements Agent {
 // Class variables:
 //------------------------------------------------------------------------------------------------------------------
     private String m_powAgentName;
-    private String m_firstInputTopic;
-    private String m_secondInputTopic;
-    private String m_outputTopic;
+    private Topic m_firstInputTopic;
+    private Topic m_secondInputTopic;
+    private Topic m_outputTopic;
 
     // Messages:
     private double m_firstMsgValue;
@@ -34,13 +34,13 @@ public class PowAgent implements Agent {
         if (subscribedTopics == null || publishedTopics == null || subscribedTopics.length < 1 || publishedTopics.length < 1)
             throw new IllegalArgumentException("PowAgent: subscribedTopics must have at least 2 elements and publishedTopics at least one");
         this.m_powAgentName = powAgentName;
-        this.m_firstInputTopic = subscribedTopics[0];
-        this.m_secondInputTopic = subscribedTopics[1];
-        this.m_outputTopic = publishedTopics[0];
+        this.m_firstInputTopic = TopicManagerSingleton.get().getTopic(subscribedTopics[0]);
+        this.m_secondInputTopic = TopicManagerSingleton.get().getTopic(subscribedTopics[1]);
+        this.m_outputTopic = TopicManagerSingleton.get().getTopic(publishedTopics[0]);
 
-        TopicManagerSingleton.get().getTopic(m_firstInputTopic).subscribe(this);
-        TopicManagerSingleton.get().getTopic(m_secondInputTopic).subscribe(this);
-        TopicManagerSingleton.get().getTopic(m_outputTopic).addPublisher(this);
+        m_firstInputTopic.subscribe(this);
+        m_secondInputTopic.subscribe(this);
+        m_outputTopic.addPublisher(this);
     }
 
     /**
@@ -84,23 +84,59 @@ public class PowAgent implements Agent {
      *              and publishes the result on the outputTopic.
      */
     @Override
-    public void callback(String topic, Message msg) {
+    public void callback(Topic topic, Message msg) {
+        if (receive(topic, msg))
+            publishResult();
+    }
+
+    /**
+     * This method is used to take in the messages of both inputs at once, e.g. when they changed in the same
+     * wave, and publish the power once.
+     *
+     * @param topics The topics on which the messages were received.
+     * @param msgs   The received messages.
+     * @param count  The number of messages.
+     */
+    @Override
+    public void callbackAll(Topic[] topics, Message[] msgs, int count) {
+        boolean received = false;
+        for (int i = 0; i < count; i++) {
+            received |= receive(topics[i], msgs[i]);
+        }
+        if (received)
+            publishResult();
+    }
+
+    /**
+     * This method is used to store the value of a message received on an input.
+     *
+     * @param topic The topic on which the message was received.
+     * @param msg   The received message.
+     * @return true if the message is a number from one of the inputs.
+     */
+    private boolean receive(Topic topic, Message msg) {
         if (Double.isNaN(msg.asDouble))
-            return;
-        if (topic.equals(m_firstInputTopic)) {
+            return false;
+        if (topic == m_firstInputTopic) {
             m_firstMsgIsReceived = true;
             m_firstMsgValue = msg.asDouble;
-        } else if (topic.equals(m_secondInputTopic)) {
+        } else if (topic == m_secondInputTopic) {
             m_secondMsgIsReceived = true;
             m_secondMsgValue = msg.asDouble;
-        } else return;
+        } else return false;
+        return true;
+    }
+
+    /**
+     * This method is used to publish the power once both values are received.
+     */
+    private void publishResult() {
         // Publish only if two messages received
         if (m_firstMsgIsReceived && m_secondMsgIsReceived)
         {
             double out = Math.pow(m_firstMsgValue, m_secondMsgValue);
-            TopicManagerSingleton.get().getTopic(m_outputTopic).publish(new Message(out));
+            m_outputTopic.publish(new Message(out));
         }
-        else return;
     }
 
     /**
@@ -108,8 +144,8 @@ public class PowAgent implements Agent {
      */ 
     @Override
     public void close() {
-        TopicManagerSingleton.get().getTopic(m_firstInputTopic).unsubscribe(this);
-        TopicManagerSingleton.get().getTopic(m_secondInputTopic).unsubscribe(this);
-        TopicManagerSingleton.get().getTopic(m_outputTopic).removePublisher(this);
+        m_firstInputTopic.unsubscribe(this);
+        m_secondInputTopic.unsubscribe(this);
+        m_outputTopic.removePublisher(this);
     }
 }
@@ -9,8 +9,8 @@ public class SqrtAgent implements Agent {
 // Class variables:
 //------------------------------------------------------------------------------------------------------------------
     private String m_sqrtAgentName;
-    private String m_inputTopic;
-    private String m_outputTopic;
+    private Topic m_inputTopic;
+    private Topic m_outputTopic;
     private double m_message;
 
 //------------------------------------------------------------------------------------------------------------------
@@ -32,11 +32,11 @@ public class SqrtAgent implements Agent {
         }
 
         this.m_sqrtAgentName = sqrtAgentName;
-        this.m_inputTopic = subscribedTopics[0];
-        this.m_outputTopic = publishedTopics[0];
+        this.m_inputTopic = TopicManagerSingleton.get().getTopic(subscribedTopics[0]);
+        this.m_outputTopic = TopicManagerSingleton.get().getTopic(publishedTopics[0]);
 
-        TopicManagerSingleton.get().getTopic(m_inputTopic).subscribe(this);
-        TopicManagerSingleton.get().getTopic(m_outputTopic).addPublisher(this);
+        m_inputTopic.subscribe(this);
+        m_outputTopic.addPublisher(this);
     }
 
     /**
@@ -77,12 +77,12 @@ public class SqrtAgent implements Agent {
      * @param msg   The received message. It must be a non-negative double value.
      */
     @Override
-    public void callback(String topic, Message msg) {
+    public void callback(Topic topic, Message msg) {
         if (Double.isNaN(msg.asDouble) || msg.asDouble < 0) {
             return;
         }
         m_message = msg.asDouble;
-        TopicManagerSingleton.get().getTopic(m_outputTopic).publish(new Message(Math.sqrt(m_message)));
+        m_outputTopic.publish(new Message(Math.sqrt(m_message)));
     }
 
     /**
@@ -90,7 +90,7 @@ public class SqrtAgent implements Agent {
      */
     @Override
     public void close() {
-        TopicManagerSingleton.get().getTopic(m_inputTopic).unsubscribe(this);
-        TopicManagerSingleton.get().getTopic(m_outputTopic).removePublisher(this);
+        m_inputTopic.unsubscribe(this);
+        m_outputTopic.removePublisher(this);
     }
 }
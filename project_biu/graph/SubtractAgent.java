@@ -11,9 +11,9 @@ public class SubtractAgent implements Agent {
     private String m_agentName;
 
     // input topics
-    private String m_firstInputTopic;
-    private String m_secondInputTopic;
-    private String m_outputTopic;
+    private Topic m_firstInputTopic;
+    private Topic m_secondInputTopic;
+    private Topic m_outputTopic;
 
     // input messages values & flags
     private double m_firstMsgValue;
@@ -42,13 +42,13 @@ public class SubtractAgent implements Agent {
             throw new IllegalArgumentException("SubtractAgent: subAgentName cannot be null or empty");
         
         this.m_agentName = subAgentName;
-        this.m_firstInputTopic = subscribedTopics[0];
-        this.m_secondInputTopic = subscribedTopics[1];
-        this.m_outputTopic = publishedTopics[0];
+        this.m_firstInputTopic = TopicManagerSingleton.get().getTopic(subscribedTopics[0]);
+        this.m_secondInputTopic = TopicManagerSingleton.get().getTopic(subscribedTopics[1]);
+        this.m_outputTopic = TopicManagerSingleton.get().getTopic(publishedTopics[0]);
 
-        TopicManagerSingleton.get().getTopic(m_firstInputTopic).subscribe(this);
-        TopicManagerSingleton.get().getTopic(m_secondInputTopic).subscribe(this);
-        TopicManagerSingleton.get().getTopic(m_outputTopic).addPublisher(this);
+        m_firstInputTopic.subscribe(this);
+        m_secondInputTopic.subscribe(this);
+        m_outputTopic.addPublisher(this);
     }
 
     /**
@@ -90,27 +90,62 @@ public class SubtractAgent implements Agent {
      * @param msg The received message.
      */
     @Override
-    public void callback(String topic, Message msg) {
+    public void callback(Topic topic, Message msg) {
+        if (receive(topic, msg))
+            publishResult();
+    }
+
+    /**
+     * This method is used to take in the messages of both inputs at once, e.g. when they changed in the same
+     * wave, and publish the difference once.
+     *
+     * @param topics The topics on which the messages were received.
+     * @param msgs   The received messages.
+     * @param count  The number of messages.
+     */
+    @Override
+    public void callbackAll(Topic[] topics, Message[] msgs, int count) {
+        boolean received = false;
+        for (int i = 0; i < count; i++) {
+            received |= receive(topics[i], msgs[i]);
+        }
+        if (received)
+            publishResult();
+    }
+
+    /**
+     * This method is used to store the value of a message received on an input.
+     *
+     * @param topic The topic on which the message was received.
+     * @param msg   The received message.
+     * @return true if the message is a number from one of the inputs.
+     */
+    private boolean receive(Topic topic, Message msg) {
         //Check if the message is a number, if not return
         if (Double.isNaN(msg.asDouble))
-            return; 
+            return false; 
 
-        if (topic.equals(m_firstInputTopic)) {
+        if (topic == m_firstInputTopic) {
             m_firstMsgIsReceived = true;
             m_firstMsgValue = msg.asDouble;
         }
-        else if (topic.equals(m_secondInputTopic)) {
+        else if (topic == m_secondInputTopic) {
             m_secondMsgIsReceived = true;
             m_secondMsgValue = msg.asDouble;
         }
-        else return;
+        else return false;
+        return true;
+    }
 
+    /**
+     * This method is used to publish the difference once both values are received.
+     */
+    private void publishResult() {
         // Publish only if two messages received
         if (m_firstMsgIsReceived && m_secondMsgIsReceived){
             double subResult = m_firstMsgValue - m_secondMsgValue;
-            TopicManagerSingleton.get().getTopic(m_outputTopic).publish(new Message(subResult));
+            m_outputTopic.publish(new Message(subResult));
         }
-        else return;
     }
 
     /**
@@ -118,8 +153,8 @@ public class SubtractAgent implements Agent {
      */
     @Override
     public void close() {
-        TopicManagerSingleton.get().getTopic(m_firstInputTopic).unsubscribe(this);
-        TopicManagerSingleton.get().getTopic(m_secondInputTopic).unsubscribe(this);
-        TopicManagerSingleton.get().getTopic(m_outputTopic).removePublisher(this);  
+        m_firstInputTopic.unsubscribe(this);
+        m_secondInputTopic.unsubscribe(this);
+        m_outputTopic.removePublisher(this);  
     }
 }
@@ -1,22 +1,37 @@
 package graph;
 
-import java.util.Set;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * This class is used to represent a topic in the system.
+ * <p>
+ * The subscribers and publishers are kept in arrays that are replaced, never changed, when an agent is added
+ * or removed. A publish reads the current array once and iterates it without a lock or an iterator, and agents
+ * may subscribe and unsubscribe from any thread meanwhile.
 */ 
 public class Topic {
 
 //------------------------------------------------------------------------------------------------------------------
 // Class variables:
 //------------------------------------------------------------------------------------------------------------------
-    public final String m_topicName;
-    public Set<Agent> m_listSubscribers;
-    public Set<Agent> m_listPublishers;
+    private static final Agent[] NO_AGENTS = new Agent[0];
 
-    private Message m_lastMessage;
+    private final String m_topicName;
+    // replaced under m_agentsLock, read without it
+    private volatile Agent[] m_subscribers;
+    private volatile Agent[] m_publishers;
+    private final Object m_agentsLock;
+
+    private volatile Message m_lastMessage;
+    // the position of the topic in the plan it was last compiled into
+    private volatile ExecutionPlan.Slot m_slot;
     private String m_topicId;
+    // the global version of the last message, PUBLISHING while a new message is being stored
+    private volatile long m_version;
+
+    private static final long PUBLISHING = Long.MAX_VALUE;
 
     /**
      * This constructor is used to create a new Topic instance with the given name.
@@ -32,8 +47,9 @@ public class Topic {
 
         System.out.println("Topic created: " + topicName);
         this.m_topicName = topicName;
-        m_listSubscribers = new HashSet<Agent>();
-        m_listPublishers = new HashSet<Agent>();
+        m_subscribers = NO_AGENTS;
+        m_publishers = NO_AGENTS;
+        m_agentsLock = new Object();
     }
     
 
@@ -42,12 +58,24 @@ public class Topic {
 //------------------------------------------------------------------------------------------------------------------
 
     /**
-     * This method is used to subscribe an agent to the topic.
+     * This method is used to get the name of the topic.
+     *
+     * @return The name of the topic.
+     */
+    public String getName() {
+        return m_topicName;
+    }
+
+    /**
+     * This method is used to subscribe an agent to the topic. An agent is subscribed at most once.
      * 
      * @param agent The agent to subscribe to the topic.
      */
     public void subscribe(Agent agent) {
-        m_listSubscribers.add(agent);
+        synchronized (m_agentsLock) {
+            m_subscribers = added(m_subscribers, agent);
+        }
+        TopicManagerSingleton.get().invalidatePlan();
     }
 
     /**
@@ -56,19 +84,52 @@ public class Topic {
      * @param agent The agent to unsubscribe from the topic.
      */
     public void unsubscribe(Agent agent) {
-        m_listSubscribers.remove(agent);
+        synchronized (m_agentsLock) {
+            m_subscribers = removed(m_subscribers, agent);
+        }
+        TopicManagerSingleton.get().invalidatePlan();
     }
 
     /**
-     * This method is used to publish a message to the topic.
+     * This method is used to publish a message to the topic. The message reaches the subscribers through a wave
+     * of the {@link ExecutionPlan} of the graph, in topological order, or through the {@link DeliveryQueue} of
+     * the thread if the graph has a cycle or the {@link DispatchMode} of the topic manager asks for it.
      * 
      * @param message The message to publish to the topic.
      */
     public void publish(Message message) {
-        m_lastMessage = message; // Update last message received by the topic
-        for (Agent sub : m_listSubscribers) {
-            sub.callback(this.m_topicName, message); // Send message
+        ExecutionPlan.publish(this, message);
+    }
+
+    /**
+     * This method is used to publish a message by calling the subscribers at once, in the order they subscribed.
+     *
+     * @param message The message to publish to the topic.
+     */
+    void publishNow(Message message) {
+        store(message);
+        for (Agent sub : m_subscribers) {
+            sub.callback(this, message); // Send message
+        }
+    }
+
+    /**
+     * This method is used to store the message as the last message of the topic and tell the listeners of the
+     * topic manager, without calling the subscribers.
+     *
+     * @param message The message to store.
+     */
+    void store(Message message) {
+        TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get();
+        synchronized (this) {
+            // readers of the changes see the topic as changing until both the message and its version are stored
+            m_version = PUBLISHING;
+            m_lastMessage = message; // Update last message received by the topic
+            // after the message, so whoever reads the global version also sees the messages up to it
+            long version = topicManager.nextVersion();
+            m_version = version;
         }
+        topicManager.notifyPublish(this, message);
     }
 
     /**
@@ -77,7 +138,10 @@ public class Topic {
      * @param agent The agent to add as a publisher to the topic.
      */
     public void addPublisher(Agent agent) {
-        m_listPublishers.add(agent);
+        synchronized (m_agentsLock) {
+            m_publishers = added(m_publishers, agent);
+        }
+        TopicManagerSingleton.get().invalidatePlan();
     }
 
     /**
@@ -86,7 +150,37 @@ public class Topic {
      * @param agent The agent to remove as a publisher from the topic.
      */
     public void removePublisher(Agent agent) {
-        m_listPublishers.remove(agent);
+        synchronized (m_agentsLock) {
+            m_publishers = removed(m_publishers, agent);
+        }
+        TopicManagerSingleton.get().invalidatePlan();
+    }
+
+    /**
+     * This method is used to get the agents subscribed to the topic without copying them.
+     *
+     * @return The subscribers, in the order they subscribed. The array must not be changed.
+     */
+    Agent[] getSubscriberArray() {
+        return m_subscribers;
+    }
+
+    /**
+     * This method is used to get the agents subscribed to the topic.
+     *
+     * @return A read-only snapshot of the subscribers, in the order they subscribed.
+     */
+    public List<Agent> getSubscribers() {
+        return Collections.unmodifiableList(Arrays.asList(m_subscribers));
+    }
+
+    /**
+     * This method is used to get the agents publishing to the topic.
+     *
+     * @return A read-only snapshot of the publishers, in the order they were added.
+     */
+    public List<Agent> getPublishers() {
+        return Collections.unmodifiableList(Arrays.asList(m_publishers));
     }
 
     /**
@@ -95,13 +189,42 @@ public class Topic {
      * @return The last message published to the topic.
      */
     public Message getLastMsg() {
-        // return null if no message was published to the topic
-        if (m_lastMessage == null) {
-            return null;
-        }
+        // null if no message was published to the topic
         return m_lastMessage;
     }
 
+    /**
+     * This method is used to get the global version of the last message published to the topic.
+     *
+     * @return The version of the last message, 0 if no message was published to the topic.
+     */
+    public long getVersion() {
+        long version = m_version;
+        while (version == PUBLISHING) {
+            Thread.onSpinWait();
+            version = m_version;
+        }
+        return version;
+    }
+
+    /**
+     * This method is used to get the position of the topic in the plan it was last compiled into.
+     *
+     * @return The slot of the topic, or null if it was never compiled into a plan.
+     */
+    ExecutionPlan.Slot getSlot() {
+        return m_slot;
+    }
+
+    /**
+     * This method is used to set the position of the topic in a new plan.
+     *
+     * @param slot The slot of the topic.
+     */
+    void setSlot(ExecutionPlan.Slot slot) {
+        this.m_slot = slot;
+    }
+
     /**
      * This method is used to get the id of the topic.
      * 
@@ -118,5 +241,44 @@ public class Topic {
      */
     public void setId(String id) {
         this.m_topicId = id;
+        TopicManagerSingleton.get().nextVersion(); // the id is shown in the pages of the topics
+    }
+
+    /**
+     * This method is used to make a copy of an array of agents with one more agent.
+     *
+     * @param agents The current agents.
+     * @param agent The agent to add.
+     * @return The new array, or the same array if the agent is already in it.
+     */
+    private static Agent[] added(Agent[] agents, Agent agent) {
+        for (Agent a : agents) {
+            if (a.equals(agent))
+                return agents;
+        }
+        Agent[] copy = Arrays.copyOf(agents, agents.length + 1);
+        copy[agents.length] = agent;
+        return copy;
+    }
+
+    /**
+     * This method is used to make a copy of an array of agents without an agent.
+     *
+     * @param agents The current agents.
+     * @param agent The agent to remove.
+     * @return The new array, or the same array if the agent is not in it.
+     */
+    private static Agent[] removed(Agent[] agents, Agent agent) {
+        for (int i = 0; i < agents.length; i++) {
+            if (agents[i].equals(agent)) {
+                if (agents.length == 1)
+                    return NO_AGENTS;
+                Agent[] copy = new Agent[agents.length - 1];
+                System.arraycopy(agents, 0, copy, 0, i);
+                System.arraycopy(agents, i + 1, copy, i, agents.length - i - 1);
+                return copy;
+            }
+        }
+        return agents;
     }
 }
@@ -0,0 +1,10 @@
+package graph;
+
+/**
+ * This interface is used to observe the messages published to all topics or to one topic, e.g. to push them to
+ * dashboards.
+ * Listeners are called on the publishing thread, so they must return quickly.
+ */
+public interface TopicListener {
+    void onPublish(Topic topic, Message msg);
+}
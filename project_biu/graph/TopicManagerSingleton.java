@@ -1,16 +1,39 @@
 package graph;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TopicManagerSingleton {
     public static class TopicManager {
         private static final TopicManager instance = new TopicManager();
         Map<String, Topic> topics;
+        private final List<TopicListener> listeners;
+        // the listeners of a single topic, by topic name, so a publish only calls those of its own topic
+        private final Map<String, Set<TopicListener>> topicListeners;
+        private final Object batchLock;
+        // bumped by every message published and every change of the topics, so a client can ask for the topics
+        // changed since it last looked, and a page of the topics can be kept until the version moves
+        private final AtomicLong version;
+        // the version at which the topics were last cleared
+        private volatile long clearVersion;
+        // compiled on the first publish after the agents of a topic changed
+        private volatile ExecutionPlan plan;
+        private final Object planLock;
+        private volatile DispatchMode dispatchMode;
 
         private TopicManager() {
             topics = new ConcurrentHashMap<>();
+            listeners = new CopyOnWriteArrayList<>();
+            topicListeners = new ConcurrentHashMap<>();
+            batchLock = new Object();
+            version = new AtomicLong();
+            planLock = new Object();
+            dispatchMode = DispatchMode.TOPOLOGICAL;
         }
 
         /**
@@ -23,19 +46,218 @@ public class TopicManagerSingleton {
         public Topic getTopic(String numbers) {
             Topic topic = topics.get(numbers);
             if (topic == null) { // If Topic doesn't exist, create a new one
-                topic = new Topic(numbers);
-                topics.put(numbers, topic);
+                // atomically, agents created on different threads must bind to the same topic
+                topic = topics.computeIfAbsent(numbers, name -> {
+                    Topic created = new Topic(name);
+                    version.incrementAndGet();
+                    return created;
+                });
             }
             return topic;
         }
 
+        /**
+         * Retrieves an existing Topic object without creating it.
+         *
+         * @param name The name of the Topic.
+         * @return The Topic object, or null if no Topic has this name.
+         */
+        public Topic findTopic(String name) {
+            return topics.get(name);
+        }
+
         public Collection<Topic> getTopics() {
             return topics.values();
         }
 
+        /**
+         * Registers a listener that is told about every message published to any topic. Every publish calls it,
+         * a listener interested in some topics only should use {@link #addListener(String, TopicListener)}.
+         *
+         * @param listener The listener to add.
+         */
+        public void addListener(TopicListener listener) {
+            listeners.add(listener);
+        }
+
+        /**
+         * Removes a listener added with {@link #addListener(TopicListener)}.
+         *
+         * @param listener The listener to remove.
+         */
+        public void removeListener(TopicListener listener) {
+            listeners.remove(listener);
+        }
+
+        /**
+         * Registers a listener that is told about the messages published to one topic. Adding and removing it
+         * costs the same however many listeners there are. The listener is kept by name, so it also hears the
+         * topic of that name that a new configuration creates.
+         *
+         * @param topicName The name of the topic.
+         * @param listener The listener to add.
+         */
+        public void addListener(String topicName, TopicListener listener) {
+            topicListeners.compute(topicName, (name, topicSet) -> {
+                if (topicSet == null)
+                    topicSet = ConcurrentHashMap.newKeySet();
+                topicSet.add(listener);
+                return topicSet;
+            });
+        }
+
+        /**
+         * Removes a listener added with {@link #addListener(String, TopicListener)}.
+         *
+         * @param topicName The name of the topic.
+         * @param listener The listener to remove.
+         */
+        public void removeListener(String topicName, TopicListener listener) {
+            topicListeners.computeIfPresent(topicName, (name, topicSet) -> {
+                topicSet.remove(listener);
+                return topicSet.isEmpty() ? null : topicSet;
+            });
+        }
+
+        /**
+         * Publishes a batch of messages as one update. The caller keeps a single message for each topic, so an
+         * agent subscribed to a topic runs once for the whole batch instead of once for every value sent to the
+         * topic. The batch is one wave of the execution plan, an agent subscribed to several topics of the batch
+         * also runs once. Batches published this way are serialized, the topics of one batch never see the
+         * messages of another batch in between.
+         *
+         * @param batch The message of each topic, published in the iteration order of the map.
+         */
+        public void publishBatch(Map<Topic, Message> batch) {
+            synchronized (batchLock) {
+                ExecutionPlan.publishAll(batch);
+            }
+        }
+
+        /**
+         * Chooses how a published message reaches the agents. The publishes already running keep the mode they
+         * started with.
+         *
+         * @param mode The dispatch mode, {@link DispatchMode#TOPOLOGICAL} by default.
+         */
+        public void setDispatchMode(DispatchMode mode) {
+            if (mode == null) {
+                throw new NullPointerException("Dispatch mode cannot be null");
+            }
+            dispatchMode = mode;
+        }
+
+        /**
+         * Retrieves how a published message reaches the agents.
+         *
+         * @return The dispatch mode.
+         */
+        public DispatchMode getDispatchMode() {
+            return dispatchMode;
+        }
+
+        /**
+         * Retrieves the global version, the version of the last message published to any topic or of the last
+         * topic created, given an id or cleared. Every change up to this version is visible to the caller.
+         *
+         * @return The current version, it only grows.
+         */
+        public long getVersion() {
+            return version.get();
+        }
+
+        /**
+         * Retrieves the version at which the topics were last cleared. A client that saw an older version
+         * must read all the topics again, the topics it knows may be gone.
+         *
+         * @return The version of the last {@link #clear()}, 0 if the topics were never cleared.
+         */
+        public long getClearVersion() {
+            return clearVersion;
+        }
+
+        /**
+         * Collects the topics whose value changed after a version, without looking at the other topics' messages.
+         * The returned version is the one to ask from next time: every change after it will be collected then,
+         * a topic being published while the topics are scanned may be collected twice but is never missed.
+         *
+         * @param since The version the caller already knows.
+         * @param changed The collection the changed topics are added to.
+         * @return The version the changes were collected up to.
+         */
+        public long collectChangesSince(long since, Collection<Topic> changed) {
+            // every version up to this one is stored, a topic caught storing its message is waited for
+            long current = version.get();
+            for (Topic topic : topics.values()) {
+                if (topic.getVersion() > since && topic.getLastMsg() != null)
+                    changed.add(topic);
+            }
+            return current;
+        }
+
+        /**
+         * Allocates the version of a message being published.
+         *
+         * @return The new global version.
+         */
+        long nextVersion() {
+            return version.incrementAndGet();
+        }
+
+        /**
+         * Tells the listeners that a message was published to a topic.
+         *
+         * @param topic The topic the message was published to.
+         * @param msg The published message.
+         */
+        void notifyPublish(Topic topic, Message msg) {
+            for (TopicListener listener : listeners) {
+                listener.onPublish(topic, msg);
+            }
+            if (topicListeners.isEmpty())
+                return;
+            Set<TopicListener> topicSet = topicListeners.get(topic.getName());
+            if (topicSet != null) {
+                for (TopicListener listener : topicSet) {
+                    listener.onPublish(topic, msg);
+                }
+            }
+        }
+
+        /**
+         * Retrieves the execution plan of the current topics and agents, compiling it if they changed since.
+         *
+         * @return The plan, or null if the graph has a cycle and the messages go through the delivery queue.
+         */
+        ExecutionPlan getPlan() {
+            ExecutionPlan current = plan;
+            if (current == null) {
+                synchronized (planLock) {
+                    current = plan;
+                    if (current == null) {
+                        current = ExecutionPlan.compile(topics.values());
+                        plan = current;
+                    }
+                }
+            }
+            return current.isAcyclic() ? current : null;
+        }
+
+        /**
+         * Drops the execution plan after an agent was added to or removed from a topic.
+         * A plan being compiled is dropped once it is done, it may have missed the change.
+         */
+        void invalidatePlan() {
+            synchronized (planLock) {
+                plan = null;
+            }
+        }
+
         public void clear() {
             System.out.println("TopicManager: Clearing all topics!");
             topics.clear();
+            invalidatePlan();
+            clearVersion = version.incrementAndGet();
         }
     }
 
@@ -0,0 +1,308 @@
+package ingest;
+
+import graph.Message;
+import graph.Topic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class listens for feeders that publish values at a high rate over a binary protocol, without the cost
+ * of HTTP and of text. Every message is a frame, all numbers are big-endian:
+ * <pre>
+ * frame    = length:int32 type:uint8 payload           length counts the type and the payload
+ * HELLO    = 1 version:uint8 count:uint16 (nameLength:uint16 name:utf8)*      client to server
+ * IDS      = 2 count:uint16 (id:int32)*                                      server to client
+ * RECORDS  = 3 (id:int32 value:float64 timestamp:int64)*                     client to server
+ * ERROR    = 4 message:utf8                                                  server to client
+ * </pre>
+ * A feeder sends HELLO with the names of its topics and gets their ids in IDS, in the same order. It then sends
+ * RECORDS frames, each holding as many records as fit in a frame, with the timestamp in milliseconds since the
+ * epoch. HELLO may be sent again for more topics, the ids are shared by every connection, and -1 is answered
+ * once {@value TopicIndex#MAX_TOPICS} names have ids. Records of topics that do not exist, e.g. before
+ * a configuration is loaded, are counted and skipped. A frame that breaks the protocol is answered with ERROR
+ * and the connection is closed.
+ * <p>
+ * Each connection is read by its own thread, which publishes the records in order. A feeder faster than the
+ * graph is slowed down by TCP flow control.
+ */
+public class BinaryIngestServer implements Runnable {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    static final int PROTOCOL_VERSION = 1;
+    static final int TYPE_HELLO = 1;
+    static final int TYPE_IDS = 2;
+    static final int TYPE_RECORDS = 3;
+    static final int TYPE_ERROR = 4;
+    static final int RECORD_SIZE = 20;
+
+    // about 50 000 records, enough to amortize a frame and small enough to bound the memory of a connection
+    private static final int MAX_FRAME_LENGTH = 1024 * 1024;
+    private static final int MAX_NAME_LENGTH = 1024;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final int m_portNumber;
+    private final TopicIndex m_index;
+    private final IngestStats m_stats;
+    private final ExecutorService m_executor;
+    private final Semaphore m_connectionSlots;
+    private final Set<Socket> m_sockets;
+    private volatile boolean m_running;
+    private volatile ServerSocket m_serverSocket;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner classes:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * An error of the client that ends the connection with an ERROR frame.
+     */
+    private static final class ProtocolException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ProtocolException(String reason) {
+            super(reason);
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * This constructor initializes the listener with the given port number.
+     *
+     * @param portNumber     the port number on which the feeders connect.
+     * @param maxConnections the number of feeders served at the same time.
+     */
+    public BinaryIngestServer(int portNumber, int maxConnections) {
+        this.m_portNumber = portNumber;
+        this.m_index = new TopicIndex();
+        this.m_stats = new IngestStats();
+        this.m_executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "binary-ingest");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.m_connectionSlots = new Semaphore(maxConnections);
+        this.m_sockets = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * @return the counters of the listener.
+     */
+    public IngestStats getStats() {
+        return m_stats;
+    }
+
+    /**
+     * this method starts the listener.
+     */
+    public void start() {
+        this.m_running = true;
+        new Thread(this, "binary-ingest-accept").start();
+    }
+
+    /**
+     * this method stops the listener and closes the connections of the feeders.
+     */
+    public void close() {
+        this.m_running = false;
+        m_executor.shutdownNow();
+        try {
+            ServerSocket serverSocket = m_serverSocket;
+            if (serverSocket != null)
+                serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        // a blocking read is not interrupted, closing the socket ends it
+        for (Socket socket : m_sockets) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * this method accepts the feeders until the listener is closed.
+     */
+    @Override
+    public void run() {
+        try (ServerSocket serverSocket = new ServerSocket(m_portNumber)) {
+            m_serverSocket = serverSocket;
+            serverSocket.setSoTimeout(1000);
+            while (m_running) {
+                if (!m_connectionSlots.tryAcquire(1000, TimeUnit.MILLISECONDS))
+                    continue;
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketTimeoutException | SocketException e) {
+                    m_connectionSlots.release();
+                    continue;
+                }
+                m_stats.connectionAccepted();
+                try {
+                    m_executor.execute(() -> serve(socket));
+                } catch (RejectedExecutionException e) {
+                    m_connectionSlots.release();
+                    socket.close();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (m_running)
+                e.printStackTrace();
+        }
+    }
+
+    /**
+     * this method reads the frames of a feeder until it closes the connection.
+     * @param socket the socket connected to the feeder.
+     */
+    private void serve(Socket socket) {
+        m_sockets.add(socket);
+        try {
+            if (!m_running)
+                return;
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            ByteBuffer frame = ByteBuffer.allocate(64 * 1024);
+            try {
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        return; // the feeder is done
+                    }
+                    if (length < 1 || length > MAX_FRAME_LENGTH)
+                        throw new ProtocolException("Invalid frame length " + length);
+                    if (frame.capacity() < length)
+                        frame = ByteBuffer.allocate(Math.max(length, Math.min(frame.capacity() * 2, MAX_FRAME_LENGTH)));
+                    frame.clear().limit(length);
+                    in.readFully(frame.array(), 0, length);
+                    m_stats.frameReceived();
+
+                    int type = frame.get() & 0xFF;
+                    if (type == TYPE_RECORDS)
+                        publishRecords(frame);
+                    else if (type == TYPE_HELLO)
+                        answerHello(frame, out);
+                    else
+                        throw new ProtocolException("Unknown frame type " + type);
+                }
+            } catch (ProtocolException e) {
+                m_stats.protocolError();
+                byte[] reason = e.getMessage().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(1 + reason.length);
+                out.writeByte(TYPE_ERROR);
+                out.write(reason);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the feeder went away, or the listener is closing
+        } finally {
+            m_sockets.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            m_connectionSlots.release();
+        }
+    }
+
+    /**
+     * this method publishes the records of a RECORDS frame, in order.
+     * @param frame the frame, positioned after its type.
+     * @throws ProtocolException if the payload is not a whole number of records.
+     */
+    private void publishRecords(ByteBuffer frame) throws ProtocolException {
+        if (frame.remaining() % RECORD_SIZE != 0)
+            throw new ProtocolException("RECORDS payload is not a multiple of " + RECORD_SIZE + " bytes");
+        Topic[] topics = m_index.topics();
+        long published = 0;
+        long unknown = 0;
+        long malformed = 0;
+        while (frame.hasRemaining()) {
+            int id = frame.getInt();
+            double value = frame.getDouble();
+            long timestamp = frame.getLong();
+            if (id < 0 || id >= topics.length) {
+                // an id given after the topics were read, or one that was never given
+                topics = m_index.topics();
+                if (id < 0 || id >= topics.length) {
+                    malformed++;
+                    continue;
+                }
+            }
+            Topic topic = topics[id];
+            if (topic == null && (topic = m_index.lookup(id)) == null) {
+                unknown++;
+                continue;
+            }
+            topic.publish(new Message(value, timestamp));
+            published++;
+        }
+        m_stats.published(published);
+        m_stats.unknown(unknown);
+        m_stats.malformed(malformed);
+    }
+
+    /**
+     * this method gives ids to the names of a HELLO frame and answers with an IDS frame.
+     * @param frame the frame, positioned after its type.
+     * @param out   the output of the connection.
+     * @throws IOException if the frame is not a valid HELLO, or the answer cannot be sent.
+     */
+    private void answerHello(ByteBuffer frame, DataOutputStream out) throws IOException {
+        if (frame.remaining() < 3)
+            throw new ProtocolException("Truncated HELLO");
+        int version = frame.get() & 0xFF;
+        if (version != PROTOCOL_VERSION)
+            throw new ProtocolException("Unsupported protocol version " + version);
+        int count = frame.getShort() & 0xFFFF;
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (frame.remaining() < 2)
+                throw new ProtocolException("Truncated HELLO");
+            int nameLength = frame.getShort() & 0xFFFF;
+            if (nameLength == 0 || nameLength > MAX_NAME_LENGTH || frame.remaining() < nameLength)
+                throw new ProtocolException("Invalid topic name length " + nameLength);
+            String name = new String(frame.array(), frame.arrayOffset() + frame.position(), nameLength,
+                    StandardCharsets.UTF_8);
+            frame.position(frame.position() + nameLength);
+            ids[i] = m_index.idOf(name);
+        }
+        out.writeInt(1 + 2 + 4 * count);
+        out.writeByte(TYPE_IDS);
+        out.writeShort(count);
+        for (int id : ids)
+            out.writeInt(id);
+        out.flush();
+    }
+}
@@ -0,0 +1,174 @@
+package ingest;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * This class counts what an ingestion listener received. The counters only grow, they are updated without
+ * locking and can be read at any time.
+ */
+public final class IngestStats {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final LongAdder m_connections = new LongAdder();
+    private final LongAdder m_frames = new LongAdder();
+    private final LongAdder m_published = new LongAdder();
+    private final LongAdder m_unknown = new LongAdder();
+    private final LongAdder m_malformed = new LongAdder();
+    private final LongAdder m_protocolErrors = new LongAdder();
+    private final LongAdder m_packets = new LongAdder();
+    private final LongAdder m_droppedPackets = new LongAdder();
+    private final LongAdder m_malformedPackets = new LongAdder();
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the number of connections accepted.
+     */
+    public long getConnections() {
+        return m_connections.sum();
+    }
+
+    /**
+     * @return the number of frames received.
+     */
+    public long getFrames() {
+        return m_frames.sum();
+    }
+
+    /**
+     * @return the number of values published to topics.
+     */
+    public long getPublished() {
+        return m_published.sum();
+    }
+
+    /**
+     * @return the number of values skipped because their topic does not exist.
+     */
+    public long getUnknown() {
+        return m_unknown.sum();
+    }
+
+    /**
+     * @return the number of values skipped because they could not be decoded, e.g. an id that was never given.
+     */
+    public long getMalformed() {
+        return m_malformed.sum();
+    }
+
+    /**
+     * @return the number of connections closed because the client broke the protocol.
+     */
+    public long getProtocolErrors() {
+        return m_protocolErrors.sum();
+    }
+
+    /**
+     * @return the number of datagrams received.
+     */
+    public long getPackets() {
+        return m_packets.sum();
+    }
+
+    /**
+     * @return the number of datagrams lost on the way, found from the gaps in the sequence numbers of each sender.
+     */
+    public long getDroppedPackets() {
+        return m_droppedPackets.sum();
+    }
+
+    /**
+     * @return the number of datagrams skipped whole because they could not be decoded.
+     */
+    public long getMalformedPackets() {
+        return m_malformedPackets.sum();
+    }
+
+    /**
+     * this method writes the counters of the ingestion listeners in the Prometheus text exposition format, one
+     * sample per listener for each counter.
+     * @param out       the text being built.
+     * @param listeners the counters of each listener, by the value of its listener label, e.g. "tcp" or "udp".
+     */
+    public static void writePrometheus(StringBuilder out, Map<String, IngestStats> listeners) {
+        if (listeners.isEmpty())
+            return;
+        counter(out, listeners, "ingest_connections_total", "Feeder connections accepted.",
+                IngestStats::getConnections);
+        counter(out, listeners, "ingest_frames_total", "Frames received from the feeders.",
+                IngestStats::getFrames);
+        counter(out, listeners, "ingest_protocol_errors_total", "Feeders disconnected for breaking the protocol.",
+                IngestStats::getProtocolErrors);
+        counter(out, listeners, "ingest_packets_total", "Datagrams received.",
+                IngestStats::getPackets);
+        counter(out, listeners, "ingest_dropped_packets_total", "Datagrams lost on the way, from the sequence gaps.",
+                IngestStats::getDroppedPackets);
+        counter(out, listeners, "ingest_malformed_packets_total", "Datagrams that could not be decoded.",
+                IngestStats::getMalformedPackets);
+        counter(out, listeners, "ingest_published_total", "Values published to topics.",
+                IngestStats::getPublished);
+        counter(out, listeners, "ingest_unknown_total", "Values skipped because their topic does not exist.",
+                IngestStats::getUnknown);
+        counter(out, listeners, "ingest_malformed_total", "Values skipped because they could not be decoded.",
+                IngestStats::getMalformed);
+    }
+
+    /**
+     * this method writes a counter of every listener.
+     * @param out       the text being built.
+     * @param listeners the counters of each listener, by the value of its listener label.
+     * @param name      the name of the metric.
+     * @param help      the description of the metric.
+     * @param counter   the counter of a listener.
+     */
+    private static void counter(StringBuilder out, Map<String, IngestStats> listeners, String name, String help,
+                                ToLongFunction<IngestStats> counter) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        for (Map.Entry<String, IngestStats> listener : listeners.entrySet())
+            out.append(name).append("{listener=\"").append(listener.getKey()).append("\"} ")
+                    .append(counter.applyAsLong(listener.getValue())).append('\n');
+    }
+
+    void connectionAccepted() {
+        m_connections.increment();
+    }
+
+    void frameReceived() {
+        m_frames.increment();
+    }
+
+    void published(long count) {
+        m_published.add(count);
+    }
+
+    void unknown(long count) {
+        m_unknown.add(count);
+    }
+
+    void malformed(long count) {
+        m_malformed.add(count);
+    }
+
+    void protocolError() {
+        m_protocolErrors.increment();
+    }
+
+    void packetReceived() {
+        m_packets.increment();
+    }
+
+    void packetsDropped(long count) {
+        m_droppedPackets.add(count);
+    }
+
+    void malformedPacket() {
+        m_malformedPackets.increment();
+    }
+}
@@ -0,0 +1,215 @@
+package ingest;
+
+import graph.TopicManagerSingleton;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class finds the id of a topic name read from a buffer, comparing the UTF-8 bytes of the name in place so
+ * no String is made once a name was seen. The names are kept in an open addressing table.
+ * <p>
+ * Only the names of existing topics are given ids. The names no topic has are kept in a small table of their own,
+ * so a sender repeating them costs no allocation either, and that table is emptied when the topics change, e.g.
+ * when a configuration creates the topic of a name.
+ * <p>
+ * The table belongs to one thread and is not synchronized.
+ */
+final class NameTable {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final int INITIAL_CAPACITY = 64;
+    // bounds the memory of the unknown names, they are forgotten once the table is half full
+    private static final int UNKNOWN_CAPACITY = 256;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final TopicIndex m_index;
+    private final TopicManagerSingleton.TopicManager m_topicManager;
+    private byte[][] m_names;
+    private int[] m_hashes;
+    private int[] m_ids;
+    private int m_size;
+
+    // the names without a topic, as of the topics below
+    private final byte[][] m_unknownNames;
+    private final int[] m_unknownHashes;
+    private int m_unknownSize;
+    private long m_clearVersion;
+    private int m_topicCount;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for NameTable.
+     * @param index the index giving the ids of the names.
+     */
+    NameTable(TopicIndex index) {
+        this.m_index = index;
+        this.m_topicManager = TopicManagerSingleton.get();
+        this.m_names = new byte[INITIAL_CAPACITY][];
+        this.m_hashes = new int[INITIAL_CAPACITY];
+        this.m_ids = new int[INITIAL_CAPACITY];
+        this.m_unknownNames = new byte[UNKNOWN_CAPACITY][];
+        this.m_unknownHashes = new int[UNKNOWN_CAPACITY];
+    }
+
+    /**
+     * this method finds the id of the name held in a buffer.
+     * @param buffer the buffer, not moved.
+     * @param offset the index of the first byte of the name.
+     * @param length the length of the name in bytes.
+     * @return the id of the name, or -1 if no topic has this name or the index is full.
+     */
+    int idOf(ByteBuffer buffer, int offset, int length) {
+        int hash = 1;
+        for (int i = 0; i < length; i++)
+            hash = 31 * hash + buffer.get(offset + i);
+        int mask = m_names.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            byte[] name = m_names[slot];
+            if (name == null) {
+                if (isUnknown(hash, buffer, offset, length))
+                    return -1;
+                return add(slot, hash, buffer, offset, length);
+            }
+            if (m_hashes[slot] == hash && matches(name, buffer, offset, length))
+                return m_ids[slot];
+        }
+    }
+
+    /**
+     * @param name   the bytes of a known name.
+     * @param buffer the buffer.
+     * @param offset the index of the first byte of the name in the buffer.
+     * @param length the length of the name in the buffer.
+     * @return true if the name is the same as the bytes of the buffer.
+     */
+    private static boolean matches(byte[] name, ByteBuffer buffer, int offset, int length) {
+        if (name.length != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (name[i] != buffer.get(offset + i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * this method asks the index for the id of a name seen for the first time and keeps it in a free slot.
+     * A name without a topic, or that the index has no room for, is kept with the unknown names.
+     * @param slot   the free slot found for the name.
+     * @param hash   the hash of the name.
+     * @param buffer the buffer holding the name.
+     * @param offset the index of the first byte of the name.
+     * @param length the length of the name in bytes.
+     * @return the id of the name, or -1 if no topic has this name or the index is full.
+     */
+    private int add(int slot, int hash, ByteBuffer buffer, int offset, int length) {
+        byte[] name = new byte[length];
+        buffer.get(offset, name);
+        // read before the index answers, a topic created meanwhile then empties the unknown names
+        long clearVersion = m_topicManager.getClearVersion();
+        int topicCount = m_topicManager.getTopics().size();
+        int id = m_index.idOfExisting(new String(name, StandardCharsets.UTF_8));
+        if (id == -1) {
+            addUnknown(hash, name, clearVersion, topicCount);
+            return -1;
+        }
+        m_names[slot] = name;
+        m_hashes[slot] = hash;
+        m_ids[slot] = id;
+        // at most half full, so the probes stay short
+        if (++m_size * 2 > m_names.length)
+            grow();
+        return id;
+    }
+
+    /**
+     * this method checks whether a name was found to have no topic since the topics last changed.
+     * @param hash   the hash of the name.
+     * @param buffer the buffer holding the name.
+     * @param offset the index of the first byte of the name.
+     * @param length the length of the name in bytes.
+     * @return true if the name is a known unknown name.
+     */
+    private boolean isUnknown(int hash, ByteBuffer buffer, int offset, int length) {
+        if (m_unknownSize == 0)
+            return false;
+        // topics are only removed all at once, so a new topic changes either the clear version or the count
+        long clearVersion = m_topicManager.getClearVersion();
+        int topicCount = m_topicManager.getTopics().size();
+        if (clearVersion != m_clearVersion || topicCount != m_topicCount) {
+            clearUnknown();
+            return false;
+        }
+        int mask = UNKNOWN_CAPACITY - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            byte[] name = m_unknownNames[slot];
+            if (name == null)
+                return false;
+            if (m_unknownHashes[slot] == hash && matches(name, buffer, offset, length))
+                return true;
+        }
+    }
+
+    /**
+     * this method keeps a name that has no topic. The other unknown names are forgotten if the table is half full
+     * or they were found with other topics.
+     * @param hash         the hash of the name.
+     * @param name         the bytes of the name.
+     * @param clearVersion the clear version of the topics the name was looked up in.
+     * @param topicCount   the number of topics the name was looked up in.
+     */
+    private void addUnknown(int hash, byte[] name, long clearVersion, int topicCount) {
+        if (clearVersion != m_clearVersion || topicCount != m_topicCount || m_unknownSize * 2 >= UNKNOWN_CAPACITY) {
+            clearUnknown();
+            m_clearVersion = clearVersion;
+            m_topicCount = topicCount;
+        }
+        int mask = UNKNOWN_CAPACITY - 1;
+        int slot = hash & mask;
+        while (m_unknownNames[slot] != null)
+            slot = (slot + 1) & mask;
+        m_unknownNames[slot] = name;
+        m_unknownHashes[slot] = hash;
+        m_unknownSize++;
+    }
+
+    /**
+     * this method forgets the unknown names.
+     */
+    private void clearUnknown() {
+        for (int i = 0; i < UNKNOWN_CAPACITY; i++)
+            m_unknownNames[i] = null;
+        m_unknownSize = 0;
+    }
+
+    /**
+     * this method doubles the capacity of the table.
+     */
+    private void grow() {
+        byte[][] names = m_names;
+        int[] hashes = m_hashes;
+        int[] ids = m_ids;
+        m_names = new byte[names.length * 2][];
+        m_hashes = new int[names.length * 2];
+        m_ids = new int[names.length * 2];
+        int mask = m_names.length - 1;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null)
+                continue;
+            int slot = hashes[i] & mask;
+            while (m_names[slot] != null)
+                slot = (slot + 1) & mask;
+            m_names[slot] = names[i];
+            m_hashes[slot] = hashes[i];
+            m_ids[slot] = ids[i];
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ingest;
+
+import graph.Topic;
+import graph.TopicManagerSingleton;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class gives the topics small integer ids, so a feeder resolves a topic name once and then sends only
+ * its id with every value. An id stays the same for the life of the server: a name may be given an id before
+ * its topic exists, and keeps it when a new configuration replaces the topics.
+ * <p>
+ * Ids are assigned rarely and under a lock, looking a topic up by id is an array read.
+ */
+final class TopicIndex {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+
+    // bounds the memory a feeder can make the server spend on names
+    static final int MAX_TOPICS = 65_536;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final TopicManagerSingleton.TopicManager m_topicManager;
+    private final Map<String, Integer> m_ids;
+    private volatile String[] m_names;
+    // the topic of each id as of the clear version below, null while the topic does not exist
+    private volatile Topic[] m_topics;
+    private volatile long m_clearVersion;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for TopicIndex.
+     */
+    TopicIndex() {
+        this.m_topicManager = TopicManagerSingleton.get();
+        this.m_ids = new HashMap<>();
+        this.m_names = new String[0];
+        this.m_topics = new Topic[0];
+        this.m_clearVersion = m_topicManager.getClearVersion();
+    }
+
+    /**
+     * this method finds the id of a topic name, giving it a new id the first time.
+     * @param name the name of the topic.
+     * @return the id, or -1 if the index is full.
+     */
+    synchronized int idOf(String name) {
+        Integer id = m_ids.get(name);
+        if (id != null)
+            return id;
+        int next = m_names.length;
+        if (next == MAX_TOPICS)
+            return -1;
+        m_ids.put(name, next);
+        String[] names = Arrays.copyOf(m_names, next + 1);
+        names[next] = name;
+        Topic[] topics = Arrays.copyOf(m_topics, next + 1);
+        topics[next] = m_topicManager.findTopic(name);
+        // the names first, whoever sees the new id in the topics can look its name up
+        m_names = names;
+        m_topics = topics;
+        return next;
+    }
+
+    /**
+     * this method finds the id of the name of an existing topic, giving it a new id the first time. A name no topic
+     * has gets no id, so a sender of unknown names cannot use up the ids of the index.
+     * @param name the name of the topic.
+     * @return the id, or -1 if no topic has this name or the index is full.
+     */
+    synchronized int idOfExisting(String name) {
+        Integer id = m_ids.get(name);
+        if (id != null)
+            return id;
+        if (m_topicManager.findTopic(name) == null)
+            return -1;
+        return idOf(name);
+    }
+
+    /**
+     * this method returns the topics of the ids, to look up the records of a batch. The array must not be changed.
+     * It is resolved again after the topics were cleared, the topics of the old configuration are not published to.
+     * @return the topic of each id, null for the ids whose topic does not exist.
+     */
+    Topic[] topics() {
+        Topic[] topics = m_topics;
+        if (m_clearVersion != m_topicManager.getClearVersion())
+            return resolve();
+        return topics;
+    }
+
+    /**
+     * this method looks up the topic of an id that had none, the topic may have been created since.
+     * @param id a valid id.
+     * @return the topic, or null if it still does not exist.
+     */
+    Topic lookup(int id) {
+        return m_topicManager.findTopic(m_names[id]);
+    }
+
+    /**
+     * this method resolves the names of every id against the current topics.
+     * @return the topic of each id.
+     */
+    private synchronized Topic[] resolve() {
+        long clearVersion = m_topicManager.getClearVersion();
+        if (m_clearVersion == clearVersion)
+            return m_topics;
+        String[] names = m_names;
+        Topic[] topics = new Topic[names.length];
+        for (int i = 0; i < names.length; i++)
+            topics[i] = m_topicManager.findTopic(names[i]);
+        m_topics = topics;
+        m_clearVersion = clearVersion;
+        return topics;
+    }
+}
@@ -0,0 +1,219 @@
+package ingest;
+
+import graph.Message;
+import graph.Topic;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class listens for datagrams of sensors that can afford to lose values, e.g. telemetry sent many times per
+ * second where the next value replaces a lost one. Each datagram is a batch of records, all numbers are
+ * big-endian:
+ * <pre>
+ * packet = version:uint8 sequence:uint32 (nameLength:uint8 name:utf8 value:float64)*
+ * </pre>
+ * A sender numbers its datagrams 0, 1, 2, ... and a gap in the numbers is counted as dropped datagrams. A sender
+ * that restarts begins again at 0. Late datagrams are still published. A datagram that cannot be decoded is
+ * counted and skipped whole, and records of topics that do not exist are counted and skipped.
+ * <p>
+ * One thread receives the datagrams into a single buffer and publishes their records in order. Topic names
+ * are compared in the buffer, so a datagram costs no allocation besides the messages it publishes. Only the
+ * names of existing topics are given ids: datagrams are easily forged, and unknown names must not use up the
+ * ids of the topics created later.
+ */
+public class UdpIngestServer implements Runnable {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    static final int PROTOCOL_VERSION = 1;
+    static final int HEADER_SIZE = 5;
+
+    // the largest UDP payload, so no datagram is cut
+    private static final int MAX_PACKET_SIZE = 65_536;
+    // the datagrams the kernel keeps while the graph is busy, a burst beyond it is lost
+    private static final int RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;
+    // bounds the memory of the sequence numbers, the senders are forgotten once there are more
+    private static final int MAX_SENDERS = 1024;
+    private static final long SEQUENCE_MASK = 0xFFFF_FFFFL;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final int m_portNumber;
+    private final TopicIndex m_index;
+    private final NameTable m_names;
+    private final IngestStats m_stats;
+    // the next sequence number expected from each sender
+    private final Map<SocketAddress, long[]> m_senders;
+    private volatile boolean m_running;
+    private volatile DatagramChannel m_channel;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * This constructor initializes the listener with the given port number.
+     * @param portNumber the UDP port number the datagrams are sent to.
+     */
+    public UdpIngestServer(int portNumber) {
+        this.m_portNumber = portNumber;
+        this.m_index = new TopicIndex();
+        this.m_names = new NameTable(m_index);
+        this.m_stats = new IngestStats();
+        this.m_senders = new HashMap<>();
+    }
+
+    /**
+     * @return the counters of the listener.
+     */
+    public IngestStats getStats() {
+        return m_stats;
+    }
+
+    /**
+     * this method binds the port and starts the listener.
+     * @throws IOException if the port cannot be bound.
+     */
+    public void start() throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+            channel.bind(new InetSocketAddress(m_portNumber));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.m_channel = channel;
+        this.m_running = true;
+        new Thread(this, "udp-ingest").start();
+    }
+
+    /**
+     * this method stops the listener.
+     */
+    public void close() {
+        this.m_running = false;
+        try {
+            DatagramChannel channel = m_channel;
+            if (channel != null)
+                channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * this method receives the datagrams until the listener is closed.
+     */
+    @Override
+    public void run() {
+        DatagramChannel channel = m_channel;
+        ByteBuffer packet = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+        try {
+            while (m_running) {
+                packet.clear();
+                SocketAddress sender = channel.receive(packet);
+                if (sender == null)
+                    continue;
+                packet.flip();
+                m_stats.packetReceived();
+                if (!isValid(packet)) {
+                    m_stats.malformedPacket();
+                    continue;
+                }
+                countDropped(sender, packet.getInt(1) & SEQUENCE_MASK);
+                publishRecords(packet);
+            }
+        } catch (ClosedChannelException e) {
+            // the listener is closing
+        } catch (IOException e) {
+            if (m_running)
+                e.printStackTrace();
+        }
+    }
+
+    /**
+     * this method checks that a datagram holds the header and whole records, before any record is published.
+     * @param packet the datagram.
+     * @return true if the datagram can be decoded.
+     */
+    private static boolean isValid(ByteBuffer packet) {
+        int limit = packet.limit();
+        if (limit < HEADER_SIZE || (packet.get(0) & 0xFF) != PROTOCOL_VERSION)
+            return false;
+        int position = HEADER_SIZE;
+        while (position < limit) {
+            int nameLength = packet.get(position) & 0xFF;
+            if (nameLength == 0)
+                return false;
+            position += 1 + nameLength + Double.BYTES;
+        }
+        return position == limit;
+    }
+
+    /**
+     * this method counts the datagrams missing between the last one of a sender and this one.
+     * @param sender   the address of the sender.
+     * @param sequence the sequence number of the datagram.
+     */
+    private void countDropped(SocketAddress sender, long sequence) {
+        long[] expected = m_senders.get(sender);
+        if (expected == null) {
+            if (m_senders.size() == MAX_SENDERS)
+                m_senders.clear();
+            m_senders.put(sender, new long[]{(sequence + 1) & SEQUENCE_MASK});
+            return;
+        }
+        // 0 is a sender that restarted
+        if (sequence != 0) {
+            long gap = (sequence - expected[0]) & SEQUENCE_MASK;
+            // a late or repeated datagram was already counted as dropped when the gap was seen
+            if (gap > SEQUENCE_MASK / 2)
+                return;
+            m_stats.packetsDropped(gap);
+        }
+        expected[0] = (sequence + 1) & SEQUENCE_MASK;
+    }
+
+    /**
+     * this method publishes the records of a valid datagram, in order.
+     * @param packet the datagram.
+     */
+    private void publishRecords(ByteBuffer packet) {
+        Topic[] topics = m_index.topics();
+        long published = 0;
+        long unknown = 0;
+        int limit = packet.limit();
+        int position = HEADER_SIZE;
+        while (position < limit) {
+            int nameLength = packet.get(position) & 0xFF;
+            int id = m_names.idOf(packet, position + 1, nameLength);
+            double value = packet.getDouble(position + 1 + nameLength);
+            position += 1 + nameLength + Double.BYTES;
+            if (id == -1) {
+                unknown++;
+                continue;
+            }
+            if (id >= topics.length)
+                topics = m_index.topics();
+            Topic topic = topics[id];
+            if (topic == null && (topic = m_index.lookup(id)) == null) {
+                unknown++;
+                continue;
+            }
+            topic.publish(new Message(value));
+            published++;
+        }
+        m_stats.published(published);
+        m_stats.unknown(unknown);
+    }
+}
@@ -0,0 +1,20 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This interface is implemented by the response streams of the server that can send a buffer without copying it,
+ * e.g. a memory-mapped file. Servlets check for it on the stream they are given and fall back to plain writes.
+ */
+public interface ByteBufferOutput {
+
+    /**
+     * this method writes the remaining bytes of a buffer. The buffer is sent as it is, so its content must not
+     * change until the response is complete.
+     *
+     * @param buffer the bytes to write, its position is moved to its limit.
+     * @throws IOException if an error occurs while writing to the connection.
+     */
+    void write(ByteBuffer buffer) throws IOException;
+}
@@ -0,0 +1,176 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is the output of a blocking connection with the write deadlines of the server settings.
+ * A blocking write cannot time out by itself, so a {@link Watchdog} thread closes the socket of a write that
+ * waits for the client longer than the write timeout. The rate of the client is checked after every write.
+ */
+final class GuardedOutputStream extends OutputStream {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final Socket m_socket;
+    private final OutputStream m_out;
+    private final TransferMeter m_meter;
+    private final ServerStats m_stats;
+    private volatile boolean m_timedOut;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner classes:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * The thread watching the writes of the connections of a server. It checks the writes a few times per
+     * write timeout, so a stuck write is noticed at most a quarter of the timeout late.
+     */
+    static final class Watchdog implements Runnable {
+        private final Set<GuardedOutputStream> m_streams;
+        private final ServerSettings m_settings;
+        private volatile Thread m_thread;
+
+        /**
+         * Constructor for Watchdog.
+         * @param settings the settings holding the write timeout.
+         */
+        Watchdog(ServerSettings settings) {
+            this.m_streams = ConcurrentHashMap.newKeySet();
+            this.m_settings = settings;
+        }
+
+        /**
+         * this method starts the watchdog thread.
+         */
+        void start() {
+            Thread thread = new Thread(this, "write-watchdog");
+            thread.setDaemon(true);
+            m_thread = thread;
+            thread.start();
+        }
+
+        /**
+         * this method stops the watchdog thread.
+         */
+        void close() {
+            Thread thread = m_thread;
+            m_thread = null;
+            if (thread != null)
+                thread.interrupt();
+        }
+
+        /**
+         * this method watches the writes of a connection until it is closed.
+         * @param socket the socket connected to the client.
+         * @param stats  the counters the slow clients are counted in.
+         * @return the guarded output of the connection.
+         * @throws IOException if the output of the socket cannot be opened.
+         */
+        GuardedOutputStream watch(Socket socket, ServerStats stats) throws IOException {
+            GuardedOutputStream stream = new GuardedOutputStream(socket, m_settings.getMinWriteRate(), stats);
+            m_streams.add(stream);
+            return stream;
+        }
+
+        /**
+         * this method stops watching a connection.
+         * @param stream the guarded output of the connection.
+         */
+        void release(GuardedOutputStream stream) {
+            m_streams.remove(stream);
+        }
+
+        @Override
+        public void run() {
+            long timeout = TimeUnit.MILLISECONDS.toNanos(m_settings.getWriteTimeoutMillis());
+            long period = Math.max(10, m_settings.getWriteTimeoutMillis() / 4);
+            while (m_thread == Thread.currentThread()) {
+                try {
+                    Thread.sleep(period);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long now = System.nanoTime();
+                for (GuardedOutputStream stream : m_streams) {
+                    if (stream.m_meter.stalledNanos(now) > timeout)
+                        stream.expire();
+                }
+            }
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for GuardedOutputStream.
+     *
+     * @param socket       the socket connected to the client.
+     * @param minWriteRate the slowest rate the client may read at, in bytes per second, 0 for any rate.
+     * @param stats        the counters the slow clients are counted in.
+     * @throws IOException if the output of the socket cannot be opened.
+     */
+    private GuardedOutputStream(Socket socket, long minWriteRate, ServerStats stats) throws IOException {
+        this.m_socket = socket;
+        this.m_out = socket.getOutputStream();
+        this.m_meter = new TransferMeter(minWriteRate);
+        this.m_stats = stats;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        m_meter.resume(System.nanoTime());
+        try {
+            m_out.write(bytes, offset, length);
+        } catch (IOException e) {
+            if (m_timedOut)
+                throw new SlowClientException(SlowClientReason.WRITE_TIMEOUT);
+            throw e;
+        }
+        long now = System.nanoTime();
+        m_meter.add(now, length);
+        m_meter.pause(now);
+        if (m_meter.isTooSlow(now)) {
+            m_stats.slowClient(SlowClientReason.WRITE_RATE);
+            m_socket.close();
+            throw new SlowClientException(SlowClientReason.WRITE_RATE);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        m_out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_out.close();
+    }
+
+    /**
+     * this method is called by the watchdog when a write waited too long: it counts the client and closes the
+     * socket, which fails the write.
+     */
+    private void expire() {
+        if (m_timedOut)
+            return;
+        m_timedOut = true;
+        m_stats.slowClient(SlowClientReason.WRITE_TIMEOUT);
+        try {
+            m_socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
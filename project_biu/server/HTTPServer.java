@@ -3,7 +3,9 @@ import servlets.*;
 
 public interface HTTPServer extends Runnable{
     public void addServlet(String httpCommanmd, String uri, Servlet s);
+    public void addServlet(String httpCommanmd, String uri, Servlet s, int maxConcurrent);
     public void removeServlet(String httpCommanmd, String uri);
     public void start();
     public void close();
+    public ServerStats getStats();
 }
@@ -0,0 +1,128 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a histogram of durations in microseconds with a bounded relative error, in the style of
+ * HdrHistogram. Values below 32 have a bucket each, above that every power of two is split into 16 buckets,
+ * so a value is reported within about 6% of what was recorded. Durations above 2^40 microseconds (about
+ * 12 days) are counted in the last bucket.
+ * <p>
+ * Recording is a few atomic increments, it never locks and never allocates. Reading takes a snapshot
+ * that is consistent enough for monitoring: values recorded while it is taken may be partly counted.
+ */
+final class LatencyHistogram {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int MAX_VALUE_BITS = 40;
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * HALF_SUB_BUCKETS;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final AtomicLongArray m_counts;
+    private final LongAdder m_sum;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for LatencyHistogram.
+     */
+    LatencyHistogram() {
+        this.m_counts = new AtomicLongArray(BUCKETS);
+        this.m_sum = new LongAdder();
+    }
+
+    /**
+     * this method records a duration.
+     * @param micros the duration in microseconds, negative values are recorded as 0.
+     */
+    void record(long micros) {
+        long value = Math.max(0, micros);
+        m_counts.incrementAndGet(indexOf(value));
+        m_sum.add(value);
+    }
+
+    /**
+     * this method adds the counts of this histogram to an array, to merge several histograms into one snapshot.
+     * @param counts the counts of each bucket, of the length returned by {@link #newSnapshot()}.
+     * @return the sum of the recorded durations in microseconds.
+     */
+    long addTo(long[] counts) {
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] += m_counts.get(i);
+        return m_sum.sum();
+    }
+
+    /**
+     * @return an empty array of bucket counts for {@link #addTo(long[])}.
+     */
+    static long[] newSnapshot() {
+        return new long[BUCKETS];
+    }
+
+    /**
+     * this method finds the duration below which a fraction of the recorded durations lie.
+     * @param counts the bucket counts of a snapshot.
+     * @param total the number of durations in the snapshot.
+     * @param quantile the fraction, between 0 and 1.
+     * @return the highest duration of the bucket holding the quantile in microseconds, or 0 if nothing was recorded.
+     */
+    static long valueAtQuantile(long[] counts, long total, double quantile) {
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return highestValueOf(i);
+        }
+        return highestValueOf(counts.length - 1);
+    }
+
+    /**
+     * @param counts the bucket counts of a snapshot.
+     * @return the number of durations in the snapshot.
+     */
+    static long total(long[] counts) {
+        long total = 0;
+        for (long count : counts)
+            total += count;
+        return total;
+    }
+
+    /**
+     * @param value a duration, at least 0.
+     * @return the bucket counting the duration.
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int highestBit = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_VALUE_BITS);
+        // the value shifted right keeps its highest SUB_BUCKET_BITS bits, in [HALF_SUB_BUCKETS, SUB_BUCKETS)
+        int shift = highestBit - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) Math.min(value >>> shift, SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + subBucket - HALF_SUB_BUCKETS;
+    }
+
+    /**
+     * @param index a bucket.
+     * @return the highest duration counted by the bucket.
+     */
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,246 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class reads the parts of a multipart/form-data body from a stream.
+ * The content of a part is copied through a fixed-size buffer, so a part of any size is handled
+ * without holding it in memory.
+ */
+public class MultipartParser {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final int MAX_PART_HEAD_SIZE = 8 * 1024;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final InputStream m_in;
+    // "\r\n--boundary", the line break before the boundary belongs to the delimiter
+    private final byte[] m_delimiter;
+
+    // the buffer holds the unread bytes between m_start and m_end
+    private final byte[] m_buffer;
+    private int m_start;
+    private int m_end;
+    private boolean m_eof;
+
+    // the preamble before the first delimiter is read like the content of a part
+    private boolean m_inPart = true;
+    private boolean m_done;
+    private String m_name;
+    private String m_filename;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for MultipartParser.
+     *
+     * @param in         the stream holding the body.
+     * @param boundary   the boundary from the Content-Type header.
+     * @param bufferSize the size of the buffer, it must be larger than the boundary and the head of a part.
+     */
+    public MultipartParser(InputStream in, String boundary, int bufferSize) {
+        this.m_in = in;
+        this.m_delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.m_buffer = new byte[Math.max(bufferSize, MAX_PART_HEAD_SIZE + m_delimiter.length)];
+        // the first delimiter is not preceded by a line break, pretend it is
+        this.m_buffer[0] = '\r';
+        this.m_buffer[1] = '\n';
+        this.m_end = 2;
+    }
+
+    /**
+     * this method extracts the boundary from a Content-Type header.
+     * @param contentType the value of the Content-Type header.
+     * @return the boundary, or null if the header is not multipart/form-data.
+     */
+    public static String boundaryOf(String contentType) {
+        if (contentType == null || !contentType.startsWith("multipart/form-data"))
+            return null;
+        int boundaryIndex = contentType.indexOf("boundary=");
+        if (boundaryIndex == -1)
+            return null;
+        String boundary = contentType.substring(boundaryIndex + "boundary=".length());
+        int end = boundary.indexOf(';');
+        if (end != -1)
+            boundary = boundary.substring(0, end);
+        boundary = boundary.replace("\"", "").trim();
+        return boundary.isEmpty() ? null : boundary;
+    }
+
+    /**
+     * this method moves to the next part, skipping whatever is left of the current one.
+     * @return true if there is another part, false at the end of the body.
+     * @throws IOException if the body cannot be read or is malformed.
+     */
+    public boolean nextPart() throws IOException {
+        if (m_done)
+            return false;
+        // skip the rest of the current part, or the preamble before the first one
+        while (copyPart(null) != -1) {
+        }
+
+        // after the delimiter comes either "--" for the end of the body, or a line break and the head of a part
+        if (!fill(2))
+            throw new IOException("Multipart body ended unexpectedly");
+        if (m_buffer[m_start] == '-' && m_buffer[m_start + 1] == '-') {
+            m_done = true;
+            return false;
+        }
+        int headEnd = findHeadEnd();
+        String head = new String(m_buffer, m_start, headEnd - m_start, StandardCharsets.ISO_8859_1);
+        m_start = headEnd;
+        m_name = dispositionParameter(head, "name");
+        m_filename = dispositionParameter(head, "filename");
+        m_inPart = true;
+        return true;
+    }
+
+    /**
+     * @return the name of the form field of the current part, or null if it has none.
+     */
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * @return the file name sent with the current part, or null if the part is not a file.
+     */
+    public String getFilename() {
+        return m_filename;
+    }
+
+    /**
+     * this method copies the content of the current part.
+     * @param out the stream the content is copied to, or null to skip it.
+     * @return the number of bytes copied, or -1 if the part was already consumed.
+     * @throws IOException if the body cannot be read or the output cannot be written.
+     */
+    public long copyPart(OutputStream out) throws IOException {
+        if (!m_inPart)
+            return -1;
+        long copied = 0;
+        while (true) {
+            int delimiterIndex = indexOf(m_delimiter, m_start, m_end);
+            if (delimiterIndex != -1) {
+                // the part ends here
+                copied += write(out, delimiterIndex - m_start);
+                m_start = delimiterIndex + m_delimiter.length;
+                m_inPart = false;
+                return copied;
+            }
+            // keep the bytes that may be the beginning of a delimiter split across reads
+            int safe = m_end - m_start - (m_delimiter.length - 1);
+            if (safe > 0)
+                copied += write(out, safe);
+            if (!fill(m_end - m_start + 1))
+                throw new IOException("Multipart body ended before its closing boundary");
+        }
+    }
+
+    /**
+     * this method writes bytes from the start of the buffer and consumes them.
+     * @param out    the stream to write to, or null to drop the bytes.
+     * @param length the number of bytes.
+     * @return the number of bytes consumed.
+     * @throws IOException if the output cannot be written.
+     */
+    private int write(OutputStream out, int length) throws IOException {
+        if (out != null && length > 0)
+            out.write(m_buffer, m_start, length);
+        m_start += length;
+        return length;
+    }
+
+    /**
+     * this method reads from the stream until the buffer holds at least the given number of unread bytes.
+     * @param count the number of unread bytes needed.
+     * @return false if the stream ended first.
+     * @throws IOException if the stream cannot be read.
+     */
+    private boolean fill(int count) throws IOException {
+        if (m_end - m_start >= count)
+            return true;
+        if (m_start > 0) {
+            System.arraycopy(m_buffer, m_start, m_buffer, 0, m_end - m_start);
+            m_end -= m_start;
+            m_start = 0;
+        }
+        while (m_end < count && m_end < m_buffer.length && !m_eof) {
+            int n = m_in.read(m_buffer, m_end, m_buffer.length - m_end);
+            if (n == -1)
+                m_eof = true;
+            else
+                m_end += n;
+        }
+        return m_end >= count;
+    }
+
+    /**
+     * this method finds the end of the head of a part, reading more of the stream if needed.
+     * @return the index after the empty line that ends the head.
+     * @throws IOException if the head is missing or too large.
+     */
+    private int findHeadEnd() throws IOException {
+        while (true) {
+            // the head starts with the line break that ends the delimiter line
+            for (int i = m_start + 3; i < m_end; i++) {
+                if (m_buffer[i] == '\n' && m_buffer[i - 1] == '\r' && m_buffer[i - 2] == '\n' && m_buffer[i - 3] == '\r')
+                    return i + 1;
+            }
+            int unread = m_end - m_start;
+            if (unread >= MAX_PART_HEAD_SIZE || !fill(unread + 1))
+                throw new IOException("Malformed multipart part head");
+        }
+    }
+
+    /**
+     * this method finds a sequence of bytes in the buffer.
+     * @param target the bytes to find.
+     * @param from   the index to start from.
+     * @param to     the index to stop at.
+     * @return the index of the first match, or -1 if there is none.
+     */
+    private int indexOf(byte[] target, int from, int to) {
+        outer:
+        for (int i = from; i <= to - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (m_buffer[i + j] != target[j])
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * this method reads a parameter of the Content-Disposition header of a part.
+     * @param head the head of the part.
+     * @param name the name of the parameter.
+     * @return the value of the parameter without quotes, or null if it is missing.
+     */
+    private static String dispositionParameter(String head, String name) {
+        for (String line : head.split("\r\n")) {
+            if (!line.regionMatches(true, 0, "Content-Disposition:", 0, "Content-Disposition:".length()))
+                continue;
+            for (String parameter : line.split(";")) {
+                parameter = parameter.trim();
+                if (parameter.startsWith(name + "=")) {
+                    String value = parameter.substring(name.length() + 1);
+                    if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\""))
+                        value = value.substring(1, value.length() - 1);
+                    return value;
+                }
+            }
+        }
+        return null;
+    }
+}
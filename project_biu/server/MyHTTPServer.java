@@ -8,10 +8,16 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.util.List;
 import java.util.concurrent.*;
 
 /**
  * This class represents a simple HTTP server that can handle multiple client connections concurrently.
+ * Accepted connections wait for a worker thread in a bounded queue, when the queue is full the
+ * {@link OverloadPolicy} of the settings decides which client is shed.
+ * <p>
+ * A worker thread is held by its connection while it reads and writes, so every read and write has a deadline
+ * from the settings, and clients that miss it are disconnected and counted in the {@link ServerStats}.
  */
 public class MyHTTPServer extends Thread implements HTTPServer {
 
@@ -19,11 +25,38 @@ public class MyHTTPServer extends Thread implements HTTPServer {
     // Class variables:
     //------------------------------------------------------------------------------------------------------------------
     private final int m_portNumber;
-    private final int m_numberOfThreads;
     private ServerSocket m_serverSocket;
     private boolean m_running;
+    private final ServerSettings m_settings;
     private final ExecutorService m_executor;
-    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Servlet>> m_servletsMap;
+    // the connections waiting for a worker thread, null when every connection gets a virtual thread
+    private final BlockingQueue<Runnable> m_queue;
+    private final Semaphore m_connectionSlots;
+    private final ServletRegistry m_servlets;
+    private final ServerStats m_stats;
+    private final ServletDispatcher m_dispatcher;
+    private final GuardedOutputStream.Watchdog m_watchdog;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner classes:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * The task serving an accepted connection. The queue of the executor holds these tasks, so a waiting
+     * connection can be taken out of the queue and shed.
+     */
+    private final class ClientTask implements Runnable {
+        private final Socket m_socket;
+
+        ClientTask(Socket socket) {
+            this.m_socket = socket;
+        }
+
+        @Override
+        public void run() {
+            handleClient(m_socket);
+        }
+    }
 
     //------------------------------------------------------------------------------------------------------------------
     // Class methods:
@@ -36,14 +69,34 @@ public class MyHTTPServer extends Thread implements HTTPServer {
      * @param numberOfThreads the number of threads in the thread pool.
      */
     public MyHTTPServer(int portNumber, int numberOfThreads) {
+        this(portNumber, new ServerSettings().setWorkerThreads(numberOfThreads));
+    }
+
+    /**
+     * This constructor initializes the server with the given port number and settings.
+     *
+     * @param portNumber the port number on which the server will listen for incoming connections.
+     * @param settings   the settings that choose the execution mode and the connection limit.
+     */
+    public MyHTTPServer(int portNumber, ServerSettings settings) {
         this.m_portNumber = portNumber;
-        this.m_numberOfThreads = numberOfThreads;
-        this.m_executor = Executors.newFixedThreadPool(numberOfThreads);
-        
-        this.m_servletsMap = new ConcurrentHashMap<>();
-        this.m_servletsMap.put("GET", new ConcurrentHashMap<>());
-        this.m_servletsMap.put("POST", new ConcurrentHashMap<>());
-        this.m_servletsMap.put("DELETE", new ConcurrentHashMap<>());
+        this.m_settings = settings;
+        if (settings.isVirtualThreads()) {
+            this.m_executor = ServerExecutors.create(settings);
+            this.m_queue = null;
+        } else {
+            ThreadPoolExecutor pool = ServerExecutors.createBounded(settings);
+            this.m_executor = pool;
+            this.m_queue = pool.getQueue();
+        }
+        this.m_connectionSlots = new Semaphore(settings.getMaxConnections());
+        this.m_servlets = new ServletRegistry();
+        this.m_stats = new ServerStats(m_servlets);
+        this.m_dispatcher = new ServletDispatcher(m_servlets, m_stats, settings);
+        this.m_watchdog = new GuardedOutputStream.Watchdog(settings);
+        // the accept loop holds a slot while it waits for the next client
+        this.m_stats.setGauges(m_queue != null ? (ThreadPoolExecutor) m_executor : null,
+                () -> Math.max(0, settings.getMaxConnections() - m_connectionSlots.availablePermits() - 1));
     }
 
     /**
@@ -54,7 +107,20 @@ public class MyHTTPServer extends Thread implements HTTPServer {
      * @param servlet     the servlet instance to be added.
      */
     public void addServlet(String httpCommand, String uri, Servlet servlet) {
-        this.m_servletsMap.get(httpCommand.toUpperCase()).put(uri, servlet);
+        addServlet(httpCommand, uri, servlet, 0);
+    }
+
+    /**
+     * this method adds a servlet that handles a limited number of requests at the same time.
+     * The requests beyond the limit are answered with 503 Service Unavailable.
+     *
+     * @param httpCommand   the HTTP command (GET, POST, DELETE) that the servlet will handle.
+     * @param uri           the URI pattern that the servlet will match.
+     * @param servlet       the servlet instance to be added.
+     * @param maxConcurrent the number of requests the servlet handles at the same time, 0 for no limit.
+     */
+    public void addServlet(String httpCommand, String uri, Servlet servlet, int maxConcurrent) {
+        this.m_servlets.add(httpCommand, uri, servlet, maxConcurrent);
     }
 
     /**
@@ -64,7 +130,7 @@ public class MyHTTPServer extends Thread implements HTTPServer {
      * @param uri         the URI pattern that the servlet was matching.
      */
     public void removeServlet(String httpCommand, String uri) {
-        this.m_servletsMap.get(httpCommand.toUpperCase()).remove(uri);
+        this.m_servlets.remove(httpCommand, uri);
     }
 
     /**
@@ -77,13 +143,18 @@ public class MyHTTPServer extends Thread implements HTTPServer {
             m_serverSocket.setSoTimeout(1000);
 
             while (m_running) {
+                // wait for a free connection slot before accepting the next client
+                if (!acquireConnectionSlot())
+                    continue;
                 try {
                     Socket clientSocket = m_serverSocket.accept();
-                    m_executor.submit(() -> handleClient(clientSocket));
-                    
+                    submitClient(clientSocket);
+
                 } catch (SocketTimeoutException | SocketException ignored) {
+                    m_connectionSlots.release();
                 } catch (IOException e) {
                     // if an error occurs, close the server socket
+                    m_connectionSlots.release();
                     e.printStackTrace();
                     if (m_serverSocket != null && !m_serverSocket.isClosed())
                         m_serverSocket.close();
@@ -94,12 +165,122 @@ public class MyHTTPServer extends Thread implements HTTPServer {
         }
     }
 
+    /**
+     * this method waits up to a second for a free connection slot.
+     * @return true if a slot was acquired, false otherwise.
+     */
+    private boolean acquireConnectionSlot() {
+        try {
+            return m_connectionSlots.tryAcquire(1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the counters of the work shed by the server.
+     */
+    public ServerStats getStats() {
+        return m_stats;
+    }
+
+    /**
+     * this method hands an accepted client to the executor. When the queue is full the overload policy decides
+     * which client is shed, and the client is dropped if the executor is shut down.
+     * @param clientSocket the socket connected to the client.
+     * @throws IOException if the socket cannot be closed after a rejection.
+     */
+    private void submitClient(Socket clientSocket) throws IOException {
+        ClientTask task = new ClientTask(clientSocket);
+        OverloadPolicy policy = m_settings.getOverloadPolicy();
+        if (m_queue != null && policy == OverloadPolicy.BLOCK_ACCEPT) {
+            if (!enqueueBlocking(task)) {
+                m_connectionSlots.release();
+                clientSocket.close();
+            }
+            return;
+        }
+        try {
+            m_executor.execute(task);
+            return;
+        } catch (RejectedExecutionException e) {
+            if (m_executor.isShutdown()) {
+                m_connectionSlots.release();
+                clientSocket.close();
+                return;
+            }
+        }
+        if (policy == OverloadPolicy.DROP_OLDEST) {
+            ClientTask oldest = (ClientTask) m_queue.poll();
+            if (oldest != null) {
+                m_stats.connectionDropped();
+                shed(oldest.m_socket);
+            }
+            try {
+                m_executor.execute(task);
+                return;
+            } catch (RejectedExecutionException ignored) {
+                // the workers did not take a connection, and another one filled the free place
+            }
+        }
+        m_stats.connectionRejected();
+        shed(clientSocket);
+    }
+
+    /**
+     * this method puts a client into the queue, waiting for room. The accept loop is held meanwhile, so new
+     * clients wait in the backlog of the listening socket.
+     * @param task the task serving the client.
+     * @return false if the server stopped before the queue had room.
+     */
+    private boolean enqueueBlocking(ClientTask task) {
+        if (m_queue.offer(task))
+            return true;
+        m_stats.acceptBlocked();
+        try {
+            while (m_running && !m_executor.isShutdown()) {
+                if (m_queue.offer(task, 1000, TimeUnit.MILLISECONDS))
+                    return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * this method answers a client that cannot be served with 503 Service Unavailable, closes its socket
+     * and frees its connection slot. It does not wait for the client.
+     * @param clientSocket the socket connected to the client.
+     */
+    private void shed(Socket clientSocket) {
+        try {
+            // discard what the client already sent, closing a socket with unread input resets the connection
+            // and the client would lose the answer
+            InputStream in = clientSocket.getInputStream();
+            in.skip(in.available());
+            String response = "HTTP/1.1 503 Service Unavailable\r\nRetry-After: " + m_settings.getRetryAfterSeconds()
+                    + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+            clientSocket.getOutputStream().write(response.getBytes());
+            clientSocket.shutdownOutput();
+        } catch (IOException ignored) {
+            // the client is gone already
+        } finally {
+            try {
+                clientSocket.close();
+            } catch (IOException ignored) {
+            }
+            m_connectionSlots.release();
+        }
+    }
+
     /**
      * this method starts the server.
      */
     @Override
     public void start() {
         this.m_running = true;
+        m_watchdog.start();
         new Thread(this).start();
     }
 
@@ -108,14 +289,15 @@ public class MyHTTPServer extends Thread implements HTTPServer {
      */
     public void close() {
         this.m_running = false;
+        m_watchdog.close();
         // shutdown the executor
         m_executor.shutdown();
         try {
             if (!m_executor.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
-                m_executor.shutdownNow();
+                closeWaitingClients(m_executor.shutdownNow());
             }
         } catch (InterruptedException e) {
-            m_executor.shutdownNow();
+            closeWaitingClients(m_executor.shutdownNow());
         }
         // close the server socket
         try {
@@ -127,74 +309,101 @@ public class MyHTTPServer extends Thread implements HTTPServer {
     }
 
     /**
-     * this method handles an incoming client connection by parsing the request, finding the appropriate servlet,
-     * and invoking the servlet's handle method.
+     * this method closes the connections that were still waiting for a worker thread when the server stopped.
+     * @param waiting the tasks that never ran.
+     */
+    private void closeWaitingClients(List<Runnable> waiting) {
+        for (Runnable task : waiting) {
+            if (task instanceof ClientTask) {
+                try {
+                    ((ClientTask) task).m_socket.close();
+                } catch (IOException ignored) {
+                }
+                m_connectionSlots.release();
+            }
+        }
+    }
+
+    /**
+     * this method handles an incoming client connection: it serves the requests sent on the connection one after
+     * the other, until the client closes it, the idle timeout expires, the client misses a deadline
+     * or the request limit is reached.
      *
      * @param clientSocket the socket connected to the client.
      */
     private void handleClient(Socket clientSocket) {
+        GuardedOutputStream output = null;
         try {
-            // parse the request
-            RequestInfo requestInfo = RequestParser.parseRequest(new BufferedReader(new InputStreamReader(clientSocket.getInputStream())));
-            if (requestInfo == null) {
-                sendNotFound(clientSocket.getOutputStream());
-                return;
-            }
-            // find the appropriate servlet
-            Servlet servlet = findServlet(requestInfo);
-            if (servlet != null) {
-                servlet.handle(requestInfo, clientSocket.getOutputStream());
-            } else {
-                sendNotFound(clientSocket.getOutputStream());
+            RequestReader reader = new RequestReader(clientSocket, m_settings, m_stats);
+            output = m_watchdog.watch(clientSocket, m_stats);
+            OutputStream toClient = new BufferedOutputStream(output);
+
+            boolean keepAlive = true;
+            for (int served = 0; keepAlive; served++) {
+                // parse the request
+                RequestInfo requestInfo;
+                try {
+                    requestInfo = reader.next();
+                } catch (RequestParser.BadRequestException e) {
+                    m_stats.requestRefused(e.getStatus());
+                    sendError(toClient, e.getStatus(), e.getReason());
+                    break;
+                } catch (SlowClientException e) {
+                    // nothing of the request was handled yet, the client is told why it is disconnected
+                    sendError(toClient, 408, "Request Timeout");
+                    break;
+                }
+                if (requestInfo == null)
+                    break;
+                boolean lastRequest = served + 1 >= m_settings.getMaxRequestsPerConnection();
+                if (requestInfo.getHeader("upgrade") != null) {
+                    // the servlet may take the connection over, it is not reused either way
+                    requestInfo.setConnectionStream(reader.takeConnection());
+                    lastRequest = true;
+                }
+                keepAlive = serveRequest(requestInfo, toClient, requestInfo.isKeepAlive() && !lastRequest);
             }
 
+        } catch (SocketTimeoutException | SocketException | SlowClientException ignored) {
+            // the connection was idle for too long, the client was too slow or closed the connection
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
-            // close the client socket
+            if (output != null)
+                m_watchdog.release(output);
+            // close the client socket and free its connection slot
             try {
                 clientSocket.close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            m_connectionSlots.release();
         }
     }
 
     /**
-     * this method finds the right servlet for a given request by matching the request's HTTP command and URI.
-     * @param requestInfo the parsed request information.
-     * @return the servlet that matches the request, or null if no matching servlet is found.
+     * this method finds the appropriate servlet for a request and invokes the servlet's handle method.
+     *
+     * @param requestInfo the parsed request.
+     * @param toClient    the output stream of the connection.
+     * @param keepAlive   true if the connection may stay open after this response.
+     * @return true if the connection can carry another request.
+     * @throws IOException if an error occurs while writing the response.
      */
-    private Servlet findServlet(RequestInfo requestInfo) {
-        // get the map of servlets for the given HTTP command
-        ConcurrentHashMap<String, Servlet> map = m_servletsMap.get(requestInfo.getHttpCommand().toUpperCase());
-        // get the URI from the request
-        String uri = requestInfo.getUri().split("\\?")[0];
-
-        // loop through the URI to find the right servlet
-        while (!uri.isEmpty()) {
-            Servlet servlet = map.get(uri);
-            if (servlet != null) {
-                return servlet;
-            }
-            int lastSlash = uri.lastIndexOf('/');
-            if (lastSlash == -1) {
-                break;
-            } else if (lastSlash == uri.length() - 1) {
-                uri = uri.substring(0, lastSlash);
-            } else
-                uri = uri.substring(0, lastSlash + 1);
-        }
-        return null;
+    private boolean serveRequest(RequestInfo requestInfo, OutputStream toClient, boolean keepAlive) throws IOException {
+        ResponseFramer response = new ResponseFramer(toClient, keepAlive);
+        return m_dispatcher.dispatch(requestInfo, response);
     }
 
     /**
-     * this method sends a 404 Not Found response to the client.
+     * this method answers a request that could not be read, before the connection is closed.
      * @param out the output stream to send the response.
+     * @param status the status of the answer.
+     * @param reason the reason phrase of the status.
      * @throws IOException if an error occurs while writing to the output stream.
      */
-    private void sendNotFound(OutputStream out) throws IOException {
-        String response = "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n";
+    private void sendError(OutputStream out, int status, String reason) throws IOException {
+        String response = "HTTP/1.1 " + status + " " + reason + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
         out.write(response.getBytes());
         out.flush();
     }
@@ -0,0 +1,889 @@
+package server;
+
+import servlets.Servlet;
+import server.RequestParser.RequestInfo;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents an HTTP server that serves all connections from a single selector thread.
+ * Connections are read without blocking, and only a fully received request is handed to the worker pool,
+ * so idle or slow clients do not hold a thread. They still hold a connection slot, so the deadlines of the
+ * settings are checked once a second and the clients that miss them are disconnected.
+ */
+public class NioHTTPServer implements HTTPServer {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    // a streamed body is handed to the worker in chunks, at most this many at a time
+    private static final int BODY_CHUNK_SIZE = 16 * 1024;
+    private static final int BODY_CHUNKS = 4;
+
+    // a servlet waits while more response bytes than this are queued for a connection
+    private static final long MAX_PENDING_OUTPUT = 256 * 1024;
+
+    // bytes of a pipelined request read while a response is pending, to notice a client that disconnects
+    private static final int PIPELINED_READ_SIZE = 4 * 1024;
+
+    // the answer to a request whose servlet threw before writing anything
+    private static final byte[] INTERNAL_ERROR =
+            "HTTP/1.1 500 Internal Server Error\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes();
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final int m_portNumber;
+    private final ServerSettings m_settings;
+    private final ExecutorService m_executor;
+    private final ServletRegistry m_servlets;
+    private final ServerStats m_stats;
+    private final ServletDispatcher m_dispatcher;
+    private final Queue<Runnable> m_selectorTasks;
+    private volatile boolean m_running;
+    private volatile Selector m_selector;
+
+    // owned by the selector thread
+    private SelectionKey m_acceptKey;
+    // read by the metrics of the server
+    private volatile int m_openConnections;
+    private long m_lastIdleCheck;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner classes:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * This class holds the state of a single client connection.
+     */
+    private static class Connection {
+        private final SocketChannel m_channel;
+        // in write mode while a request is received, in read mode while it is handled
+        private ByteBuffer m_input;
+        private final Queue<ByteBuffer> m_output;
+        private final AtomicLong m_pendingOutput;
+        private volatile boolean m_closeWhenWritten;
+        private volatile boolean m_responseComplete;
+        // the response of an asynchronous servlet being waited for, cancelled if the client disconnects
+        private volatile CompletableFuture<Boolean> m_pending;
+
+        // owned by the selector thread
+        private int m_requestsServed;
+        private boolean m_busy;
+        private long m_lastActivity;
+        // when the head of the request being received started, or when the connection was accepted
+        private long m_requestStart;
+        private BodyPipe m_bodyPipe;
+        private ByteBuffer m_pipelined;
+        // the body being received, null while none is
+        private TransferMeter m_bodyMeter;
+        private final TransferMeter m_writeMeter;
+
+        /**
+         * Constructor for Connection.
+         *
+         * @param channel      the channel connected to the client.
+         * @param minWriteRate the slowest rate the client may read at, in bytes per second.
+         */
+        Connection(SocketChannel channel, long minWriteRate) {
+            this.m_channel = channel;
+            this.m_input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            this.m_output = new ConcurrentLinkedQueue<>();
+            this.m_pendingOutput = new AtomicLong();
+            this.m_lastActivity = System.currentTimeMillis();
+            this.m_requestStart = m_lastActivity;
+            this.m_writeMeter = new TransferMeter(minWriteRate);
+        }
+    }
+
+    /**
+     * This class carries a streamed request body from the selector thread to the worker running the servlet.
+     * At most {@value #BODY_CHUNKS} chunks are held; when they are all pending the selector stops reading
+     * the connection until the worker catches up.
+     */
+    private class BodyPipe extends InputStream {
+        private final SelectionKey m_key;
+        private final BlockingQueue<ByteBuffer> m_chunks;
+        private volatile boolean m_paused;
+        private volatile boolean m_failed;
+
+        // owned by the selector thread
+        private long m_remaining;
+
+        // owned by the worker thread
+        private ByteBuffer m_current;
+        private boolean m_ended;
+
+        /**
+         * Constructor for BodyPipe.
+         *
+         * @param key           the selection key of the connection.
+         * @param contentLength the length of the body.
+         */
+        BodyPipe(SelectionKey key, long contentLength) {
+            this.m_key = key;
+            // one extra slot for the end marker
+            this.m_chunks = new ArrayBlockingQueue<>(BODY_CHUNKS + 1);
+            this.m_remaining = contentLength;
+        }
+
+        /**
+         * this method is called by the selector thread with the next bytes of the body.
+         * @param chunk the bytes, in read mode.
+         */
+        void push(ByteBuffer chunk) {
+            m_remaining -= chunk.remaining();
+            m_chunks.add(chunk);
+            if (m_remaining == 0)
+                m_chunks.add(ByteBuffer.allocate(0)); // end marker
+        }
+
+        /**
+         * this method is called by the selector thread when the connection is lost.
+         */
+        void fail() {
+            m_failed = true;
+            m_chunks.clear();
+            m_chunks.add(ByteBuffer.allocate(0));
+        }
+
+        /**
+         * @return true if the selector thread may read another chunk.
+         */
+        boolean hasSpace() {
+            return m_chunks.size() < BODY_CHUNKS;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+            while (m_current == null || !m_current.hasRemaining()) {
+                if (m_ended)
+                    return -1;
+                try {
+                    m_current = m_chunks.take();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                if (m_failed)
+                    throw new IOException("Connection closed before the end of the request body");
+                if (!m_current.hasRemaining())
+                    m_ended = true;
+                if (m_paused) {
+                    // there is room again, let the selector thread resume reading
+                    m_paused = false;
+                    runOnSelector(() -> {
+                        Connection connection = (Connection) m_key.attachment();
+                        if (connection.m_bodyPipe == this) {
+                            connection.m_bodyMeter.resume(System.nanoTime());
+                            m_key.interestOps(m_key.interestOps() | SelectionKey.OP_READ);
+                        }
+                    });
+                }
+            }
+            int n = Math.min(length, m_current.remaining());
+            m_current.get(bytes, offset, n);
+            return n;
+        }
+    }
+
+    /**
+     * This class collects the bytes written by a servlet and hands them to the selector thread on every flush.
+     * When the client reads slower than the servlet writes, a flush waits until the queued bytes are sent,
+     * so a long or endless response does not pile up in memory.
+     */
+    private class ChannelOutputStream extends OutputStream implements ByteBufferOutput {
+        private final SelectionKey m_key;
+        private final Connection m_connection;
+        private final ByteArrayOutputStream m_buffer;
+        private boolean m_closed;
+
+        /**
+         * Constructor for ChannelOutputStream.
+         *
+         * @param key        the selection key of the connection.
+         * @param connection the connection the response is written to.
+         */
+        ChannelOutputStream(SelectionKey key, Connection connection) {
+            this.m_key = key;
+            this.m_connection = connection;
+            this.m_buffer = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (m_closed)
+                throw new IOException("Stream closed");
+            m_buffer.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (m_closed)
+                throw new IOException("Stream closed");
+            m_buffer.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (m_buffer.size() == 0)
+                return;
+            enqueue(ByteBuffer.wrap(m_buffer.toByteArray()));
+            m_buffer.reset();
+        }
+
+        /**
+         * this method queues a buffer for the selector thread as it is, e.g. a memory-mapped file.
+         * @param buffer the bytes to write.
+         * @throws IOException if the response was already completed.
+         */
+        @Override
+        public void write(ByteBuffer buffer) throws IOException {
+            if (m_closed)
+                throw new IOException("Stream closed");
+            if (!buffer.hasRemaining())
+                return;
+            flush();
+            enqueue(buffer.slice());
+            buffer.position(buffer.limit());
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        /**
+         * this method queues bytes for the selector thread, and waits while too many bytes are queued.
+         * @param buffer the bytes to write.
+         * @throws IOException if the connection was closed.
+         */
+        private void enqueue(ByteBuffer buffer) throws IOException {
+            if (!m_key.isValid())
+                throw new ClosedChannelException();
+            m_connection.m_pendingOutput.addAndGet(buffer.remaining());
+            m_connection.m_output.add(buffer);
+            requestWrite(m_key);
+            synchronized (m_connection) {
+                while (m_connection.m_pendingOutput.get() > MAX_PENDING_OUTPUT) {
+                    if (!m_key.isValid())
+                        throw new ClosedChannelException();
+                    try {
+                        m_connection.wait(100);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+        }
+
+        /**
+         * this method hands the rest of the response to the selector thread and releases the connection.
+         * @param reusable true if the connection can carry another request after this response.
+         */
+        void complete(boolean reusable) {
+            if (m_closed)
+                return;
+            try {
+                flush();
+            } catch (IOException e) {
+                // the connection is gone, there is nothing left to complete
+                return;
+            }
+            m_closed = true;
+            m_connection.m_closeWhenWritten = !reusable;
+            m_connection.m_responseComplete = true;
+            requestWrite(m_key);
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * This constructor initializes the server with the given port number and number of worker threads.
+     *
+     * @param portNumber      the port number on which the server will listen for incoming connections.
+     * @param numberOfThreads the number of worker threads that run the servlets.
+     */
+    public NioHTTPServer(int portNumber, int numberOfThreads) {
+        this(portNumber, new ServerSettings().setWorkerThreads(numberOfThreads));
+    }
+
+    /**
+     * This constructor initializes the server with the given port number and settings.
+     *
+     * @param portNumber the port number on which the server will listen for incoming connections.
+     * @param settings   the settings that choose the worker execution mode and the connection limit.
+     */
+    public NioHTTPServer(int portNumber, ServerSettings settings) {
+        this.m_portNumber = portNumber;
+        this.m_settings = settings;
+        this.m_executor = ServerExecutors.create(settings);
+        this.m_servlets = new ServletRegistry();
+        this.m_stats = new ServerStats(m_servlets);
+        this.m_dispatcher = new ServletDispatcher(m_servlets, m_stats, settings);
+        this.m_stats.setGauges(m_executor instanceof ThreadPoolExecutor ? (ThreadPoolExecutor) m_executor : null,
+                () -> m_openConnections);
+        this.m_selectorTasks = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * this method adds a servlet to the server.
+     *
+     * @param httpCommand the HTTP command (GET, POST, DELETE) that the servlet will handle.
+     * @param uri         the URI pattern that the servlet will match.
+     * @param servlet     the servlet instance to be added.
+     */
+    public void addServlet(String httpCommand, String uri, Servlet servlet) {
+        addServlet(httpCommand, uri, servlet, 0);
+    }
+
+    /**
+     * this method adds a servlet that handles a limited number of requests at the same time.
+     * The requests beyond the limit are answered with 503 Service Unavailable.
+     *
+     * @param httpCommand   the HTTP command (GET, POST, DELETE) that the servlet will handle.
+     * @param uri           the URI pattern that the servlet will match.
+     * @param servlet       the servlet instance to be added.
+     * @param maxConcurrent the number of requests the servlet handles at the same time, 0 for no limit.
+     */
+    public void addServlet(String httpCommand, String uri, Servlet servlet, int maxConcurrent) {
+        this.m_servlets.add(httpCommand, uri, servlet, maxConcurrent);
+    }
+
+    /**
+     * @return the counters of the work shed by the server.
+     */
+    public ServerStats getStats() {
+        return m_stats;
+    }
+
+    /**
+     * Removes a servlet from the server.
+     *
+     * @param httpCommand the HTTP command (GET, POST, DELETE) that the servlet was handling.
+     * @param uri         the URI pattern that the servlet was matching.
+     */
+    public void removeServlet(String httpCommand, String uri) {
+        this.m_servlets.remove(httpCommand, uri);
+    }
+
+    /**
+     * this method runs the selector loop: it accepts connections, reads requests and writes responses.
+     */
+    public void run() {
+        try (Selector selector = Selector.open(); ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            m_selector = selector;
+            serverChannel.bind(new InetSocketAddress(m_portNumber));
+            serverChannel.configureBlocking(false);
+            m_acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            while (m_running) {
+                selector.select(1000);
+                runSelectorTasks();
+                checkDeadlines(selector);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid())
+                            continue;
+                        if (key.isAcceptable()) {
+                            accept(serverChannel, selector);
+                            continue;
+                        }
+                        if (key.isReadable())
+                            read(key);
+                        if (key.isValid() && key.isWritable())
+                            write(key);
+                    } catch (IOException | CancelledKeyException e) {
+                        if (key == m_acceptKey)
+                            e.printStackTrace();
+                        else
+                            closeConnection(key);
+                    }
+                }
+            }
+
+            // close the connections that are still open
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection)
+                    closeConnection(key);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * this method starts the server.
+     */
+    @Override
+    public void start() {
+        this.m_running = true;
+        new Thread(this).start();
+    }
+
+    /**
+     * this method stops the server.
+     */
+    public void close() {
+        this.m_running = false;
+        Selector selector = m_selector;
+        if (selector != null)
+            selector.wakeup();
+        // shutdown the executor
+        m_executor.shutdown();
+        try {
+            if (!m_executor.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
+                m_executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            m_executor.shutdownNow();
+        }
+    }
+
+    /**
+     * this method accepts a pending connection and registers it for reading.
+     *
+     * @param serverChannel the listening channel.
+     * @param selector      the selector of the server.
+     * @throws IOException if the connection cannot be configured.
+     */
+    private void accept(ServerSocketChannel serverChannel, Selector selector) throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, new Connection(channel, m_settings.getMinWriteRate()));
+
+        // stop accepting while the connection limit is reached
+        if (++m_openConnections >= m_settings.getMaxConnections())
+            m_acceptKey.interestOps(0);
+    }
+
+    /**
+     * this method reads the available bytes of a connection.
+     *
+     * @param key the selection key of the connection.
+     * @throws IOException if an error occurs while reading from the channel.
+     */
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        if (connection.m_bodyPipe != null) {
+            readBody(key, connection);
+            return;
+        }
+        if (connection.m_busy) {
+            readWhileBusy(key, connection);
+            return;
+        }
+        boolean waiting = connection.m_input.position() == 0;
+        int n = connection.m_channel.read(connection.m_input);
+        if (n == -1) {
+            closeConnection(key);
+            return;
+        }
+        connection.m_lastActivity = System.currentTimeMillis();
+        if (waiting && n > 0 && connection.m_requestsServed > 0)
+            connection.m_requestStart = connection.m_lastActivity;
+        if (connection.m_bodyMeter != null)
+            connection.m_bodyMeter.add(System.nanoTime(), n);
+        processInput(key);
+    }
+
+    /**
+     * this method reads a connection whose response is pending, only to notice when the client disconnects.
+     * The receive buffer still holds the request being handled, so the bytes of a pipelined request are kept
+     * aside, and reading stops until the response is written.
+     *
+     * @param key        the selection key of the connection.
+     * @param connection the connection.
+     * @throws IOException if an error occurs while reading from the channel.
+     */
+    private void readWhileBusy(SelectionKey key, Connection connection) throws IOException {
+        ByteBuffer pipelined = ByteBuffer.allocate(PIPELINED_READ_SIZE);
+        int n = connection.m_channel.read(pipelined);
+        if (n == -1) {
+            closeConnection(key);
+            return;
+        }
+        if (n > 0) {
+            connection.m_pipelined = pipelined.flip();
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * this method reads the next chunk of a streamed body and hands it to the worker,
+     * or pauses reading while the worker has enough chunks pending.
+     *
+     * @param key        the selection key of the connection.
+     * @param connection the connection the body is read from.
+     * @throws IOException if an error occurs while reading from the channel.
+     */
+    private void readBody(SelectionKey key, Connection connection) throws IOException {
+        BodyPipe pipe = connection.m_bodyPipe;
+        pipe.m_paused = true;
+        if (!pipe.hasSpace()) {
+            // the servlet is slow, not the client
+            connection.m_bodyMeter.pause(System.nanoTime());
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            return;
+        }
+        pipe.m_paused = false;
+
+        ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(BODY_CHUNK_SIZE, pipe.m_remaining));
+        int n = connection.m_channel.read(chunk);
+        if (n == -1) {
+            closeConnection(key);
+            return;
+        }
+        if (n == 0)
+            return;
+        connection.m_lastActivity = System.currentTimeMillis();
+        connection.m_bodyMeter.add(System.nanoTime(), n);
+        pipe.push(chunk.flip());
+        if (pipe.m_remaining == 0) {
+            // the whole body was received, stop reading until the response is written
+            connection.m_bodyPipe = null;
+            connection.m_bodyMeter = null;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * this method parses the buffered bytes of a connection, and once a full request has arrived
+     * hands it to the worker pool. Bytes of a following pipelined request stay in the buffer.
+     * A large body is streamed to the worker while the servlet already runs.
+     *
+     * @param key the selection key of the connection.
+     */
+    private void processInput(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer input = connection.m_input;
+        input.flip();
+        RequestInfo requestInfo;
+        try {
+            requestInfo = RequestParser.parseRequest(input, m_settings.getMaxContentLength(),
+                    m_settings.getMaxHeaderSize(), m_settings.getMaxUriLength());
+        } catch (RequestParser.BadRequestException e) {
+            // the request can never be served, answer and drop the connection
+            m_stats.requestRefused(e.getStatus());
+            String response = "HTTP/1.1 " + e.getStatus() + " " + e.getReason() + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+            connection.m_output.add(ByteBuffer.wrap(response.getBytes()));
+            connection.m_closeWhenWritten = true;
+            connection.m_responseComplete = true;
+            key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        if (requestInfo == null) {
+            // a small body is received with its head, under the body deadlines
+            if (connection.m_bodyMeter == null && RequestParser.isHeadComplete(input)) {
+                connection.m_bodyMeter = new TransferMeter(m_settings.getMinBodyRate());
+                connection.m_bodyMeter.resume(System.nanoTime());
+            }
+            // wait for the rest of the request, growing the buffer if it is full
+            input.position(input.limit()).limit(input.capacity());
+            if (!input.hasRemaining())
+                connection.m_input = ByteBuffer.allocate(input.capacity() * 2).put(input.flip());
+            return;
+        }
+
+        // stop reading while the request is handled, the buffer holds its content until the response is written
+        key.interestOps(0);
+        connection.m_bodyMeter = null;
+        if (requestInfo.isBodyStreamed())
+            startBody(key, connection, requestInfo);
+        connection.m_busy = true;
+        boolean lastRequest = ++connection.m_requestsServed >= m_settings.getMaxRequestsPerConnection();
+        m_executor.execute(() -> handleRequest(key, connection, requestInfo, !lastRequest));
+    }
+
+    /**
+     * this method attaches a pipe to a request whose body is streamed. The part of the body that is already
+     * in the receive buffer is the first chunk, the rest is read by the selector thread as it arrives.
+     *
+     * @param key         the selection key of the connection.
+     * @param connection  the connection the request was read from.
+     * @param requestInfo the request with a streamed body.
+     */
+    private void startBody(SelectionKey key, Connection connection, RequestInfo requestInfo) {
+        BodyPipe pipe = new BodyPipe(key, requestInfo.getContentLength());
+        requestInfo.setBodyStream(pipe);
+
+        ByteBuffer input = connection.m_input;
+        int buffered = (int) Math.min(input.remaining(), requestInfo.getContentLength());
+        if (buffered > 0) {
+            ByteBuffer first = ByteBuffer.allocate(buffered);
+            input.get(first.array());
+            pipe.push(first);
+        }
+        if (pipe.m_remaining > 0) {
+            connection.m_bodyPipe = pipe;
+            connection.m_bodyMeter = new TransferMeter(m_settings.getMinBodyRate());
+            connection.m_bodyMeter.resume(System.nanoTime());
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * this method writes the pending response bytes of a connection. Once the response is complete the connection
+     * is either closed or goes back to reading the next request.
+     *
+     * @param key the selection key of the connection.
+     * @throws IOException if an error occurs while writing to the channel.
+     */
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        boolean servletWaiting = connection.m_pendingOutput.get() > MAX_PENDING_OUTPUT;
+        long now = System.nanoTime();
+        ByteBuffer buffer;
+        while ((buffer = connection.m_output.peek()) != null) {
+            int written = connection.m_channel.write(buffer);
+            connection.m_writeMeter.add(now, written);
+            long pending = connection.m_pendingOutput.addAndGet(-written);
+            if (servletWaiting && pending <= MAX_PENDING_OUTPUT) {
+                synchronized (connection) {
+                    connection.notifyAll();
+                }
+                servletWaiting = false;
+            }
+            if (buffer.hasRemaining()) {
+                // the socket buffer is full, wait for the client to read
+                connection.m_writeMeter.resume(now);
+                return;
+            }
+            connection.m_output.poll();
+        }
+        connection.m_writeMeter.pause(now);
+        if (!connection.m_responseComplete) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            return;
+        }
+        if (connection.m_closeWhenWritten || connection.m_bodyPipe != null) {
+            // a body the servlet did not read is not drained, the connection is closed instead
+            closeConnection(key);
+            return;
+        }
+        connection.m_responseComplete = false;
+        connection.m_busy = false;
+        connection.m_lastActivity = System.currentTimeMillis();
+        // a pipelined request already started
+        connection.m_requestStart = connection.m_lastActivity;
+        connection.m_input.compact();
+        if (connection.m_pipelined != null) {
+            ByteBuffer input = connection.m_input;
+            if (input.remaining() < connection.m_pipelined.remaining())
+                connection.m_input = ByteBuffer.allocate(input.position() + connection.m_pipelined.remaining()).put(input.flip());
+            connection.m_input.put(connection.m_pipelined);
+            connection.m_pipelined = null;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        processInput(key);
+    }
+
+    /**
+     * this method runs on a worker thread: it finds the appropriate servlet for a parsed request
+     * and invokes the servlet's handle method. The worker does not wait for the response of an asynchronous
+     * servlet, the connection is watched meanwhile so the servlet is cancelled if the client disconnects.
+     *
+     * @param key         the selection key of the connection.
+     * @param connection  the connection the request was read from.
+     * @param requestInfo the parsed request.
+     * @param keepAlive   true if the connection may stay open after this response.
+     */
+    private void handleRequest(SelectionKey key, Connection connection, RequestInfo requestInfo, boolean keepAlive) {
+        ChannelOutputStream channelOutput = new ChannelOutputStream(key, connection);
+        ResponseFramer toClient = new ResponseFramer(channelOutput, keepAlive && requestInfo.isKeepAlive());
+        CompletableFuture<Boolean> outcome;
+        try {
+            outcome = m_dispatcher.dispatchAsync(requestInfo, toClient, m_executor);
+        } catch (ClosedChannelException e) {
+            // the client closed the connection before the response was sent
+            channelOutput.complete(false);
+            return;
+        } catch (IOException e) {
+            e.printStackTrace();
+            channelOutput.complete(false);
+            return;
+        } catch (RuntimeException | Error e) {
+            // the connection waits for this response, it is answered and closed whatever the servlet did
+            e.printStackTrace();
+            if (!toClient.hasResponse()) {
+                try {
+                    channelOutput.write(INTERNAL_ERROR);
+                } catch (IOException ignored) {
+                    // the connection is gone
+                }
+            }
+            channelOutput.complete(false);
+            return;
+        }
+        if (!outcome.isDone()) {
+            connection.m_pending = outcome;
+            runOnSelector(() -> {
+                if (connection.m_pending == outcome && key.isValid() && connection.m_pipelined == null)
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            });
+        }
+        outcome.whenComplete((reusable, error) -> {
+            connection.m_pending = null;
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause != null && !(cause instanceof ClosedChannelException) && !(cause instanceof CancellationException))
+                cause.printStackTrace();
+            channelOutput.complete(reusable != null && reusable);
+        });
+    }
+
+    /**
+     * this method asks the selector thread to watch a connection for write readiness.
+     *
+     * @param key the selection key of the connection.
+     */
+    private void requestWrite(SelectionKey key) {
+        runOnSelector(() -> key.interestOps(key.interestOps() | SelectionKey.OP_WRITE));
+    }
+
+    /**
+     * this method queues a task for the selector thread and wakes it up.
+     * Tasks on keys that were cancelled in the meantime are dropped.
+     *
+     * @param task the task to run.
+     */
+    private void runOnSelector(Runnable task) {
+        m_selectorTasks.add(task);
+        Selector selector = m_selector;
+        if (selector != null)
+            selector.wakeup();
+    }
+
+    /**
+     * this method runs the tasks that worker threads queued for the selector thread.
+     */
+    private void runSelectorTasks() {
+        Runnable task;
+        while ((task = m_selectorTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (CancelledKeyException ignored) {
+            }
+        }
+    }
+
+    /**
+     * this method closes the connections that waited for a request longer than the idle timeout, and the
+     * connections of clients that missed a deadline of the settings. A client that is late with a request is
+     * answered with 408 Request Timeout if nothing of the request was handled yet. It runs at most once a second.
+     *
+     * @param selector the selector of the server.
+     */
+    private void checkDeadlines(Selector selector) {
+        long now = System.currentTimeMillis();
+        if (now - m_lastIdleCheck < 1000)
+            return;
+        m_lastIdleCheck = now;
+        long nanos = System.nanoTime();
+        for (SelectionKey key : selector.keys()) {
+            if (!(key.attachment() instanceof Connection))
+                continue;
+            Connection connection = (Connection) key.attachment();
+            SlowClientReason late = missedDeadline(connection, now, nanos);
+            if (late != null) {
+                m_stats.slowClient(late);
+                if (!connection.m_busy && connection.m_output.isEmpty())
+                    sendTimeout(connection);
+                closeConnection(key);
+            } else if (!connection.m_busy && connection.m_requestsServed > 0 && connection.m_input.position() == 0
+                    && now - connection.m_lastActivity > m_settings.getIdleTimeoutMillis()) {
+                closeConnection(key);
+            }
+        }
+    }
+
+    /**
+     * @param connection a connection.
+     * @param now        the current time from {@link System#currentTimeMillis()}.
+     * @param nanos      the current time from {@link System#nanoTime()}.
+     * @return the deadline the client of the connection missed, or null.
+     */
+    private SlowClientReason missedDeadline(Connection connection, long now, long nanos) {
+        TransferMeter body = connection.m_bodyMeter;
+        if (body != null) {
+            if (body.stalledNanos(nanos) > TimeUnit.MILLISECONDS.toNanos(m_settings.getBodyTimeoutMillis()))
+                return SlowClientReason.BODY_TIMEOUT;
+            if (body.isTooSlow(nanos))
+                return SlowClientReason.BODY_RATE;
+        } else if (!connection.m_busy && (connection.m_requestsServed == 0 || connection.m_input.position() > 0)
+                && now - connection.m_requestStart > m_settings.getHeaderTimeoutMillis()) {
+            return SlowClientReason.HEADER_TIMEOUT;
+        }
+        TransferMeter write = connection.m_writeMeter;
+        if (write.stalledNanos(nanos) > TimeUnit.MILLISECONDS.toNanos(m_settings.getWriteTimeoutMillis()))
+            return SlowClientReason.WRITE_TIMEOUT;
+        if (write.isTooSlow(nanos))
+            return SlowClientReason.WRITE_RATE;
+        return null;
+    }
+
+    /**
+     * this method tries once to answer a client that is late with its request. The answer is lost if the client
+     * does not read either.
+     *
+     * @param connection the connection of the client.
+     */
+    private void sendTimeout(Connection connection) {
+        String response = "HTTP/1.1 408 Request Timeout\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+        try {
+            connection.m_channel.write(ByteBuffer.wrap(response.getBytes()));
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * this method closes a connection and cancels its selection key.
+     *
+     * @param key the selection key of the connection.
+     */
+    private void closeConnection(SelectionKey key) {
+        if (key.attachment() instanceof Connection) {
+            Connection connection = (Connection) key.attachment();
+            if (connection.m_bodyPipe != null)
+                connection.m_bodyPipe.fail();
+            CompletableFuture<Boolean> pending = connection.m_pending;
+            if (pending != null)
+                pending.cancel(true);
+        }
+        if (key.isValid() && key != m_acceptKey) {
+            // a connection slot is free again, resume accepting
+            m_openConnections--;
+            if (m_acceptKey.isValid())
+                m_acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+}
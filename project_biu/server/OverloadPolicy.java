@@ -0,0 +1,21 @@
+package server;
+
+/**
+ * What a server does with a new connection when its work queue is full.
+ */
+public enum OverloadPolicy {
+    /**
+     * the new connection is answered with 503 Service Unavailable and a Retry-After header, and closed.
+     */
+    REJECT,
+    /**
+     * the connection that waited the longest in the queue is answered with 503 and closed, and the new connection
+     * takes its place. Clients that are served get a fresher queue, at the price of the clients that waited.
+     */
+    DROP_OLDEST,
+    /**
+     * the server stops accepting connections until the queue has room, new clients wait in the backlog of the
+     * listening socket.
+     */
+    BLOCK_ACCEPT
+}
@@ -0,0 +1,116 @@
+package server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts the requests served by one route: how many, how many are being served, the bytes
+ * received and sent, the responses by status class, and a histogram of their durations.
+ * Every update is lock-free and allocation-free, so it is recorded on the request path.
+ */
+final class RequestMetrics {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final String m_method;
+    private final String m_route;
+    private final LongAdder m_requests;
+    private final LongAdder m_inFlight;
+    private final LongAdder m_failures;
+    private final LongAdder m_bytesIn;
+    private final LongAdder m_bytesOut;
+    // responses by the first digit of their status, index 0 counts responses without a valid status
+    private final LongAdder[] m_responses;
+    private final LatencyHistogram m_latency;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for RequestMetrics.
+     * @param method the HTTP command of the route.
+     * @param route  the URI pattern of the route.
+     */
+    RequestMetrics(String method, String route) {
+        this.m_method = method;
+        this.m_route = route;
+        this.m_requests = new LongAdder();
+        this.m_inFlight = new LongAdder();
+        this.m_failures = new LongAdder();
+        this.m_bytesIn = new LongAdder();
+        this.m_bytesOut = new LongAdder();
+        this.m_responses = new LongAdder[6];
+        for (int i = 0; i < m_responses.length; i++)
+            m_responses[i] = new LongAdder();
+        this.m_latency = new LatencyHistogram();
+    }
+
+    /**
+     * this method counts a request that starts being served.
+     * @param bytesIn the length of the request body.
+     * @return the start time to pass to {@link #end(long, int, long, boolean)}.
+     */
+    long begin(long bytesIn) {
+        m_requests.increment();
+        m_inFlight.increment();
+        m_bytesIn.add(Math.max(0, bytesIn));
+        return System.nanoTime();
+    }
+
+    /**
+     * this method counts a request that was served.
+     * @param start    the time returned by {@link #begin(long)}.
+     * @param status   the status of the response, 0 if it has none.
+     * @param bytesOut the bytes written by the servlet.
+     * @param failed   true if the servlet failed with an exception.
+     */
+    void end(long start, int status, long bytesOut, boolean failed) {
+        m_latency.record((System.nanoTime() - start) / 1000);
+        m_inFlight.decrement();
+        m_bytesOut.add(bytesOut);
+        m_responses[status >= 100 && status < 600 ? status / 100 : 0].increment();
+        if (failed)
+            m_failures.increment();
+    }
+
+    String getMethod() {
+        return m_method;
+    }
+
+    String getRoute() {
+        return m_route;
+    }
+
+    long getRequests() {
+        return m_requests.sum();
+    }
+
+    long getInFlight() {
+        return m_inFlight.sum();
+    }
+
+    long getFailures() {
+        return m_failures.sum();
+    }
+
+    long getBytesIn() {
+        return m_bytesIn.sum();
+    }
+
+    long getBytesOut() {
+        return m_bytesOut.sum();
+    }
+
+    /**
+     * @param statusClass the first digit of a status, 0 for responses without a valid status.
+     * @return the number of responses of the class.
+     */
+    long getResponses(int statusClass) {
+        return m_responses[statusClass].sum();
+    }
+
+    LatencyHistogram getLatency() {
+        return m_latency;
+    }
+}
@@ -1,18 +1,23 @@
 package server;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * This class is used to parse an HTTP request and extract relevant information.
+ * The parser works directly on the bytes received from the connection: it never copies the request into
+ * intermediate strings or arrays, and the content of the request is exposed as a slice of the receive buffer.
  */
 public class RequestParser {
 
     //------------------------------------------------------------------------------------------------------------------
-    // Inner class:
+    // Inner classes:
     //------------------------------------------------------------------------------------------------------------------
 
     /**
@@ -21,13 +26,21 @@ public class RequestParser {
     public static class RequestInfo {
         private final String m_httpCommand;
         private final String m_uri;
-        private final String[] m_uriSegments;
+        private final String m_httpVersion;
+        private String[] m_uriSegments;
         private final Map<String, String> m_parameters;
-        private final byte[] m_content;
+        private final Map<String, String> m_headers;
+        private final ByteBuffer m_body;
+        private final ByteBuffer m_contentSlice;
+        private byte[] m_content;
+        private final long m_contentLength;
+        private InputStream m_bodyStream;
+        private Map<String, String> m_pathParameters = Map.of();
+        private InputStream m_connectionStream;
 
         /**
          * this constructor initializes the RequestInfo object.
-         * 
+         *
          * @param httpCommand the HTTP command (e.g., GET, POST).
          * @param uri the full URI of the request.
          * @param uriSegments the segments of the URI path.
@@ -35,11 +48,50 @@ public class RequestParser {
          * @param content the content of the request, if any.
          */
         public RequestInfo(String httpCommand, String uri, String[] uriSegments, Map<String, String> parameters, byte[] content) {
+            this(httpCommand, uri, "HTTP/1.1", uriSegments, parameters, new HashMap<>(), content);
+        }
+
+        /**
+         * this constructor initializes the RequestInfo object, including the protocol version and the headers.
+         *
+         * @param httpCommand the HTTP command (e.g., GET, POST).
+         * @param uri the full URI of the request.
+         * @param httpVersion the protocol version of the request line (e.g., HTTP/1.1).
+         * @param uriSegments the segments of the URI path.
+         * @param parameters the parameters extracted from the URI or request body.
+         * @param headers the request headers, keyed by lower case name.
+         * @param content the content of the request, if any.
+         */
+        public RequestInfo(String httpCommand, String uri, String httpVersion, String[] uriSegments,
+                           Map<String, String> parameters, Map<String, String> headers, byte[] content) {
+            this(httpCommand, uri, httpVersion, parameters, headers, ByteBuffer.wrap(content), ByteBuffer.wrap(content), content.length);
+            this.m_uriSegments = uriSegments;
+            this.m_content = content;
+        }
+
+        /**
+         * this constructor initializes the RequestInfo object over slices of a receive buffer.
+         * The URI segments are computed when they are first asked for.
+         *
+         * @param httpCommand the HTTP command (e.g., GET, POST).
+         * @param uri the full URI of the request.
+         * @param httpVersion the protocol version of the request line (e.g., HTTP/1.1).
+         * @param parameters the parameters extracted from the URI or request body.
+         * @param headers the request headers, keyed by lower case name.
+         * @param body the raw body of the request, empty if the body is streamed.
+         * @param content the content of the request: the uploaded file of a multipart request, otherwise the body.
+         * @param contentLength the length of the body announced by the client.
+         */
+        public RequestInfo(String httpCommand, String uri, String httpVersion, Map<String, String> parameters,
+                           Map<String, String> headers, ByteBuffer body, ByteBuffer content, long contentLength) {
             this.m_httpCommand = httpCommand;
             this.m_uri = uri;
-            this.m_uriSegments = uriSegments;
+            this.m_httpVersion = httpVersion;
             this.m_parameters = parameters;
-            this.m_content = content;
+            this.m_headers = headers;
+            this.m_body = body;
+            this.m_contentSlice = content;
+            this.m_contentLength = contentLength;
         }
 
         public String getHttpCommand() {
@@ -51,6 +103,8 @@ public class RequestParser {
         }
 
         public String[] getUriSegments() {
+            if (m_uriSegments == null)
+                m_uriSegments = splitPath(m_uri);
             return m_uriSegments;
         }
 
@@ -58,96 +112,579 @@ public class RequestParser {
             return m_parameters;
         }
 
+        /**
+         * this method returns a copy of the content of the request.
+         * Servlets that only read the content should prefer {@link #getBody()}, which does not copy.
+         * @return the content of the request, empty if the body is streamed.
+         */
         public byte[] getContent() {
+            if (m_content == null) {
+                ByteBuffer content = m_contentSlice.duplicate();
+                m_content = new byte[content.remaining()];
+                content.get(m_content);
+            }
             return m_content;
         }
+
+        /**
+         * this method returns the raw body of the request without copying it.
+         * The buffer is a read-only view of the connection's receive buffer, and is only valid while the
+         * request is being handled.
+         * @return a read-only buffer holding the body of the request, empty if the body is streamed.
+         */
+        public ByteBuffer getBody() {
+            return m_body.asReadOnlyBuffer();
+        }
+
+        /**
+         * @return the length of the body announced by the client in the Content-Length header.
+         */
+        public long getContentLength() {
+            return m_contentLength;
+        }
+
+        /**
+         * @return true if the body is too large to be buffered and must be read through {@link #getBodyStream()}.
+         */
+        public boolean isBodyStreamed() {
+            return m_body.remaining() < m_contentLength;
+        }
+
+        /**
+         * this method returns a stream over the body of the request. For a large body the stream reads
+         * directly from the connection, so the body can be processed without holding it in memory.
+         * @return a stream that ends after the last byte of the body.
+         */
+        public InputStream getBodyStream() {
+            if (m_bodyStream == null)
+                return new ByteBufferInputStream(m_body.duplicate());
+            return m_bodyStream;
+        }
+
+        /**
+         * this method attaches the stream a server reads a large body from.
+         * @param bodyStream the stream over the body.
+         */
+        void setBodyStream(InputStream bodyStream) {
+            this.m_bodyStream = bodyStream;
+        }
+
+        /**
+         * this method returns the input of the connection for a request that asks to switch protocols
+         * (an Upgrade header), e.g. a WebSocket handshake. After answering with 101 Switching Protocols
+         * the servlet owns the connection: it reads the client from this stream and writes to the response
+         * stream until it returns, then the connection is closed.
+         * @return the input of the connection, or null if the server cannot hand its connections over.
+         */
+        public InputStream getConnectionStream() {
+            return m_connectionStream;
+        }
+
+        /**
+         * this method attaches the input of the connection to an upgrade request.
+         * @param connectionStream the stream reading the bytes that follow the request.
+         */
+        void setConnectionStream(InputStream connectionStream) {
+            this.m_connectionStream = connectionStream;
+        }
+
+        /**
+         * this method returns the values of the path parameters of the route that matched the request,
+         * e.g. "name" for a servlet mounted on "/topics/{name}". The values are not URL-decoded.
+         * @return the path parameters by name, empty if the route has none.
+         */
+        public Map<String, String> getPathParameters() {
+            return m_pathParameters;
+        }
+
+        /**
+         * this method sets the path parameters once the request was routed.
+         * @param pathParameters the path parameters by name.
+         */
+        void setPathParameters(Map<String, String> pathParameters) {
+            this.m_pathParameters = pathParameters;
+        }
+
+        public String getHttpVersion() {
+            return m_httpVersion;
+        }
+
+        public Map<String, String> getHeaders() {
+            return m_headers;
+        }
+
+        /**
+         * this method returns the value of a request header.
+         * @param name the header name, in any case.
+         * @return the header value, or null if the request does not have this header.
+         */
+        public String getHeader(String name) {
+            return m_headers.get(name.toLowerCase());
+        }
+
+        /**
+         * this method tells whether the client wants to keep the connection open after the response.
+         * HTTP/1.1 connections are persistent unless the client sends "Connection: close",
+         * HTTP/1.0 connections only when the client sends "Connection: keep-alive".
+         * @return true if the connection may be reused for another request.
+         */
+        public boolean isKeepAlive() {
+            String connection = m_headers.getOrDefault("connection", "");
+            if (m_httpVersion.equals("HTTP/1.0"))
+                return connection.equalsIgnoreCase("keep-alive");
+            return !connection.equalsIgnoreCase("close");
+        }
+    }
+
+    /**
+     * This class reads a buffer as an input stream.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer m_buffer;
+
+        /**
+         * Constructor for ByteBufferInputStream.
+         *
+         * @param buffer the buffer to read, from its position to its limit.
+         */
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.m_buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return m_buffer.hasRemaining() ? m_buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0)
+                return 0;
+            if (!m_buffer.hasRemaining())
+                return -1;
+            int n = Math.min(length, m_buffer.remaining());
+            m_buffer.get(bytes, offset, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return m_buffer.remaining();
+        }
+    }
+
+    /**
+     * This exception is thrown when the received bytes can never form a valid request.
+     * It carries the status the server should answer with before closing the connection.
+     */
+    public static class BadRequestException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final int m_status;
+        private final String m_reason;
+
+        /**
+         * Constructor for BadRequestException.
+         *
+         * @param status the HTTP status code of the answer.
+         * @param reason the reason phrase of the answer.
+         */
+        public BadRequestException(int status, String reason) {
+            super(status + " " + reason);
+            this.m_status = status;
+            this.m_reason = reason;
+        }
+
+        public int getStatus() {
+            return m_status;
+        }
+
+        public String getReason() {
+            return m_reason;
+        }
     }
 
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+
+    // the limits of a request head when the server settings do not choose them
+    private static final int DEFAULT_MAX_HEADER_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_URI_LENGTH = 8 * 1024;
+
+    // larger bodies are not buffered, they are streamed from the connection
+    private static final int MAX_BUFFERED_CONTENT = 64 * 1024;
+
+    // common header names, matched without allocating a new string for the name
+    private static final String[] KNOWN_HEADERS = {
+            "host", "connection", "content-length", "content-type", "accept", "accept-encoding", "accept-language",
+            "user-agent", "referer", "origin", "cookie", "cache-control", "pragma", "if-none-match",
+            "if-modified-since", "upgrade", "transfer-encoding", "sec-websocket-key", "sec-websocket-version"
+    };
+
     //------------------------------------------------------------------------------------------------------------------
     // Class methods:
     //------------------------------------------------------------------------------------------------------------------
 
     /**
-     * this method parses an HTTP request and extracts relevant information.
-     * @param reader the BufferedReader containing the HTTP request.
-     * @return a RequestInfo object containing the parsed request information, or null if the request is invalid.
+     * this method parses an HTTP request from the bytes between the position and the limit of a buffer.
+     * If a complete request is available, the position is moved past it, so a following pipelined request
+     * can be parsed by the next call. Otherwise the buffer is left untouched and more bytes are needed.
+     * <p>
+     * A body larger than {@value #MAX_BUFFERED_CONTENT} bytes is not waited for: the request is returned as soon
+     * as its head is complete, the position is left at the start of the body, and the caller must attach a
+     * stream over the body with {@link RequestInfo#setBodyStream(InputStream)}.
+     *
+     * @param buffer the receive buffer of the connection, in read mode.
+     * @param maxContentLength the largest body accepted.
+     * @return a RequestInfo object containing the parsed request information, or null if the request is not complete yet.
+     * @throws BadRequestException if the bytes are not a valid request, or the request exceeds the size limits.
      */
-    public static RequestInfo parseRequest(BufferedReader reader) throws IOException {
-        String lineFromReader = reader.readLine();
-        String httpCommandParsed;
-        String uriParsed;
-        String boundary = "";
-        String[] uriSegments;
-        Map<String, String> parameters = new HashMap<>();
-        byte[] content;
+    public static RequestInfo parseRequest(ByteBuffer buffer, long maxContentLength) throws BadRequestException {
+        return parseRequest(buffer, maxContentLength, DEFAULT_MAX_HEADER_SIZE, DEFAULT_MAX_URI_LENGTH);
+    }
 
-        if (lineFromReader == null || lineFromReader.isEmpty())
-            return null;
+    /**
+     * this method parses an HTTP request like {@link #parseRequest(ByteBuffer, long)}, with limits on the size
+     * of the head. A head that is too large is refused with 431, or with 414 when the request line alone
+     * is too long.
+     *
+     * @param buffer the receive buffer of the connection, in read mode.
+     * @param maxContentLength the largest body accepted.
+     * @param maxHeaderSize the largest head accepted, the request line and the headers.
+     * @param maxUriLength the longest URI accepted.
+     * @return a RequestInfo object containing the parsed request information, or null if the request is not complete yet.
+     * @throws BadRequestException if the bytes are not a valid request, or the request exceeds the size limits.
+     */
+    public static RequestInfo parseRequest(ByteBuffer buffer, long maxContentLength, int maxHeaderSize,
+                                           int maxUriLength) throws BadRequestException {
+        int start = buffer.position();
+        int limit = buffer.limit();
 
-        String[] requestLineParts = lineFromReader.split(" ");
-        if (requestLineParts.length < 3)
+        // ignore empty lines before the request line
+        while (start + 1 < limit && buffer.get(start) == '\r' && buffer.get(start + 1) == '\n')
+            start += 2;
+
+        int headEnd = findHeadEnd(buffer, start, limit);
+        if (headEnd == -1) {
+            if (limit - start > maxHeaderSize)
+                throw headTooLarge(buffer, start, limit, maxUriLength);
             return null;
+        }
+        if (headEnd - start > maxHeaderSize)
+            throw headTooLarge(buffer, start, headEnd, maxUriLength);
 
-        httpCommandParsed = requestLineParts[0];
-        uriParsed = requestLineParts[1];
-
-        // Extract URI segments
-        String path = uriParsed.split("\\?")[0];
-        uriSegments = Arrays.stream(path.split("/")).filter(segment -> !segment.isEmpty())
-                .toArray(String[]::new);
-
-        // Parse parameters from URI
-        if (uriParsed.contains("?")) {
-            String queryString = uriParsed.split("\\?")[1];
-            String[] queryParams = queryString.split("&");
-            for (String param : queryParams) {
-                String[] paramParts = param.split("=");
-                if (paramParts.length == 2) {
-                    parameters.put(paramParts[0], paramParts[1]);
-                }
-            }
+        // request line: command, URI and version separated by single spaces
+        int lineEnd = indexOf(buffer, (byte) '\r', start, headEnd);
+        int firstSpace = indexOf(buffer, (byte) ' ', start, lineEnd);
+        int secondSpace = firstSpace == -1 ? -1 : indexOf(buffer, (byte) ' ', firstSpace + 1, lineEnd);
+        if (firstSpace <= start || secondSpace <= firstSpace + 1)
+            throw new BadRequestException(400, "Bad Request");
+        if (secondSpace - firstSpace - 1 > maxUriLength)
+            throw new BadRequestException(414, "URI Too Long");
+        String httpCommand = httpCommand(buffer, start, firstSpace);
+        String uri = ascii(buffer, firstSpace + 1, secondSpace);
+        String httpVersion = httpVersion(buffer, secondSpace + 1, lineEnd);
+
+        // headers, one per line until the empty line
+        Map<String, String> headers = new HashMap<>();
+        int lineStart = lineEnd + 2;
+        while (lineStart < headEnd - 2) {
+            lineEnd = indexOf(buffer, (byte) '\r', lineStart, headEnd);
+            int colon = indexOf(buffer, (byte) ':', lineStart, lineEnd);
+            if (colon > lineStart)
+                headers.put(headerName(buffer, lineStart, colon), trimmedAscii(buffer, colon + 1, lineEnd));
+            lineStart = lineEnd + 2;
+        }
+
+        // content
+        if (headers.containsKey("transfer-encoding"))
+            throw new BadRequestException(501, "Not Implemented");
+        long contentLength = contentLength(headers.get("content-length"), maxContentLength);
+        Map<String, String> parameters = new HashMap<>();
+        int query = uri.indexOf('?');
+        if (query != -1)
+            parseParameters(uri, query + 1, parameters);
+
+        if (contentLength > MAX_BUFFERED_CONTENT) {
+            // the body is read by the servlet through a stream attached by the server
+            buffer.position(headEnd);
+            ByteBuffer empty = ByteBuffer.allocate(0);
+            return new RequestInfo(httpCommand, uri, httpVersion, parameters, headers, empty, empty, contentLength);
         }
+        if (limit - headEnd < contentLength)
+            return null; // wait for the rest of the content
+        ByteBuffer body = slice(buffer, headEnd, (int) contentLength);
+        buffer.position(headEnd + (int) contentLength);
 
-        // read until empty line
-        while (reader.ready()) {
-            lineFromReader = reader.readLine();
-            if (lineFromReader.isEmpty())
-                break;
-            if (lineFromReader.contains("boundary=")) {
-                boundary = lineFromReader.split("boundary=")[1];
+        ByteBuffer content = body;
+        String contentType = headers.get("content-type");
+        if (contentType != null && contentLength > 0) {
+            if (contentType.startsWith("multipart/form-data"))
+                content = parseMultipart(body, contentType, parameters);
+            else if (contentType.startsWith("application/x-www-form-urlencoded"))
+                parseParameters(ascii(body, 0, body.limit()), 0, parameters);
+        }
+
+        return new RequestInfo(httpCommand, uri, httpVersion, parameters, headers, body, content, contentLength);
+    }
+
+    /**
+     * this method splits the path of a URI into its non-empty segments.
+     * @param uri the URI, possibly with a query string.
+     * @return the segments of the path.
+     */
+    static String[] splitPath(String uri) {
+        int end = uri.indexOf('?');
+        if (end == -1)
+            end = uri.length();
+        List<String> segments = new ArrayList<>();
+        int segmentStart = 0;
+        for (int i = 0; i <= end; i++) {
+            if (i == end || uri.charAt(i) == '/') {
+                if (i > segmentStart)
+                    segments.add(uri.substring(segmentStart, i));
+                segmentStart = i + 1;
             }
         }
+        return segments.toArray(new String[0]);
+    }
 
-        // read until empty line
-        while (reader.ready()) {
-            lineFromReader = reader.readLine();
-            if (lineFromReader.isEmpty())
-                break;
-            if (lineFromReader.contains("filename=")){
-                parameters.put("filename", lineFromReader.split("filename=")[1].replace("\"",""));
-                continue;
+    /**
+     * this method reads "name=value" pairs separated by '&' into a map. Pairs without a name or a value are skipped.
+     * @param text the text holding the pairs.
+     * @param from the index of the first pair.
+     * @param parameters the map the pairs are added to.
+     */
+    private static void parseParameters(String text, int from, Map<String, String> parameters) {
+        int pairStart = from;
+        int length = text.length();
+        for (int i = from; i <= length; i++) {
+            if (i == length || text.charAt(i) == '&') {
+                int equals = text.indexOf('=', pairStart);
+                if (equals > pairStart && equals < i - 1)
+                    parameters.put(text.substring(pairStart, equals), text.substring(equals + 1, i));
+                pairStart = i + 1;
             }
-            String[] paramParts = lineFromReader.split("=");
-            if (paramParts.length == 2) {
-                parameters.put(paramParts[0], paramParts[1]);
+        }
+    }
+
+    /**
+     * this method finds the uploaded file in a multipart body.
+     * The name of the file is added to the parameters as "filename".
+     * @param body the body of the request.
+     * @param contentType the Content-Type header holding the boundary.
+     * @param parameters the map the file name is added to.
+     * @return a slice of the body holding the content of the first part, or the whole body if it is malformed.
+     */
+    private static ByteBuffer parseMultipart(ByteBuffer body, String contentType, Map<String, String> parameters) {
+        int boundaryIndex = contentType.indexOf("boundary=");
+        if (boundaryIndex == -1)
+            return body;
+        String boundary = contentType.substring(boundaryIndex + "boundary=".length()).replace("\"", "").trim();
+        byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+
+        int limit = body.limit();
+        int partStart = indexOf(body, delimiter, 0, limit);
+        if (partStart == -1)
+            return body;
+        int partHeadStart = partStart + delimiter.length + 2;
+        int partHeadEnd = findHeadEnd(body, partHeadStart, limit);
+        if (partHeadEnd == -1)
+            return body;
+
+        String partHead = ascii(body, partHeadStart, partHeadEnd);
+        int filenameIndex = partHead.indexOf("filename=");
+        if (filenameIndex != -1) {
+            int filenameEnd = partHead.indexOf("\r\n", filenameIndex);
+            parameters.put("filename", partHead.substring(filenameIndex + "filename=".length(), filenameEnd).replace("\"", ""));
+        }
+
+        // the content ends at the line break before the next delimiter
+        byte[] closing = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        int contentEnd = indexOf(body, closing, partHeadEnd, limit);
+        if (contentEnd == -1)
+            contentEnd = limit;
+        return slice(body, partHeadEnd, contentEnd - partHeadEnd);
+    }
+
+    /**
+     * this method parses the value of the Content-Length header.
+     * @param value the header value, or null if the request has no such header.
+     * @param maxContentLength the largest length accepted.
+     * @return the length of the content.
+     * @throws BadRequestException if the value is not a number or exceeds the content limit.
+     */
+    private static long contentLength(String value, long maxContentLength) throws BadRequestException {
+        if (value == null)
+            return 0;
+        long length = 0;
+        if (value.isEmpty())
+            throw new BadRequestException(400, "Bad Request");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9')
+                throw new BadRequestException(400, "Bad Request");
+            length = length * 10 + (c - '0');
+            if (length > maxContentLength)
+                throw new BadRequestException(413, "Payload Too Large");
+        }
+        return length;
+    }
+
+    /**
+     * this method checks whether the head of the request at the position of a buffer has fully arrived,
+     * e.g. to tell a client that is slow to send its head from one that is slow to send its body.
+     * @param buffer the receive buffer of the connection, in read mode.
+     * @return true if the empty line ending the head is in the buffer.
+     */
+    static boolean isHeadComplete(ByteBuffer buffer) {
+        return findHeadEnd(buffer, buffer.position(), buffer.limit()) != -1;
+    }
+
+    /**
+     * this method chooses the error of a head that exceeds the size limit.
+     * @param buffer the receive buffer.
+     * @param start the start of the request line.
+     * @param end the end of the received head.
+     * @param maxUriLength the longest URI accepted.
+     * @return 414 if the request line is not complete and longer than any accepted URI, 431 otherwise.
+     */
+    private static BadRequestException headTooLarge(ByteBuffer buffer, int start, int end, int maxUriLength) {
+        int lineEnd = indexOf(buffer, (byte) '\r', start, end);
+        if (lineEnd == -1 || lineEnd - start > maxUriLength)
+            return new BadRequestException(414, "URI Too Long");
+        return new BadRequestException(431, "Request Header Fields Too Large");
+    }
+
+    /**
+     * this method finds the end of a head, that is the empty line after the header lines.
+     * @param buffer the buffer to search.
+     * @param from the index to start from.
+     * @param to the index to stop at.
+     * @return the index after the empty line, or -1 if it is not in the buffer yet.
+     */
+    private static int findHeadEnd(ByteBuffer buffer, int from, int to) {
+        for (int i = from + 3; i < to; i++) {
+            if (buffer.get(i) == '\n' && buffer.get(i - 1) == '\r' && buffer.get(i - 2) == '\n' && buffer.get(i - 3) == '\r')
+                return i + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * this method finds a byte in a range of a buffer.
+     * @return the index of the byte, or -1 if it is not in the range.
+     */
+    private static int indexOf(ByteBuffer buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * this method finds a sequence of bytes in a range of a buffer.
+     * @return the index of the first byte of the sequence, or -1 if it is not in the range.
+     */
+    private static int indexOf(ByteBuffer buffer, byte[] value, int from, int to) {
+        outer:
+        for (int i = from; i <= to - value.length; i++) {
+            for (int j = 0; j < value.length; j++) {
+                if (buffer.get(i + j) != value[j])
+                    continue outer;
             }
+            return i;
         }
+        return -1;
+    }
+
+    /**
+     * this method creates a view of a range of a buffer, without copying.
+     * @return a buffer whose position is 0 and whose limit is the length of the range.
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int from, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(from + length).position(from);
+        return slice.slice();
+    }
+
+    /**
+     * this method decodes a range of a buffer as ISO-8859-1 text.
+     * @return the text.
+     */
+    private static String ascii(ByteBuffer buffer, int from, int to) {
+        if (buffer.hasArray())
+            return new String(buffer.array(), buffer.arrayOffset() + from, to - from, StandardCharsets.ISO_8859_1);
+        byte[] bytes = new byte[to - from];
+        buffer.duplicate().position(from).get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
 
-        // Read content after the second empty line
-        StringBuilder contentBuilder = new StringBuilder();
-        while (reader.ready()) {
-            lineFromReader = reader.readLine();
-            if (!boundary.isEmpty() && lineFromReader.contains(boundary))
-                break;
+    /**
+     * this method decodes a range of a buffer as text without the surrounding spaces and tabs.
+     * @return the trimmed text.
+     */
+    private static String trimmedAscii(ByteBuffer buffer, int from, int to) {
+        while (from < to && (buffer.get(from) == ' ' || buffer.get(from) == '\t'))
+            from++;
+        while (to > from && (buffer.get(to - 1) == ' ' || buffer.get(to - 1) == '\t'))
+            to--;
+        return ascii(buffer, from, to);
+    }
 
-            contentBuilder.append(lineFromReader).append("\n");
+    /**
+     * this method tells whether a range of a buffer holds the given text, ignoring the case of letters.
+     * @return true if the range matches the text.
+     */
+    private static boolean equalsIgnoreCase(ByteBuffer buffer, int from, int to, String text) {
+        if (to - from != text.length())
+            return false;
+        for (int i = 0; i < text.length(); i++) {
+            int c = buffer.get(from + i);
+            if (c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+            if (c != Character.toLowerCase(text.charAt(i)))
+                return false;
         }
-        if(!contentBuilder.isEmpty())
-            contentBuilder.deleteCharAt(contentBuilder.length() - 1);
-        content = contentBuilder.toString().getBytes();
+        return true;
+    }
 
-        return new RequestInfo(httpCommandParsed, uriParsed, uriSegments, parameters, content);
+    /**
+     * this method decodes the command of the request line, reusing the constants of the common commands.
+     * @return the command.
+     */
+    private static String httpCommand(ByteBuffer buffer, int from, int to) {
+        if (equalsIgnoreCase(buffer, from, to, "GET"))
+            return "GET";
+        if (equalsIgnoreCase(buffer, from, to, "POST"))
+            return "POST";
+        if (equalsIgnoreCase(buffer, from, to, "DELETE"))
+            return "DELETE";
+        return ascii(buffer, from, to).toUpperCase();
     }
 
-    
+    /**
+     * this method decodes the version of the request line, reusing the constants of the common versions.
+     * @return the version.
+     */
+    private static String httpVersion(ByteBuffer buffer, int from, int to) {
+        if (equalsIgnoreCase(buffer, from, to, "HTTP/1.1"))
+            return "HTTP/1.1";
+        if (equalsIgnoreCase(buffer, from, to, "HTTP/1.0"))
+            return "HTTP/1.0";
+        return ascii(buffer, from, to);
+    }
+
+    /**
+     * this method decodes a header name in lower case, reusing the constants of the common names.
+     * @return the lower case name.
+     */
+    private static String headerName(ByteBuffer buffer, int from, int to) {
+        for (String known : KNOWN_HEADERS) {
+            if (equalsIgnoreCase(buffer, from, to, known))
+                return known;
+        }
+        return trimmedAscii(buffer, from, to).toLowerCase();
+    }
 }
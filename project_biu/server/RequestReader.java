@@ -0,0 +1,304 @@
+package server;
+
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class reads the requests of a blocking connection into a single receive buffer that is reused
+ * for every request on the connection. Large bodies are not buffered, they are read from the connection
+ * while the servlet consumes them.
+ * <p>
+ * Every read has a deadline: the idle timeout until a request starts, the header timeout for its whole head,
+ * and the body timeout for each part of its body, which must also arrive at the minimum body rate.
+ * A client that misses a deadline is counted and a {@link SlowClientException} is thrown.
+ */
+class RequestReader {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    // unread body bytes that are skipped to keep the connection, beyond that the connection is closed
+    private static final int MAX_DRAINED_CONTENT = 64 * 1024;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final Socket m_socket;
+    private final InputStream m_in;
+    private final ServerSettings m_settings;
+    private final ServerStats m_stats;
+
+    // the first request of a connection must start within the header timeout, the next ones are waited for
+    private boolean m_firstRequest;
+    // set once a deadline was missed, the connection cannot carry more requests
+    private boolean m_failed;
+
+    // received bytes that were not parsed yet, between the position and the limit
+    private ByteBuffer m_buffer;
+
+    // the streamed body of the last request, if any
+    private BodyStream m_body;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner class:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * This class reads a streamed body: first the bytes already in the receive buffer, then the connection,
+     * never reading past the end of the body.
+     */
+    private class BodyStream extends InputStream {
+        private final TransferMeter m_meter;
+        private long m_remaining;
+
+        /**
+         * Constructor for BodyStream.
+         *
+         * @param contentLength the length of the body.
+         */
+        BodyStream(long contentLength) {
+            this.m_meter = new TransferMeter(m_settings.getMinBodyRate());
+            this.m_remaining = contentLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+            if (m_remaining == 0)
+                return -1;
+            int max = (int) Math.min(length, m_remaining);
+            int n;
+            if (m_buffer.hasRemaining()) {
+                n = Math.min(max, m_buffer.remaining());
+                m_buffer.get(bytes, offset, n);
+            } else {
+                n = readBody(m_meter, bytes, offset, max);
+                if (n == -1)
+                    throw new IOException("Connection closed before the end of the request body");
+            }
+            m_remaining -= n;
+            return n;
+        }
+
+        /**
+         * this method skips what the servlet did not read of a small body.
+         * @return true if the whole body was consumed and the next request can be read.
+         * @throws IOException if an error occurs while reading.
+         */
+        boolean drain() throws IOException {
+            if (m_remaining > MAX_DRAINED_CONTENT)
+                return false;
+            byte[] skipped = new byte[(int) Math.min(m_remaining, 8 * 1024)];
+            while (m_remaining > 0)
+                read(skipped, 0, skipped.length);
+            return true;
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * This constructor initializes the reader over the input of a connection.
+     *
+     * @param socket   the socket connected to the client.
+     * @param settings the settings holding the size limits and the deadlines.
+     * @param stats    the counters the slow clients are counted in.
+     * @throws IOException if the input of the socket cannot be opened.
+     */
+    RequestReader(Socket socket, ServerSettings settings, ServerStats stats) throws IOException {
+        this.m_socket = socket;
+        this.m_in = socket.getInputStream();
+        this.m_settings = settings;
+        this.m_stats = stats;
+        this.m_firstRequest = true;
+        this.m_buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        this.m_buffer.flip();
+    }
+
+    /**
+     * this method hands the rest of the connection over to another protocol. The returned stream reads the
+     * bytes received after the last request, then the connection, and ends when the client closes it.
+     * No further request can be read afterwards.
+     *
+     * @return the input of the connection, whose reads time out after the idle timeout.
+     * @throws IOException if the timeout of the socket cannot be set.
+     */
+    InputStream takeConnection() throws IOException {
+        m_socket.setSoTimeout(m_settings.getIdleTimeoutMillis());
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (length == 0)
+                    return 0;
+                if (m_buffer.hasRemaining()) {
+                    int n = Math.min(length, m_buffer.remaining());
+                    m_buffer.get(bytes, offset, n);
+                    return n;
+                }
+                return m_in.read(bytes, offset, length);
+            }
+        };
+    }
+
+    /**
+     * this method reads the next request of the connection, blocking until its head (and a small body)
+     * has fully arrived. The content of the previously returned request is no longer valid after this call.
+     *
+     * @return the parsed request, or null if the client closed the connection or it cannot carry more requests.
+     * @throws SocketTimeoutException if the connection was idle for the idle timeout.
+     * @throws SlowClientException if the client missed a deadline.
+     * @throws IOException if an error occurs while reading, or the request is invalid.
+     */
+    RequestInfo next() throws IOException {
+        if (m_failed)
+            return null;
+        // skip what is left of the previous body
+        if (m_body != null) {
+            if (!m_body.drain())
+                return null;
+            m_body = null;
+        }
+
+        // drop the previous request, keep the bytes that follow it
+        m_buffer.compact();
+        m_buffer.flip();
+        long headDeadline = m_firstRequest || m_buffer.hasRemaining() ? deadline() : 0;
+        m_firstRequest = false;
+        TransferMeter bodyMeter = null;
+        while (true) {
+            RequestInfo requestInfo = RequestParser.parseRequest(m_buffer, m_settings.getMaxContentLength(),
+                    m_settings.getMaxHeaderSize(), m_settings.getMaxUriLength());
+            if (requestInfo != null) {
+                if (requestInfo.isBodyStreamed()) {
+                    m_body = new BodyStream(requestInfo.getContentLength());
+                    requestInfo.setBodyStream(m_body);
+                }
+                return requestInfo;
+            }
+
+            // switch to write mode without moving the unparsed bytes
+            m_buffer.position(m_buffer.limit()).limit(m_buffer.capacity());
+            if (!m_buffer.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(m_buffer.capacity() * 2);
+                m_buffer.flip();
+                larger.put(m_buffer);
+                m_buffer = larger;
+            }
+            byte[] array = m_buffer.array();
+            int offset = m_buffer.arrayOffset() + m_buffer.position();
+            int n;
+            if (bodyMeter != null) {
+                // a small body is buffered with its head
+                n = readBody(bodyMeter, array, offset, m_buffer.remaining());
+            } else if (headDeadline == 0) {
+                // waiting for the next request
+                m_socket.setSoTimeout(m_settings.getIdleTimeoutMillis());
+                n = m_in.read(array, offset, m_buffer.remaining());
+                headDeadline = deadline();
+            } else {
+                n = readHead(headDeadline, array, offset, m_buffer.remaining());
+            }
+            if (n == -1)
+                return null;
+            m_buffer.position(m_buffer.position() + n);
+            m_buffer.flip();
+            if (bodyMeter == null && RequestParser.isHeadComplete(m_buffer))
+                bodyMeter = new TransferMeter(m_settings.getMinBodyRate());
+        }
+    }
+
+    /**
+     * @return the time the head of a request starting now must be received by, from {@link System#nanoTime()}.
+     */
+    private long deadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(m_settings.getHeaderTimeoutMillis());
+    }
+
+    /**
+     * this method reads bytes of the head of a request, waiting at most until the header deadline.
+     *
+     * @param deadline the time the head must be received by, from {@link System#nanoTime()}.
+     * @param bytes    the array to read into.
+     * @param offset   the offset to read to.
+     * @param length   the maximum number of bytes.
+     * @return the number of bytes read, or -1 at the end of the stream.
+     * @throws SlowClientException if the deadline passed.
+     * @throws IOException if an error occurs while reading.
+     */
+    private int readHead(long deadline, byte[] bytes, int offset, int length) throws IOException {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        try {
+            if (remaining < 1)
+                throw new SocketTimeoutException();
+            m_socket.setSoTimeout((int) remaining);
+            return m_in.read(bytes, offset, length);
+        } catch (SocketTimeoutException e) {
+            throw slowClient(SlowClientReason.HEADER_TIMEOUT);
+        }
+    }
+
+    /**
+     * this method reads bytes of the body of a request, waiting at most the body timeout, and checks the rate
+     * of the client.
+     *
+     * @param meter  the meter of the body.
+     * @param bytes  the array to read into.
+     * @param offset the offset to read to.
+     * @param length the maximum number of bytes.
+     * @return the number of bytes read, or -1 at the end of the stream.
+     * @throws SlowClientException if the client is too slow.
+     * @throws IOException if an error occurs while reading.
+     */
+    private int readBody(TransferMeter meter, byte[] bytes, int offset, int length) throws IOException {
+        if (m_failed)
+            throw new SlowClientException(SlowClientReason.BODY_TIMEOUT);
+        meter.resume(System.nanoTime());
+        int n;
+        try {
+            m_socket.setSoTimeout(m_settings.getBodyTimeoutMillis());
+            n = m_in.read(bytes, offset, length);
+        } catch (SocketTimeoutException e) {
+            throw slowClient(SlowClientReason.BODY_TIMEOUT);
+        }
+        long now = System.nanoTime();
+        meter.add(now, n);
+        meter.pause(now);
+        if (meter.isTooSlow(now))
+            throw slowClient(SlowClientReason.BODY_RATE);
+        return n;
+    }
+
+    /**
+     * this method counts a client that missed a deadline, and stops reading its connection.
+     * @param reason why the client is too slow.
+     * @return the error to throw.
+     */
+    private SlowClientException slowClient(SlowClientReason reason) {
+        m_failed = true;
+        m_stats.slowClient(reason);
+        return new SlowClientException(reason);
+    }
+}
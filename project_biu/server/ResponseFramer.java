@@ -0,0 +1,322 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class frames the response written by a servlet so that the connection can carry further requests.
+ * It holds back the head of the response, completes it with a Connection header, and when the servlet
+ * did not send a Content-Length it delivers the body with chunked transfer coding.
+ */
+class ResponseFramer extends OutputStream implements ByteBufferOutput {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final int MAX_HEAD_SIZE = 16 * 1024;
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final OutputStream m_out;
+    private final boolean m_keepAlive;
+
+    // head of the response until it is complete
+    private byte[] m_head;
+    private int m_headLength;
+    private boolean m_headDone;
+
+    // body framing
+    private boolean m_chunked;
+    private byte[] m_chunk;
+    private int m_chunkLength;
+    private long m_contentLength;
+    private long m_bodyWritten;
+
+    private long m_bytesFromServlet;
+    private int m_status;
+    private boolean m_reusable;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * This constructor wraps the output stream of a connection for a single response.
+     *
+     * @param out       the output stream of the connection.
+     * @param keepAlive true if the connection may stay open after this response.
+     */
+    ResponseFramer(OutputStream out, boolean keepAlive) {
+        this.m_out = out;
+        this.m_keepAlive = keepAlive;
+        this.m_head = new byte[512];
+        this.m_contentLength = -1;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0)
+            return;
+        m_bytesFromServlet += length;
+        if (m_headDone) {
+            writeBody(bytes, offset, length);
+            return;
+        }
+
+        // keep collecting the head until the empty line that ends it
+        if (m_headLength + length > m_head.length)
+            m_head = Arrays.copyOf(m_head, Math.max(m_head.length * 2, m_headLength + length));
+        System.arraycopy(bytes, offset, m_head, m_headLength, length);
+        int searchFrom = Math.max(0, m_headLength - 3);
+        m_headLength += length;
+
+        int headEnd = findHeadEnd(searchFrom);
+        if (headEnd == -1) {
+            if (m_headLength > MAX_HEAD_SIZE)
+                writeUnframed();
+            return;
+        }
+        m_headDone = true;
+        writeHead(new String(m_head, 0, headEnd, StandardCharsets.ISO_8859_1));
+        if (headEnd < m_headLength)
+            writeBody(m_head, headEnd, m_headLength - headEnd);
+        m_head = null;
+    }
+
+    /**
+     * this method writes a buffer of body bytes. When the body is not chunked and the connection accepts buffers,
+     * the buffer is handed over without copying, otherwise it is copied through the regular writes.
+     * @param buffer the bytes to write.
+     * @throws IOException if an error occurs while writing to the connection.
+     */
+    @Override
+    public void write(ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        if (m_headDone && !m_chunked && m_out instanceof ByteBufferOutput) {
+            m_bytesFromServlet += length;
+            m_bodyWritten += length;
+            ((ByteBufferOutput) m_out).write(buffer);
+            return;
+        }
+        if (buffer.hasArray()) {
+            write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            buffer.position(buffer.limit());
+            return;
+        }
+        byte[] copy = new byte[Math.min(length, CHUNK_SIZE)];
+        while (buffer.hasRemaining()) {
+            int n = Math.min(copy.length, buffer.remaining());
+            buffer.get(copy, 0, n);
+            write(copy, 0, n);
+        }
+    }
+
+    /**
+     * this method sends the pending body bytes to the client.
+     * @throws IOException if an error occurs while writing to the connection.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (!m_headDone)
+            return;
+        writeChunk();
+        m_out.flush();
+    }
+
+    /**
+     * this method only flushes the response, the connection is released by {@link #finish()}.
+     * @throws IOException if an error occurs while writing to the connection.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * @return true if the servlet wrote anything to the response.
+     */
+    boolean hasResponse() {
+        return m_bytesFromServlet > 0;
+    }
+
+    /**
+     * @return the number of bytes the servlet wrote, head included.
+     */
+    long getBytesWritten() {
+        return m_bytesFromServlet;
+    }
+
+    /**
+     * @return the status of the response, or 0 if its head was not written or is malformed.
+     */
+    int getStatus() {
+        return m_status;
+    }
+
+    /**
+     * this method completes the response and sends everything still buffered.
+     * @return true if the connection can carry another request, false if it must be closed.
+     * @throws IOException if an error occurs while writing to the connection.
+     */
+    boolean finish() throws IOException {
+        if (!m_headDone)
+            writeUnframed();
+        if (m_chunked) {
+            writeChunk();
+            m_out.write(LAST_CHUNK);
+        }
+        if (m_contentLength >= 0 && m_bodyWritten != m_contentLength)
+            m_reusable = false;
+        m_out.flush();
+        return m_reusable;
+    }
+
+    /**
+     * this method finds the end of the head in the collected bytes.
+     * @param from the index to start searching from.
+     * @return the index after the empty line that ends the head, or -1 if it was not received yet.
+     */
+    private int findHeadEnd(int from) {
+        for (int i = from + 3; i < m_headLength; i++) {
+            if (m_head[i] == '\n' && m_head[i - 1] == '\r' && m_head[i - 2] == '\n' && m_head[i - 3] == '\r')
+                return i + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * this method decides how the body is framed and writes the completed head.
+     * @param head the head written by the servlet, including the empty line that ends it.
+     * @throws IOException if an error occurs while writing to the connection.
+     */
+    private void writeHead(String head) throws IOException {
+        String[] lines = head.split("\r\n");
+        int status = parseStatus(lines[0]);
+        m_status = status;
+        boolean closeRequested = false;
+        boolean hasTransferEncoding = false;
+        StringBuilder framedHead = new StringBuilder(head.length() + 64).append(lines[0]).append("\r\n");
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            int colon = line.indexOf(':');
+            if (colon <= 0)
+                continue;
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Connection")) {
+                closeRequested = value.equalsIgnoreCase("close");
+                if (status != 101)
+                    continue; // replaced below
+            } else if (name.equalsIgnoreCase("Content-Length")) {
+                try {
+                    m_contentLength = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    closeRequested = true;
+                }
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                hasTransferEncoding = true;
+            }
+            framedHead.append(line).append("\r\n");
+        }
+
+        if (status == 101) {
+            // the connection is handed over to another protocol, leave the head untouched
+            m_reusable = false;
+            m_out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+            return;
+        }
+
+        boolean noBody = status / 100 == 1 || status == 204 || status == 304;
+        if (noBody || m_contentLength >= 0) {
+            m_reusable = m_keepAlive && !closeRequested;
+        } else if (hasTransferEncoding || !m_keepAlive || closeRequested) {
+            // the end of the body is marked by closing the connection
+            m_reusable = false;
+        } else {
+            m_chunked = true;
+            m_chunk = new byte[CHUNK_SIZE];
+            m_reusable = true;
+            framedHead.append("Transfer-Encoding: chunked\r\n");
+        }
+        framedHead.append(m_reusable ? "Connection: keep-alive\r\n" : "Connection: close\r\n").append("\r\n");
+        m_out.write(framedHead.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * this method writes body bytes, either directly or through the chunk buffer.
+     * @param bytes  the bytes to write.
+     * @param offset the offset of the first byte.
+     * @param length the number of bytes.
+     * @throws IOException if an error occurs while writing to the connection.
+     */
+    private void writeBody(byte[] bytes, int offset, int length) throws IOException {
+        m_bodyWritten += length;
+        if (!m_chunked) {
+            m_out.write(bytes, offset, length);
+            return;
+        }
+        while (length > 0) {
+            int n = Math.min(length, m_chunk.length - m_chunkLength);
+            System.arraycopy(bytes, offset, m_chunk, m_chunkLength, n);
+            m_chunkLength += n;
+            offset += n;
+            length -= n;
+            if (m_chunkLength == m_chunk.length)
+                writeChunk();
+        }
+    }
+
+    /**
+     * this method writes the buffered body bytes as a single chunk.
+     * @throws IOException if an error occurs while writing to the connection.
+     */
+    private void writeChunk() throws IOException {
+        if (!m_chunked || m_chunkLength == 0)
+            return;
+        m_out.write(Integer.toHexString(m_chunkLength).getBytes(StandardCharsets.ISO_8859_1));
+        m_out.write(CRLF);
+        m_out.write(m_chunk, 0, m_chunkLength);
+        m_out.write(CRLF);
+        m_chunkLength = 0;
+    }
+
+    /**
+     * this method gives up framing when the servlet did not write a proper head,
+     * the bytes are passed through and the connection will be closed.
+     * @throws IOException if an error occurs while writing to the connection.
+     */
+    private void writeUnframed() throws IOException {
+        m_out.write(m_head, 0, m_headLength);
+        m_head = null;
+        m_headDone = true;
+        m_reusable = false;
+    }
+
+    /**
+     * this method extracts the status code from the status line of a response.
+     * @param statusLine the first line of the response.
+     * @return the status code, or 0 if the line is malformed.
+     */
+    private static int parseStatus(String statusLine) {
+        String[] parts = statusLine.split(" ");
+        if (parts.length < 2)
+            return 0;
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
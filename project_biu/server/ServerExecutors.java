@@ -0,0 +1,54 @@
+package server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class creates the executor that runs the client tasks of a server according to its settings.
+ */
+class ServerExecutors {
+
+    /**
+     * this method creates the executor described by the given settings.
+     * @param settings the server settings.
+     * @return a fixed pool of platform threads, or an executor that starts a virtual thread per task.
+     */
+    static ExecutorService create(ServerSettings settings) {
+        if (settings.isVirtualThreads())
+            return newVirtualThreadPerTaskExecutor();
+        return Executors.newFixedThreadPool(settings.getWorkerThreads());
+    }
+
+    /**
+     * this method creates a fixed pool of platform threads whose queue holds at most
+     * {@link ServerSettings#getQueueCapacity()} tasks. A task submitted to a full queue is rejected with a
+     * RejectedExecutionException. The threads are started at once, so tasks may also be put into the queue directly.
+     * @param settings the server settings.
+     * @return the pool.
+     */
+    static ThreadPoolExecutor createBounded(ServerSettings settings) {
+        int threads = settings.getWorkerThreads();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(settings.getQueueCapacity()));
+        pool.prestartAllCoreThreads();
+        return pool;
+    }
+
+    /**
+     * this method creates an executor that starts a new virtual thread for each task.
+     * The executor is looked up at runtime so the project still compiles and runs on a JDK without virtual threads,
+     * where it falls back to a cached pool of platform threads.
+     * @return the executor.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads are not available on this JVM, using a cached thread pool instead.");
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
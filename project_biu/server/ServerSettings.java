@@ -0,0 +1,364 @@
+package server;
+
+/**
+ * This class holds the tunable settings of an HTTP server.
+ * Every setter returns the settings object itself so that settings can be chained.
+ */
+public class ServerSettings {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private int m_workerThreads = 5;
+    private boolean m_virtualThreads = false;
+    private int m_maxConnections = 10_000;
+    private int m_idleTimeoutMillis = 5_000;
+    private int m_maxRequestsPerConnection = 100;
+    private long m_maxContentLength = 64L * 1024 * 1024;
+    private int m_queueCapacity = 1_000;
+    private OverloadPolicy m_overloadPolicy = OverloadPolicy.REJECT;
+    private int m_retryAfterSeconds = 1;
+    private long m_asyncTimeoutMillis = 30_000;
+    private int m_headerTimeoutMillis = 10_000;
+    private int m_bodyTimeoutMillis = 10_000;
+    private int m_writeTimeoutMillis = 10_000;
+    private long m_minBodyRate = 256;
+    private long m_minWriteRate = 256;
+    private int m_maxHeaderSize = 64 * 1024;
+    private int m_maxUriLength = 8 * 1024;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the number of platform threads in the worker pool.
+     */
+    public int getWorkerThreads() {
+        return m_workerThreads;
+    }
+
+    /**
+     * this method sets the number of platform threads in the worker pool. It is ignored when virtual threads are used.
+     * @param workerThreads the number of threads, at least 1.
+     * @return this settings object.
+     */
+    public ServerSettings setWorkerThreads(int workerThreads) {
+        if (workerThreads < 1)
+            throw new IllegalArgumentException("workerThreads must be at least 1");
+        this.m_workerThreads = workerThreads;
+        return this;
+    }
+
+    /**
+     * @return true if every task runs on its own virtual thread instead of the worker pool.
+     */
+    public boolean isVirtualThreads() {
+        return m_virtualThreads;
+    }
+
+    /**
+     * this method chooses between the fixed worker pool and a virtual thread per task.
+     * @param virtualThreads true to run every task on its own virtual thread.
+     * @return this settings object.
+     */
+    public ServerSettings setVirtualThreads(boolean virtualThreads) {
+        this.m_virtualThreads = virtualThreads;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of client connections that are served at the same time.
+     */
+    public int getMaxConnections() {
+        return m_maxConnections;
+    }
+
+    /**
+     * this method sets the maximum number of concurrent client connections.
+     * When the limit is reached the server stops accepting until a connection is closed.
+     * @param maxConnections the maximum number of connections, at least 1.
+     * @return this settings object.
+     */
+    public ServerSettings setMaxConnections(int maxConnections) {
+        if (maxConnections < 1)
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        this.m_maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * @return the time in milliseconds an open connection may wait for its next request.
+     */
+    public int getIdleTimeoutMillis() {
+        return m_idleTimeoutMillis;
+    }
+
+    /**
+     * this method sets how long a persistent connection may stay idle before the server closes it.
+     * @param idleTimeoutMillis the timeout in milliseconds, at least 1.
+     * @return this settings object.
+     */
+    public ServerSettings setIdleTimeoutMillis(int idleTimeoutMillis) {
+        if (idleTimeoutMillis < 1)
+            throw new IllegalArgumentException("idleTimeoutMillis must be at least 1");
+        this.m_idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @return the number of requests served on one connection before it is closed.
+     */
+    public int getMaxRequestsPerConnection() {
+        return m_maxRequestsPerConnection;
+    }
+
+    /**
+     * this method sets the number of requests served on one connection before it is closed.
+     * @param maxRequestsPerConnection the number of requests, 1 disables persistent connections.
+     * @return this settings object.
+     */
+    public ServerSettings setMaxRequestsPerConnection(int maxRequestsPerConnection) {
+        if (maxRequestsPerConnection < 1)
+            throw new IllegalArgumentException("maxRequestsPerConnection must be at least 1");
+        this.m_maxRequestsPerConnection = maxRequestsPerConnection;
+        return this;
+    }
+
+    /**
+     * @return the largest request body the server accepts, in bytes.
+     */
+    public long getMaxContentLength() {
+        return m_maxContentLength;
+    }
+
+    /**
+     * this method sets the largest request body the server accepts. Larger requests are answered with 413.
+     * @param maxContentLength the limit in bytes, at least 0.
+     * @return this settings object.
+     */
+    public ServerSettings setMaxContentLength(long maxContentLength) {
+        if (maxContentLength < 0)
+            throw new IllegalArgumentException("maxContentLength must not be negative");
+        this.m_maxContentLength = maxContentLength;
+        return this;
+    }
+
+    /**
+     * @return the number of accepted connections that may wait for a worker thread.
+     */
+    public int getQueueCapacity() {
+        return m_queueCapacity;
+    }
+
+    /**
+     * this method bounds the queue of connections waiting for a worker thread, so a spike of clients is shed
+     * instead of waiting without limit. It is ignored when virtual threads are used, every connection gets a
+     * thread at once and only the connection limit applies.
+     * @param queueCapacity the number of waiting connections, at least 1.
+     * @return this settings object.
+     */
+    public ServerSettings setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1)
+            throw new IllegalArgumentException("queueCapacity must be at least 1");
+        this.m_queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * @return what the server does with a new connection when the queue is full.
+     */
+    public OverloadPolicy getOverloadPolicy() {
+        return m_overloadPolicy;
+    }
+
+    /**
+     * this method chooses what the server does with a new connection when the queue is full.
+     * @param overloadPolicy the policy.
+     * @return this settings object.
+     */
+    public ServerSettings setOverloadPolicy(OverloadPolicy overloadPolicy) {
+        if (overloadPolicy == null)
+            throw new IllegalArgumentException("overloadPolicy must not be null");
+        this.m_overloadPolicy = overloadPolicy;
+        return this;
+    }
+
+    /**
+     * @return the Retry-After value of a 503 answer, in seconds.
+     */
+    public int getRetryAfterSeconds() {
+        return m_retryAfterSeconds;
+    }
+
+    /**
+     * this method sets how long a client that was shed is asked to wait before trying again.
+     * @param retryAfterSeconds the Retry-After value in seconds, at least 0.
+     * @return this settings object.
+     */
+    public ServerSettings setRetryAfterSeconds(int retryAfterSeconds) {
+        if (retryAfterSeconds < 0)
+            throw new IllegalArgumentException("retryAfterSeconds must not be negative");
+        this.m_retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    /**
+     * @return the time in milliseconds the server waits for the response of an asynchronous servlet.
+     */
+    public long getAsyncTimeoutMillis() {
+        return m_asyncTimeoutMillis;
+    }
+
+    /**
+     * this method sets how long the server waits for the response of an asynchronous servlet. When it expires the
+     * future of the response is completed with a TimeoutException and the client gets 503 Service Unavailable.
+     * @param asyncTimeoutMillis the timeout in milliseconds, at least 1.
+     * @return this settings object.
+     */
+    public ServerSettings setAsyncTimeoutMillis(long asyncTimeoutMillis) {
+        if (asyncTimeoutMillis < 1)
+            throw new IllegalArgumentException("asyncTimeoutMillis must be at least 1");
+        this.m_asyncTimeoutMillis = asyncTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @return the time in milliseconds a client has to send the head of a request.
+     */
+    public int getHeaderTimeoutMillis() {
+        return m_headerTimeoutMillis;
+    }
+
+    /**
+     * this method sets how long a client has to send the whole head of a request, from the first byte of the
+     * request, or from the connection for its first request. A client that is late is answered with
+     * 408 Request Timeout and disconnected, so a client that sends a byte now and then cannot hold a connection.
+     * @param headerTimeoutMillis the timeout in milliseconds, at least 1.
+     * @return this settings object.
+     */
+    public ServerSettings setHeaderTimeoutMillis(int headerTimeoutMillis) {
+        if (headerTimeoutMillis < 1)
+            throw new IllegalArgumentException("headerTimeoutMillis must be at least 1");
+        this.m_headerTimeoutMillis = headerTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @return the time in milliseconds the server waits for the next bytes of a request body.
+     */
+    public int getBodyTimeoutMillis() {
+        return m_bodyTimeoutMillis;
+    }
+
+    /**
+     * this method sets how long the server waits for the next bytes of a request body before it disconnects
+     * the client.
+     * @param bodyTimeoutMillis the timeout in milliseconds, at least 1.
+     * @return this settings object.
+     */
+    public ServerSettings setBodyTimeoutMillis(int bodyTimeoutMillis) {
+        if (bodyTimeoutMillis < 1)
+            throw new IllegalArgumentException("bodyTimeoutMillis must be at least 1");
+        this.m_bodyTimeoutMillis = bodyTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @return the time in milliseconds the server waits for a client to read the next bytes of a response.
+     */
+    public int getWriteTimeoutMillis() {
+        return m_writeTimeoutMillis;
+    }
+
+    /**
+     * this method sets how long a write may wait for the client to read before the server disconnects the client.
+     * @param writeTimeoutMillis the timeout in milliseconds, at least 1.
+     * @return this settings object.
+     */
+    public ServerSettings setWriteTimeoutMillis(int writeTimeoutMillis) {
+        if (writeTimeoutMillis < 1)
+            throw new IllegalArgumentException("writeTimeoutMillis must be at least 1");
+        this.m_writeTimeoutMillis = writeTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @return the slowest rate a client may send a request body at, in bytes per second.
+     */
+    public long getMinBodyRate() {
+        return m_minBodyRate;
+    }
+
+    /**
+     * this method sets the slowest rate a client may send a request body at. Only the time the server waits for
+     * the body counts, and the rate is enforced after two seconds of waiting.
+     * @param minBodyRate the rate in bytes per second, 0 to accept any rate.
+     * @return this settings object.
+     */
+    public ServerSettings setMinBodyRate(long minBodyRate) {
+        if (minBodyRate < 0)
+            throw new IllegalArgumentException("minBodyRate must not be negative");
+        this.m_minBodyRate = minBodyRate;
+        return this;
+    }
+
+    /**
+     * @return the slowest rate a client may read responses at, in bytes per second.
+     */
+    public long getMinWriteRate() {
+        return m_minWriteRate;
+    }
+
+    /**
+     * this method sets the slowest rate a client may read responses at. Only the time the server waits for the
+     * client to read counts, a servlet that streams slowly does not make its client slow.
+     * @param minWriteRate the rate in bytes per second, 0 to accept any rate.
+     * @return this settings object.
+     */
+    public ServerSettings setMinWriteRate(long minWriteRate) {
+        if (minWriteRate < 0)
+            throw new IllegalArgumentException("minWriteRate must not be negative");
+        this.m_minWriteRate = minWriteRate;
+        return this;
+    }
+
+    /**
+     * @return the largest request head the server accepts, in bytes.
+     */
+    public int getMaxHeaderSize() {
+        return m_maxHeaderSize;
+    }
+
+    /**
+     * this method sets the largest request head, the request line and the headers, the server accepts.
+     * Larger requests are answered with 431.
+     * @param maxHeaderSize the limit in bytes, at least 256.
+     * @return this settings object.
+     */
+    public ServerSettings setMaxHeaderSize(int maxHeaderSize) {
+        if (maxHeaderSize < 256)
+            throw new IllegalArgumentException("maxHeaderSize must be at least 256");
+        this.m_maxHeaderSize = maxHeaderSize;
+        return this;
+    }
+
+    /**
+     * @return the longest request URI the server accepts.
+     */
+    public int getMaxUriLength() {
+        return m_maxUriLength;
+    }
+
+    /**
+     * this method sets the longest request URI the server accepts. Longer URIs are answered with 414.
+     * @param maxUriLength the limit in characters, at least 16.
+     * @return this settings object.
+     */
+    public ServerSettings setMaxUriLength(int maxUriLength) {
+        if (maxUriLength < 16)
+            throw new IllegalArgumentException("maxUriLength must be at least 16");
+        this.m_maxUriLength = maxUriLength;
+        return this;
+    }
+}
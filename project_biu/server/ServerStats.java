@@ -0,0 +1,335 @@
+package server;
+
+import servlets.Servlet;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * This class holds the metrics of a server: the requests of each route and servlet with their latency, the work
+ * shed because the server was overloaded, the clients disconnected for being too slow or sending requests that
+ * are too large, and the load of its worker pool.
+ * The counters only grow, they are updated without locking and can be read at any time.
+ * {@link #writePrometheus(StringBuilder)} exports them in the Prometheus text format.
+ */
+public class ServerStats {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final LongAdder m_rejectedConnections = new LongAdder();
+    private final LongAdder m_droppedConnections = new LongAdder();
+    private final LongAdder m_blockedAccepts = new LongAdder();
+    private final LongAdder m_rejectedRequests = new LongAdder();
+    private final LongAdder[] m_slowClients = newCounters(SlowClientReason.values().length);
+    private final LongAdder m_headersTooLarge = new LongAdder();
+    private final LongAdder m_urisTooLong = new LongAdder();
+    private final LongAdder m_bodiesTooLarge = new LongAdder();
+
+    private final ServletRegistry m_servlets;
+    private final RequestMetrics m_unmatched;
+    private volatile ThreadPoolExecutor m_pool;
+    private volatile IntSupplier m_openConnections;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for ServerStats.
+     * @param servlets the servlets of the server, the metrics of their routes are exported.
+     */
+    ServerStats(ServletRegistry servlets) {
+        this.m_servlets = servlets;
+        this.m_unmatched = new RequestMetrics("*", "unmatched");
+    }
+
+    /**
+     * this method sets the sources of the gauges of the server.
+     * @param pool            the worker pool, or null if the server has none.
+     * @param openConnections the number of open client connections.
+     */
+    void setGauges(ThreadPoolExecutor pool, IntSupplier openConnections) {
+        this.m_pool = pool;
+        this.m_openConnections = openConnections;
+    }
+
+    /**
+     * @return the metrics of the requests no route matched.
+     */
+    RequestMetrics getUnmatched() {
+        return m_unmatched;
+    }
+
+    /**
+     * @return the number of new connections answered with 503 because the work queue was full.
+     */
+    public long getRejectedConnections() {
+        return m_rejectedConnections.sum();
+    }
+
+    /**
+     * @return the number of queued connections answered with 503 to make room for a new connection.
+     */
+    public long getDroppedConnections() {
+        return m_droppedConnections.sum();
+    }
+
+    /**
+     * @return the number of times the server stopped accepting connections until the work queue had room.
+     */
+    public long getBlockedAccepts() {
+        return m_blockedAccepts.sum();
+    }
+
+    /**
+     * @return the number of requests answered with 503 because their servlet was at its concurrency limit.
+     */
+    public long getRejectedRequests() {
+        return m_rejectedRequests.sum();
+    }
+
+    void connectionRejected() {
+        m_rejectedConnections.increment();
+    }
+
+    void connectionDropped() {
+        m_droppedConnections.increment();
+    }
+
+    void acceptBlocked() {
+        m_blockedAccepts.increment();
+    }
+
+    void requestRejected() {
+        m_rejectedRequests.increment();
+    }
+
+    /**
+     * @param reason why the clients were too slow.
+     * @return the number of connections closed for that reason.
+     */
+    public long getSlowClients(SlowClientReason reason) {
+        return m_slowClients[reason.ordinal()].sum();
+    }
+
+    /**
+     * @param status 431 for heads that are too large, 414 for URIs that are too long, 413 for bodies that are
+     *               too large.
+     * @return the number of requests refused with that status.
+     */
+    public long getOversizedRequests(int status) {
+        LongAdder counter = oversizedCounter(status);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    void slowClient(SlowClientReason reason) {
+        m_slowClients[reason.ordinal()].increment();
+    }
+
+    /**
+     * this method counts a request refused because of its size, other refusals are ignored.
+     * @param status the status of the answer.
+     */
+    void requestRefused(int status) {
+        LongAdder counter = oversizedCounter(status);
+        if (counter != null)
+            counter.increment();
+    }
+
+    /**
+     * @param status the status of a refused request.
+     * @return the counter of the requests refused with the status, or null if it does not refuse a size.
+     */
+    private LongAdder oversizedCounter(int status) {
+        switch (status) {
+            case 413:
+                return m_bodiesTooLarge;
+            case 414:
+                return m_urisTooLong;
+            case 431:
+                return m_headersTooLarge;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * this method writes every metric of the server in the Prometheus text exposition format.
+     * The latency histograms are exported as summaries with the 0.5, 0.99 and 0.999 quantiles.
+     * @param out the text being built.
+     */
+    public void writePrometheus(StringBuilder out) {
+        List<ServletRegistry.Route> routes = m_servlets.routes();
+        RequestMetrics[] metrics = new RequestMetrics[routes.size() + 1];
+        for (int i = 0; i < routes.size(); i++)
+            metrics[i] = routes.get(i).getMetrics();
+        metrics[routes.size()] = m_unmatched;
+
+        header(out, "http_server_requests_total", "counter", "Requests served, by method and route.");
+        for (RequestMetrics route : metrics)
+            sample(out, "http_server_requests_total", route, null, route.getRequests());
+        header(out, "http_server_requests_in_flight", "gauge", "Requests being served, by method and route.");
+        for (RequestMetrics route : metrics)
+            sample(out, "http_server_requests_in_flight", route, null, route.getInFlight());
+        header(out, "http_server_responses_total", "counter", "Responses sent, by method, route and status class.");
+        for (RequestMetrics route : metrics) {
+            for (int statusClass = 0; statusClass < 6; statusClass++) {
+                long responses = route.getResponses(statusClass);
+                if (responses > 0)
+                    sample(out, "http_server_responses_total", route,
+                            "code=\"" + (statusClass == 0 ? "none" : statusClass + "xx") + "\"", responses);
+            }
+        }
+        header(out, "http_server_request_failures_total", "counter", "Requests whose servlet failed with an exception.");
+        for (RequestMetrics route : metrics)
+            sample(out, "http_server_request_failures_total", route, null, route.getFailures());
+        header(out, "http_server_request_bytes_total", "counter", "Bytes of request bodies received.");
+        for (RequestMetrics route : metrics)
+            sample(out, "http_server_request_bytes_total", route, null, route.getBytesIn());
+        header(out, "http_server_response_bytes_total", "counter", "Bytes of responses written by the servlets.");
+        for (RequestMetrics route : metrics)
+            sample(out, "http_server_response_bytes_total", route, null, route.getBytesOut());
+        header(out, "http_server_request_duration_seconds", "summary", "Time to serve a request, by method and route.");
+        for (RequestMetrics route : metrics) {
+            long[] counts = LatencyHistogram.newSnapshot();
+            long sumMicros = route.getLatency().addTo(counts);
+            summary(out, "http_server_request_duration_seconds", labels(route), counts, sumMicros);
+        }
+
+        // the routes of a servlet merged, a servlet may be mounted on several routes
+        Map<String, long[]> servletCounts = new LinkedHashMap<>();
+        Map<String, long[]> servletSums = new LinkedHashMap<>();
+        for (ServletRegistry.Route route : routes) {
+            String name = servletName(route.getServlet());
+            long[] counts = servletCounts.computeIfAbsent(name, k -> LatencyHistogram.newSnapshot());
+            servletSums.computeIfAbsent(name, k -> new long[1])[0] += route.getMetrics().getLatency().addTo(counts);
+        }
+        header(out, "http_servlet_request_duration_seconds", "summary", "Time to serve a request, by servlet.");
+        for (Map.Entry<String, long[]> servlet : servletCounts.entrySet()) {
+            String labels = "servlet=\"" + escape(servlet.getKey()) + "\"";
+            summary(out, "http_servlet_request_duration_seconds", labels, servlet.getValue(),
+                    servletSums.get(servlet.getKey())[0]);
+        }
+
+        header(out, "http_server_shed_total", "counter", "Work shed because the server was overloaded, by reason.");
+        out.append("http_server_shed_total{reason=\"queue_full\"} ").append(getRejectedConnections()).append('\n');
+        out.append("http_server_shed_total{reason=\"dropped_oldest\"} ").append(getDroppedConnections()).append('\n');
+        out.append("http_server_shed_total{reason=\"servlet_limit\"} ").append(getRejectedRequests()).append('\n');
+        header(out, "http_server_blocked_accepts_total", "counter", "Times accepting paused until the queue had room.");
+        out.append("http_server_blocked_accepts_total ").append(getBlockedAccepts()).append('\n');
+        header(out, "http_server_slow_clients_total", "counter", "Connections closed because the client was too slow.");
+        for (SlowClientReason reason : SlowClientReason.values())
+            out.append("http_server_slow_clients_total{reason=\"").append(reason.getLabel()).append("\"} ")
+                    .append(getSlowClients(reason)).append('\n');
+        header(out, "http_server_oversized_requests_total", "counter", "Requests refused because of their size.");
+        out.append("http_server_oversized_requests_total{reason=\"header\"} ").append(getOversizedRequests(431)).append('\n');
+        out.append("http_server_oversized_requests_total{reason=\"uri\"} ").append(getOversizedRequests(414)).append('\n');
+        out.append("http_server_oversized_requests_total{reason=\"body\"} ").append(getOversizedRequests(413)).append('\n');
+
+        IntSupplier openConnections = m_openConnections;
+        if (openConnections != null) {
+            header(out, "http_server_open_connections", "gauge", "Client connections open.");
+            out.append("http_server_open_connections ").append(openConnections.getAsInt()).append('\n');
+        }
+        ThreadPoolExecutor pool = m_pool;
+        if (pool != null) {
+            int active = pool.getActiveCount();
+            int threads = pool.getMaximumPoolSize();
+            header(out, "http_server_queue_depth", "gauge", "Work waiting for a worker thread.");
+            out.append("http_server_queue_depth ").append(pool.getQueue().size()).append('\n');
+            header(out, "http_server_pool_active_threads", "gauge", "Worker threads running a task.");
+            out.append("http_server_pool_active_threads ").append(active).append('\n');
+            header(out, "http_server_pool_threads", "gauge", "Worker threads of the pool.");
+            out.append("http_server_pool_threads ").append(threads).append('\n');
+            header(out, "http_server_pool_utilization", "gauge", "Fraction of the worker threads running a task.");
+            out.append("http_server_pool_utilization ").append((double) active / threads).append('\n');
+        }
+    }
+
+    /**
+     * @param size the number of counters.
+     * @return new counters at 0.
+     */
+    private static LongAdder[] newCounters(int size) {
+        LongAdder[] counters = new LongAdder[size];
+        for (int i = 0; i < size; i++)
+            counters[i] = new LongAdder();
+        return counters;
+    }
+
+    /**
+     * this method writes the HELP and TYPE lines of a metric.
+     * @param out  the text being built.
+     * @param name the name of the metric.
+     * @param type the Prometheus type of the metric.
+     * @param help the description of the metric.
+     */
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * this method writes a sample of a route metric.
+     * @param out    the text being built.
+     * @param name   the name of the metric.
+     * @param route  the route the sample belongs to.
+     * @param extra  more labels, or null.
+     * @param value  the value of the sample.
+     */
+    private static void sample(StringBuilder out, String name, RequestMetrics route, String extra, long value) {
+        out.append(name).append('{').append(labels(route));
+        if (extra != null)
+            out.append(',').append(extra);
+        out.append("} ").append(value).append('\n');
+    }
+
+    /**
+     * this method writes the quantiles, the sum and the count of a latency histogram.
+     * @param out       the text being built.
+     * @param name      the name of the metric.
+     * @param labels    the labels of the histogram.
+     * @param counts    the bucket counts of the histogram.
+     * @param sumMicros the sum of the recorded durations in microseconds.
+     */
+    private static void summary(StringBuilder out, String name, String labels, long[] counts, long sumMicros) {
+        long total = LatencyHistogram.total(counts);
+        for (String quantile : new String[]{"0.5", "0.99", "0.999"}) {
+            long micros = LatencyHistogram.valueAtQuantile(counts, total, Double.parseDouble(quantile));
+            out.append(name).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                    .append(micros / 1e6).append('\n');
+        }
+        out.append(name).append("_sum{").append(labels).append("} ").append(sumMicros / 1e6).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(total).append('\n');
+    }
+
+    /**
+     * @param route the metrics of a route.
+     * @return the method and route labels of the route.
+     */
+    private static String labels(RequestMetrics route) {
+        return "method=\"" + escape(route.getMethod()) + "\",route=\"" + escape(route.getRoute()) + "\"";
+    }
+
+    /**
+     * @param servlet a servlet.
+     * @return the name the servlet is exported under.
+     */
+    private static String servletName(Servlet servlet) {
+        String name = servlet.getClass().getSimpleName();
+        return name.isEmpty() ? servlet.getClass().getName() : name;
+    }
+
+    /**
+     * @param value the value of a label.
+     * @return the value with backslashes, quotes and line breaks escaped.
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
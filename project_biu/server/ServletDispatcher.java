@@ -0,0 +1,250 @@
+package server;
+
+import servlets.AsyncServlet;
+import servlets.Response;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class runs the servlet of a request for a server: it finds the route, applies the concurrency limit of
+ * the route, answers the requests no servlet handled, and records the metrics of the request.
+ * The response of an {@link AsyncServlet} is waited for with the async timeout of the settings.
+ */
+final class ServletDispatcher {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final ServletRegistry m_servlets;
+    private final ServerStats m_stats;
+    private final ServerSettings m_settings;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for ServletDispatcher.
+     *
+     * @param servlets the servlets of the server.
+     * @param stats    the counters and metrics of the server.
+     * @param settings the settings of the server.
+     */
+    ServletDispatcher(ServletRegistry servlets, ServerStats stats, ServerSettings settings) {
+        this.m_servlets = servlets;
+        this.m_stats = stats;
+        this.m_settings = settings;
+    }
+
+    /**
+     * this method serves a request and completes its response. The calling thread waits for the response of an
+     * asynchronous servlet.
+     *
+     * @param requestInfo the parsed request.
+     * @param response    the framed response of the request.
+     * @return true if the connection can carry another request.
+     * @throws IOException if an error occurs while writing the response.
+     */
+    boolean dispatch(RequestInfo requestInfo, ResponseFramer response) throws IOException {
+        return dispatch(m_servlets.find(requestInfo), requestInfo, response);
+    }
+
+    /**
+     * this method serves a request without waiting for the response of an asynchronous servlet. The response is
+     * written by the executor once it is ready, every other servlet is run by the calling thread.
+     * Cancelling the returned future cancels the future of the servlet, e.g. when the client disconnects.
+     *
+     * @param requestInfo the parsed request.
+     * @param response    the framed response of the request.
+     * @param executor    the executor that writes the response of an asynchronous servlet.
+     * @return a future completed with true if the connection can carry another request.
+     * @throws IOException if an error occurs while writing the response of a synchronous servlet.
+     */
+    CompletableFuture<Boolean> dispatchAsync(RequestInfo requestInfo, ResponseFramer response, Executor executor)
+            throws IOException {
+        ServletRegistry.Route route = m_servlets.find(requestInfo);
+        if (route == null || !(route.getServlet() instanceof AsyncServlet))
+            return CompletableFuture.completedFuture(dispatch(route, requestInfo, response));
+
+        RequestMetrics metrics = route.getMetrics();
+        long start = metrics.begin(requestInfo.getContentLength());
+        if (!route.tryEnter()) {
+            boolean failed = true;
+            try {
+                m_stats.requestRejected();
+                sendUnavailable(response);
+                boolean reusable = response.finish();
+                failed = false;
+                return CompletableFuture.completedFuture(reusable);
+            } finally {
+                metrics.end(start, response.getStatus(), response.getBytesWritten(), failed);
+            }
+        }
+
+        CompletableFuture<Response> pending = start((AsyncServlet) route.getServlet(), requestInfo);
+        CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+        pending.whenCompleteAsync((result, error) -> {
+            boolean failed = true;
+            try {
+                writeResponse(response, result, error);
+                boolean reusable = response.finish();
+                failed = false;
+                outcome.complete(reusable);
+            } catch (IOException | RuntimeException e) {
+                outcome.completeExceptionally(e);
+            } finally {
+                route.exit();
+                metrics.end(start, response.getStatus(), response.getBytesWritten(), failed);
+            }
+        }, executor);
+        outcome.whenComplete((reusable, error) -> {
+            if (outcome.isCancelled())
+                pending.cancel(true);
+        });
+        return outcome;
+    }
+
+    /**
+     * this method serves a request on the calling thread and completes its response.
+     *
+     * @param route       the route matching the request, or null.
+     * @param requestInfo the parsed request.
+     * @param response    the framed response of the request.
+     * @return true if the connection can carry another request.
+     * @throws IOException if an error occurs while writing the response.
+     */
+    private boolean dispatch(ServletRegistry.Route route, RequestInfo requestInfo, ResponseFramer response)
+            throws IOException {
+        RequestMetrics metrics = route != null ? route.getMetrics() : m_stats.getUnmatched();
+        long start = metrics.begin(requestInfo.getContentLength());
+        boolean failed = true;
+        try {
+            if (route != null) {
+                if (route.tryEnter()) {
+                    try {
+                        if (route.getServlet() instanceof AsyncServlet)
+                            awaitResponse((AsyncServlet) route.getServlet(), requestInfo, response);
+                        else
+                            route.getServlet().handle(requestInfo, response);
+                    } finally {
+                        route.exit();
+                    }
+                } else {
+                    m_stats.requestRejected();
+                    sendUnavailable(response);
+                }
+            }
+            if (!response.hasResponse()) {
+                sendNotFound(response);
+            }
+            boolean reusable = response.finish();
+            failed = false;
+            return reusable;
+        } finally {
+            metrics.end(start, response.getStatus(), response.getBytesWritten(), failed);
+        }
+    }
+
+    /**
+     * this method starts an asynchronous servlet and arms the timeout of its response.
+     * @param servlet     the servlet.
+     * @param requestInfo the request.
+     * @return the future of the response, completed with a TimeoutException if the response is late.
+     */
+    private CompletableFuture<Response> start(AsyncServlet servlet, RequestInfo requestInfo) {
+        CompletableFuture<Response> pending;
+        try {
+            pending = servlet.handleAsync(requestInfo);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (pending == null)
+            return CompletableFuture.completedFuture(null);
+        return pending.orTimeout(m_settings.getAsyncTimeoutMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * this method waits on the calling thread for the response of an asynchronous servlet and writes it.
+     * @param servlet     the servlet.
+     * @param requestInfo the request.
+     * @param response    the framed response of the request.
+     * @throws IOException if an error occurs while writing the response.
+     */
+    private void awaitResponse(AsyncServlet servlet, RequestInfo requestInfo, ResponseFramer response)
+            throws IOException {
+        CompletableFuture<Response> pending = start(servlet, requestInfo);
+        Response result = null;
+        Throwable error = null;
+        try {
+            result = pending.get();
+        } catch (ExecutionException e) {
+            error = e.getCause();
+        } catch (InterruptedException e) {
+            // the server is stopping
+            pending.cancel(true);
+            Thread.currentThread().interrupt();
+            sendUnavailable(response);
+            return;
+        } catch (CancellationException e) {
+            error = e;
+        }
+        writeResponse(response, result, error);
+    }
+
+    /**
+     * this method writes the outcome of an asynchronous servlet: its response, 503 if it timed out, or 500 if it
+     * failed. A servlet that completed without a response gets the usual 404.
+     *
+     * @param out    the response of the request.
+     * @param result the response of the servlet, or null.
+     * @param error  the error the servlet failed with, or null.
+     * @throws IOException if an error occurs while writing the response.
+     */
+    private void writeResponse(ResponseFramer out, Response result, Throwable error) throws IOException {
+        if (error instanceof CompletionException && error.getCause() != null)
+            error = error.getCause();
+        if (error instanceof TimeoutException) {
+            sendUnavailable(out);
+        } else if (error instanceof CancellationException) {
+            // the client went away, nobody reads the answer
+            throw new ClosedChannelException();
+        } else if (error != null) {
+            error.printStackTrace();
+            out.write("HTTP/1.1 500 Internal Server Error\r\nContent-Length: 0\r\n\r\n".getBytes());
+        } else if (result != null) {
+            result.writeTo(out);
+        } else {
+            sendNotFound(out);
+        }
+    }
+
+    /**
+     * this method sends a 404 Not Found response to the client.
+     * @param out the response.
+     * @throws IOException if an error occurs while writing to the response.
+     */
+    private void sendNotFound(ResponseFramer out) throws IOException {
+        String response = "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n";
+        out.write(response.getBytes());
+    }
+
+    /**
+     * this method sends a 503 Service Unavailable response asking the client to retry later.
+     * @param out the response.
+     * @throws IOException if an error occurs while writing to the response.
+     */
+    private void sendUnavailable(ResponseFramer out) throws IOException {
+        String response = "HTTP/1.1 503 Service Unavailable\r\nRetry-After: " + m_settings.getRetryAfterSeconds()
+                + "\r\nContent-Length: 0\r\n\r\n";
+        out.write(response.getBytes());
+    }
+}
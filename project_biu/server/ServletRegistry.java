@@ -0,0 +1,327 @@
+package server;
+
+import servlets.Servlet;
+import server.RequestParser.RequestInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * This class holds the servlets registered on a server and finds the right servlet for a given request.
+ * The registered URIs of each HTTP command are compiled into a radix tree, so a request is routed with a single
+ * pass over its path whatever the number of servlets. A servlet matches its own URI and every URI below it,
+ * the longest match wins. A segment written as {name} matches any single path segment, and its value is
+ * passed to the servlet with {@link RequestInfo#getPathParameters()}.
+ * A route may limit the number of requests its servlet handles at the same time.
+ */
+class ServletRegistry {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner classes:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A registered servlet, the limit of its concurrent requests, and the metrics of the requests it served.
+     */
+    static final class Route {
+        private final Servlet m_servlet;
+        private final Semaphore m_permits;
+        private final RequestMetrics m_metrics;
+
+        /**
+         * Constructor for Route.
+         * @param httpCommand   the HTTP command of the route.
+         * @param uri           the URI pattern of the route.
+         * @param servlet       the servlet of the route.
+         * @param maxConcurrent the number of requests the servlet handles at the same time, 0 for no limit.
+         */
+        Route(String httpCommand, String uri, Servlet servlet, int maxConcurrent) {
+            this.m_servlet = servlet;
+            this.m_permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+            this.m_metrics = new RequestMetrics(httpCommand, uri);
+        }
+
+        /**
+         * @return the servlet of the route.
+         */
+        Servlet getServlet() {
+            return m_servlet;
+        }
+
+        /**
+         * @return the metrics of the requests served by the route.
+         */
+        RequestMetrics getMetrics() {
+            return m_metrics;
+        }
+
+        /**
+         * this method takes a slot of the concurrency limit without waiting.
+         * @return false if the servlet already handles as many requests as it may, the request must be shed then.
+         */
+        boolean tryEnter() {
+            return m_permits == null || m_permits.tryAcquire();
+        }
+
+        /**
+         * this method gives back the slot taken by {@link #tryEnter()}.
+         */
+        void exit() {
+            if (m_permits != null)
+                m_permits.release();
+        }
+    }
+
+    /**
+     * A node of the radix tree. A node is entered by matching its label, or a whole path segment for the
+     * parameter child of a node.
+     */
+    private static final class RouteNode {
+        private String m_label;
+        private char[] m_indices = new char[0];
+        private RouteNode[] m_children = new RouteNode[0];
+        private RouteNode m_parameter;
+        private Route m_route;
+        private String[] m_parameterNames;
+
+        RouteNode(String label) {
+            this.m_label = label;
+        }
+
+        /**
+         * @param c the first character of the label.
+         * @return the static child whose label starts with the character, or null.
+         */
+        RouteNode child(char c) {
+            for (int i = 0; i < m_indices.length; i++) {
+                if (m_indices[i] == c)
+                    return m_children[i];
+            }
+            return null;
+        }
+
+        /**
+         * this method adds a static child, or replaces the child starting with the same character.
+         * @param child the child to add.
+         */
+        void putChild(RouteNode child) {
+            char c = child.m_label.charAt(0);
+            for (int i = 0; i < m_indices.length; i++) {
+                if (m_indices[i] == c) {
+                    m_children[i] = child;
+                    return;
+                }
+            }
+            m_indices = Arrays.copyOf(m_indices, m_indices.length + 1);
+            m_children = Arrays.copyOf(m_children, m_children.length + 1);
+            m_indices[m_indices.length - 1] = c;
+            m_children[m_children.length - 1] = child;
+        }
+    }
+
+    /**
+     * The compiled routes of one HTTP command. A tree is never changed once it is built.
+     */
+    private static final class RouteTree {
+        private final RouteNode m_root = new RouteNode("");
+        private int m_maxParameters;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    // the registered URIs by HTTP command, the source the trees are compiled from
+    private final Map<String, Map<String, Route>> m_routes;
+    private final ConcurrentHashMap<String, RouteTree> m_trees;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * This constructor initializes an empty registry.
+     */
+    ServletRegistry() {
+        this.m_routes = new HashMap<>();
+        this.m_trees = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * this method adds a servlet to the registry.
+     *
+     * @param httpCommand the HTTP command (GET, POST, DELETE) that the servlet will handle.
+     * @param uri         the URI pattern that the servlet will match.
+     * @param servlet     the servlet instance to be added.
+     * @param maxConcurrent the number of requests the servlet handles at the same time, 0 for no limit.
+     */
+    synchronized void add(String httpCommand, String uri, Servlet servlet, int maxConcurrent) {
+        String command = httpCommand.toUpperCase();
+        Map<String, Route> routes = m_routes.computeIfAbsent(command, k -> new LinkedHashMap<>());
+        routes.put(uri, new Route(command, uri, servlet, maxConcurrent));
+        m_trees.put(command, compile(routes));
+    }
+
+    /**
+     * this method removes a servlet from the registry.
+     *
+     * @param httpCommand the HTTP command (GET, POST, DELETE) that the servlet was handling.
+     * @param uri         the URI pattern that the servlet was matching.
+     */
+    synchronized void remove(String httpCommand, String uri) {
+        String command = httpCommand.toUpperCase();
+        Map<String, Route> routes = m_routes.get(command);
+        if (routes == null || routes.remove(uri) == null)
+            return;
+        m_trees.put(command, compile(routes));
+    }
+
+    /**
+     * @return the registered routes of every HTTP command.
+     */
+    synchronized List<Route> routes() {
+        List<Route> routes = new ArrayList<>();
+        for (Map<String, Route> commandRoutes : m_routes.values())
+            routes.addAll(commandRoutes.values());
+        return routes;
+    }
+
+    /**
+     * this method finds the right route for a given request by matching the request's HTTP command and URI.
+     * The values of the path parameters of the matching route are set on the request.
+     * @param requestInfo the parsed request information.
+     * @return the route that matches the request, or null if no matching servlet is found.
+     */
+    Route find(RequestInfo requestInfo) {
+        RouteTree tree = m_trees.get(requestInfo.getHttpCommand().toUpperCase());
+        if (tree == null)
+            return null;
+        String uri = requestInfo.getUri();
+        int end = uri.indexOf('?');
+        if (end == -1)
+            end = uri.length();
+
+        // the bounds of the parameter values, only needed if some route has parameters
+        int[] bounds = tree.m_maxParameters == 0 ? null : new int[tree.m_maxParameters * 2];
+        RouteNode node = match(tree.m_root, uri, 0, end, bounds, 0);
+        if (node == null)
+            return null;
+        if (node.m_parameterNames.length > 0) {
+            Map<String, String> parameters = new HashMap<>();
+            for (int i = 0; i < node.m_parameterNames.length; i++)
+                parameters.put(node.m_parameterNames[i], uri.substring(bounds[i * 2], bounds[i * 2 + 1]));
+            requestInfo.setPathParameters(parameters);
+        }
+        return node.m_route;
+    }
+
+    /**
+     * this method finds the deepest route matching the path, preferring static labels over parameters.
+     *
+     * @param node   the node reached so far.
+     * @param path   the URI of the request.
+     * @param pos    the index of the next character to match.
+     * @param end    the index where the path ends, before the query string.
+     * @param bounds the start and end index of each parameter value matched so far.
+     * @param depth  the number of parameter values matched so far.
+     * @return the node of the matching route, or null if there is none below this node.
+     */
+    private static RouteNode match(RouteNode node, String path, int pos, int end, int[] bounds, int depth) {
+        if (pos < end) {
+            RouteNode child = node.child(path.charAt(pos));
+            if (child != null && pos + child.m_label.length() <= end && path.startsWith(child.m_label, pos)) {
+                RouteNode found = match(child, path, pos + child.m_label.length(), end, bounds, depth);
+                if (found != null)
+                    return found;
+            }
+            if (node.m_parameter != null) {
+                int segmentEnd = pos;
+                while (segmentEnd < end && path.charAt(segmentEnd) != '/')
+                    segmentEnd++;
+                if (segmentEnd > pos) {
+                    bounds[depth * 2] = pos;
+                    bounds[depth * 2 + 1] = segmentEnd;
+                    RouteNode found = match(node.m_parameter, path, segmentEnd, end, bounds, depth + 1);
+                    if (found != null)
+                        return found;
+                }
+            }
+        }
+        // a route matches the path itself or any path below it
+        if (node.m_route != null && (pos == end || path.charAt(pos) == '/' || (pos > 0 && path.charAt(pos - 1) == '/')))
+            return node;
+        return null;
+    }
+
+    /**
+     * this method compiles the routes of an HTTP command into a new radix tree.
+     * @param routes the routes by URI pattern.
+     * @return the compiled tree.
+     */
+    private static RouteTree compile(Map<String, Route> routes) {
+        RouteTree tree = new RouteTree();
+        for (Map.Entry<String, Route> route : routes.entrySet()) {
+            List<String> parameterNames = new ArrayList<>();
+            RouteNode node = tree.m_root;
+            String pattern = route.getKey();
+            int i = 0;
+            while (i < pattern.length()) {
+                int open = pattern.indexOf('{', i);
+                int close = open == -1 ? -1 : pattern.indexOf('}', open);
+                if (close == -1) {
+                    node = insert(node, pattern.substring(i));
+                    break;
+                }
+                if (open > i)
+                    node = insert(node, pattern.substring(i, open));
+                if (node.m_parameter == null)
+                    node.m_parameter = new RouteNode("");
+                node = node.m_parameter;
+                parameterNames.add(pattern.substring(open + 1, close));
+                i = close + 1;
+            }
+            node.m_route = route.getValue();
+            node.m_parameterNames = parameterNames.toArray(new String[0]);
+            tree.m_maxParameters = Math.max(tree.m_maxParameters, parameterNames.size());
+        }
+        return tree;
+    }
+
+    /**
+     * this method adds a static label below a node, splitting the labels that share a prefix with it.
+     * @param node the node to insert below.
+     * @param text the label to insert.
+     * @return the node the label ends at.
+     */
+    private static RouteNode insert(RouteNode node, String text) {
+        int i = 0;
+        while (i < text.length()) {
+            RouteNode child = node.child(text.charAt(i));
+            if (child == null) {
+                child = new RouteNode(text.substring(i));
+                node.putChild(child);
+                return child;
+            }
+            String label = child.m_label;
+            int common = 0;
+            while (common < label.length() && i + common < text.length() && label.charAt(common) == text.charAt(i + common))
+                common++;
+            if (common < label.length()) {
+                // split the child at the end of the shared prefix
+                RouteNode split = new RouteNode(label.substring(0, common));
+                child.m_label = label.substring(common);
+                split.putChild(child);
+                node.putChild(split);
+                child = split;
+            }
+            i += common;
+            node = child;
+        }
+        return node;
+    }
+}
@@ -0,0 +1,29 @@
+package server;
+
+import java.io.IOException;
+
+/**
+ * The error of a read or a write that missed a deadline or a minimum rate of the server settings. The server
+ * counted the client and closes its connection.
+ */
+final class SlowClientException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final SlowClientReason m_reason;
+
+    /**
+     * Constructor for SlowClientException.
+     * @param reason why the client is too slow.
+     */
+    SlowClientException(SlowClientReason reason) {
+        super("Client too slow: " + reason.getLabel());
+        this.m_reason = reason;
+    }
+
+    /**
+     * @return why the client is too slow.
+     */
+    SlowClientReason getReason() {
+        return m_reason;
+    }
+}
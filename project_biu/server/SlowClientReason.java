@@ -0,0 +1,40 @@
+package server;
+
+/**
+ * Why a server closed the connection of a client that was too slow.
+ */
+public enum SlowClientReason {
+    /**
+     * the head of a request did not arrive within the header timeout.
+     */
+    HEADER_TIMEOUT("header_timeout"),
+    /**
+     * the client sent nothing of the body of a request for the body timeout.
+     */
+    BODY_TIMEOUT("body_timeout"),
+    /**
+     * the client sent the body of a request slower than the minimum body rate.
+     */
+    BODY_RATE("body_rate"),
+    /**
+     * the client read nothing of a response for the write timeout.
+     */
+    WRITE_TIMEOUT("write_timeout"),
+    /**
+     * the client read a response slower than the minimum write rate.
+     */
+    WRITE_RATE("write_rate");
+
+    private final String m_label;
+
+    SlowClientReason(String label) {
+        this.m_label = label;
+    }
+
+    /**
+     * @return the name of the reason in the exported metrics.
+     */
+    public String getLabel() {
+        return m_label;
+    }
+}
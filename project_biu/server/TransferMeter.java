@@ -0,0 +1,94 @@
+package server;
+
+/**
+ * This class measures how fast a client sends a body or reads a response. Only the time the server spends
+ * waiting for the client counts: a servlet that reads or writes slowly by itself does not make the client slow.
+ * <p>
+ * The meter is updated by the thread doing the transfer, and may be checked by another thread watching
+ * the deadlines of the connections.
+ */
+final class TransferMeter {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+
+    // the waiting time before the rate is enforced, so a slow start or a single late packet is forgiven
+    private static final long RATE_GRACE_NANOS = 2_000_000_000L;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final long m_minRate;
+    private volatile long m_bytes;
+    private volatile long m_waitedNanos;
+    private volatile boolean m_waiting;
+    private volatile long m_waitStart;
+    private volatile long m_lastProgress;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for TransferMeter.
+     * @param minRate the slowest accepted rate in bytes per second, 0 to accept any rate.
+     */
+    TransferMeter(long minRate) {
+        this.m_minRate = minRate;
+    }
+
+    /**
+     * this method marks that the server starts waiting for the client.
+     * @param now the current time from {@link System#nanoTime()}.
+     */
+    void resume(long now) {
+        if (m_waiting)
+            return;
+        m_waitStart = now;
+        m_lastProgress = now;
+        m_waiting = true;
+    }
+
+    /**
+     * this method marks that the server stops waiting for the client.
+     * @param now the current time from {@link System#nanoTime()}.
+     */
+    void pause(long now) {
+        if (!m_waiting)
+            return;
+        m_waitedNanos += now - m_waitStart;
+        m_waiting = false;
+    }
+
+    /**
+     * this method counts bytes transferred.
+     * @param now   the current time from {@link System#nanoTime()}.
+     * @param bytes the number of bytes.
+     */
+    void add(long now, long bytes) {
+        if (bytes <= 0)
+            return;
+        m_bytes += bytes;
+        m_lastProgress = now;
+    }
+
+    /**
+     * @param now the current time from {@link System#nanoTime()}.
+     * @return the time the server has been waiting for the client without any byte transferred, in nanoseconds.
+     */
+    long stalledNanos(long now) {
+        return m_waiting ? now - m_lastProgress : 0;
+    }
+
+    /**
+     * @param now the current time from {@link System#nanoTime()}.
+     * @return true if the client transferred fewer bytes than the minimum rate allows for the time waited.
+     */
+    boolean isTooSlow(long now) {
+        if (m_minRate == 0)
+            return false;
+        long waited = m_waitedNanos + (m_waiting ? now - m_waitStart : 0);
+        return waited > RATE_GRACE_NANOS && m_bytes * 1_000_000_000.0 < m_minRate * (double) waited;
+    }
+}
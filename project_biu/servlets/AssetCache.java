@@ -0,0 +1,236 @@
+package servlets;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * This class keeps the content of static files in memory, so a file is read from disk only when it changes.
+ * The cache is bounded by the total size of the files it holds and evicts the least recently used ones.
+ * Files above a threshold are memory-mapped instead of copied to the heap. Text files are also kept
+ * compressed with gzip and deflate, so the compressed variants are produced once per version of a file.
+ */
+class AssetCache {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner classes:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A file loaded by the cache, with the values it was validated against.
+     */
+    static final class Asset {
+        private final long m_lastModified;
+        private final long m_size;
+        private final String m_etag;
+        private final ByteBuffer m_content;
+        private Asset m_gzip;
+        private Asset m_deflate;
+
+        Asset(long lastModified, long size, String etag, ByteBuffer content) {
+            this.m_lastModified = lastModified;
+            this.m_size = size;
+            this.m_etag = etag;
+            this.m_content = content;
+        }
+
+        /**
+         * this method returns the variant of the file in a content coding.
+         * @param coding {@link ContentEncoding#GZIP}, {@link ContentEncoding#DEFLATE}, or null.
+         * @return the compressed variant, or null if the file is not kept in this coding.
+         */
+        Asset encoded(String coding) {
+            if (ContentEncoding.GZIP.equals(coding))
+                return m_gzip;
+            if (ContentEncoding.DEFLATE.equals(coding))
+                return m_deflate;
+            return null;
+        }
+
+        /**
+         * @return the bytes the file and its variants take in the cache.
+         */
+        long footprint() {
+            long footprint = m_content.capacity();
+            if (m_gzip != null)
+                footprint += m_gzip.m_size;
+            if (m_deflate != null)
+                footprint += m_deflate.m_size;
+            return footprint;
+        }
+
+        /**
+         * @return the strong entity tag of the content, including its quotes.
+         */
+        String getEtag() {
+            return m_etag;
+        }
+
+        /**
+         * @return the size of the content in bytes.
+         */
+        long getSize() {
+            return m_size;
+        }
+
+        /**
+         * @return a read-only view of the content, positioned at its start.
+         */
+        ByteBuffer getContent() {
+            return m_content.duplicate();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final long m_maxBytes;
+    private final long m_mapThreshold;
+    // in access order, the eldest entry is the least recently used
+    private final LinkedHashMap<Path, Asset> m_assets;
+    private long m_bytes;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for AssetCache.
+     *
+     * @param maxBytes     the largest total size of the cached files.
+     * @param mapThreshold the size from which a file is memory-mapped instead of read.
+     */
+    AssetCache(long maxBytes, long mapThreshold) {
+        this.m_maxBytes = maxBytes;
+        this.m_mapThreshold = mapThreshold;
+        this.m_assets = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * this method returns the content of a file, loading it again if the file was modified since it was cached.
+     *
+     * @param path the path of the file.
+     * @return the file, or null if the path does not name a regular file.
+     * @throws IOException if the file cannot be read.
+     */
+    Asset get(Path path) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            remove(path);
+            return null;
+        }
+        if (!attributes.isRegularFile())
+            return null;
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+
+        synchronized (this) {
+            Asset asset = m_assets.get(path);
+            if (asset != null && asset.m_lastModified == lastModified && asset.m_size == size)
+                return asset;
+        }
+
+        // load outside the lock, a file read twice by concurrent requests is harmless
+        Asset asset = load(path, lastModified, size);
+        if (asset.footprint() <= m_maxBytes)
+            put(path, asset);
+        return asset;
+    }
+
+    /**
+     * this method reads a file, or maps it if it is large.
+     *
+     * @param path         the path of the file.
+     * @param lastModified the modification time the file is loaded at.
+     * @param size         the size of the file.
+     * @return the loaded file.
+     * @throws IOException if the file cannot be read.
+     */
+    private Asset load(Path path, long lastModified, long size) throws IOException {
+        ByteBuffer content;
+        if (size >= m_mapThreshold) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        } else {
+            content = ByteBuffer.wrap(Files.readAllBytes(path)).asReadOnlyBuffer();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content.duplicate());
+        String tag = Long.toHexString(content.remaining()) + "-" + Long.toHexString(crc.getValue());
+        Asset asset = new Asset(lastModified, content.remaining(), "\"" + tag + "\"", content);
+
+        if (ContentEncoding.isCompressible(extension(path))) {
+            byte[] bytes = new byte[content.remaining()];
+            content.duplicate().get(bytes);
+            asset.m_gzip = variant(asset, tag, bytes, ContentEncoding.GZIP);
+            asset.m_deflate = variant(asset, tag, bytes, ContentEncoding.DEFLATE);
+        }
+        return asset;
+    }
+
+    /**
+     * this method compresses a file, each variant has its own entity tag.
+     *
+     * @param asset   the uncompressed file.
+     * @param tag     the entity tag of the uncompressed file, without quotes.
+     * @param content the content of the file.
+     * @param coding  the content coding.
+     * @return the compressed variant, or null if compression does not make the file smaller.
+     */
+    private static Asset variant(Asset asset, String tag, byte[] content, String coding) {
+        byte[] compressed = ContentEncoding.compress(content, coding);
+        if (compressed.length >= content.length)
+            return null;
+        ByteBuffer buffer = ByteBuffer.wrap(compressed).asReadOnlyBuffer();
+        return new Asset(asset.m_lastModified, compressed.length, "\"" + tag + "-" + coding + "\"", buffer);
+    }
+
+    /**
+     * @param path the path of a file.
+     * @return the lower case extension of the file name, empty if it has none.
+     */
+    static String extension(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot == -1 ? "" : name.substring(dot + 1).toLowerCase();
+    }
+
+    /**
+     * this method adds a file to the cache and evicts the least recently used files until the cache fits its bound.
+     * @param path  the path of the file.
+     * @param asset the loaded file.
+     */
+    private synchronized void put(Path path, Asset asset) {
+        Asset previous = m_assets.put(path, asset);
+        if (previous != null)
+            m_bytes -= previous.footprint();
+        m_bytes += asset.footprint();
+        Iterator<Map.Entry<Path, Asset>> eldest = m_assets.entrySet().iterator();
+        while (m_bytes > m_maxBytes && eldest.hasNext()) {
+            m_bytes -= eldest.next().getValue().footprint();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * this method drops a file that no longer exists.
+     * @param path the path of the file.
+     */
+    private synchronized void remove(Path path) {
+        Asset previous = m_assets.remove(path);
+        if (previous != null)
+            m_bytes -= previous.footprint();
+    }
+}
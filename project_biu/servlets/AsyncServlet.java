@@ -0,0 +1,44 @@
+package servlets;
+
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A servlet whose response is completed later, e.g. once the graph produced a value. The servlet returns
+ * at once and no server thread waits for the response: the server writes it when the future completes.
+ * <p>
+ * The server completes the future exceptionally when it waits longer than its async timeout, and cancels
+ * it when the client disconnects, a servlet can listen to the future to release what it holds.
+ */
+public interface AsyncServlet extends Servlet {
+
+    /**
+     * this method starts handling a request.
+     * @param ri the request.
+     * @return the future of the response.
+     */
+    CompletableFuture<Response> handleAsync(RequestInfo ri);
+
+    /**
+     * this method handles a request synchronously, for the callers that do not dispatch asynchronous servlets:
+     * it waits for the response and writes it.
+     * @param ri the request.
+     * @param toClient the OutputStream to which the response will be written.
+     * @throws IOException if the response failed or cannot be written.
+     */
+    @Override
+    default void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+        Response response;
+        try {
+            response = handleAsync(ri).join();
+        } catch (CompletionException e) {
+            throw new IOException("Asynchronous servlet failed", e.getCause());
+        }
+        if (response != null)
+            response.writeTo(toClient);
+    }
+}
@@ -0,0 +1,227 @@
+package servlets;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import server.RequestParser.RequestInfo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class publishes many values to topics in a single request. The body is either text holding one
+ * "topic=value" line per value, or a JSON array of [topic, value] pairs or {"topic": ..., "value": ...} objects:
+ * <pre>
+ * A=1
+ * B=hello
+ *
+ * [["A", 1], {"topic": "B", "value": "hello"}]
+ * </pre>
+ * The values are published in order as the body is read. With the parameter atomic=true the whole body is read
+ * first and published as one batch, where each topic gets only its last value.
+ * Values sent to topics that do not exist are skipped. The response counts what was done:
+ * {"published": n, "unknown": n, "malformed": n}.
+ */
+public class BatchPublisher implements Servlet {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner classes:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * The topics resolved and the values counted while one request is read.
+     */
+    private static final class Batch {
+        private final TopicManagerSingleton.TopicManager m_topicManager;
+        private final Map<String, Topic> m_resolved;
+        private final Map<Topic, Message> m_atomic;
+        private int m_published;
+        private int m_unknown;
+        private int m_malformed;
+
+        /**
+         * Constructor for Batch.
+         * @param atomic true to keep the values until {@link #finish()}, false to publish each value at once.
+         */
+        Batch(boolean atomic) {
+            this.m_topicManager = TopicManagerSingleton.get();
+            this.m_resolved = new HashMap<>();
+            this.m_atomic = atomic ? new LinkedHashMap<>() : null;
+        }
+
+        /**
+         * this method publishes a value, or keeps it for an atomic batch.
+         * @param topicName the name of the topic, looked up once per request.
+         * @param value the value.
+         */
+        void add(String topicName, String value) {
+            Topic topic = m_resolved.computeIfAbsent(topicName, m_topicManager::findTopic);
+            if (topic == null) {
+                m_unknown++;
+                return;
+            }
+            Message msg = new Message(value);
+            if (m_atomic == null) {
+                topic.publish(msg);
+                m_published++;
+            } else {
+                m_atomic.put(topic, msg);
+            }
+        }
+
+        /**
+         * this method publishes the values kept for an atomic batch.
+         */
+        void finish() {
+            if (m_atomic == null)
+                return;
+            m_topicManager.publishBatch(m_atomic);
+            m_published += m_atomic.size();
+            m_atomic.clear();
+        }
+
+        /**
+         * this method drops the values kept for an atomic batch, none of them are published.
+         */
+        void discard() {
+            if (m_atomic != null)
+                m_atomic.clear();
+        }
+
+        /**
+         * @return the counts of the request as a JSON object.
+         */
+        String toJson() {
+            return "{\"published\":" + m_published + ",\"unknown\":" + m_unknown + ",\"malformed\":" + m_malformed + "}";
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * this method reads the values of the request body and publishes them.
+     * A JSON body that is not valid is answered with 400. The values before the error are still published,
+     * unless the batch is atomic.
+     *
+     * @param requestInfo the RequestInfo object containing information about the incoming request.
+     * @param toClient the OutputStream to which the response will be written.
+     * @throws IOException if an I/O error occurs while reading the body or writing to the OutputStream.
+     */
+    @Override
+    public void handle(RequestInfo requestInfo, OutputStream toClient) throws IOException {
+        Batch batch = new Batch("true".equalsIgnoreCase(requestInfo.getParameters().get("atomic")));
+        BufferedReader body = new BufferedReader(
+                new InputStreamReader(requestInfo.getBodyStream(), StandardCharsets.UTF_8));
+        String contentType = requestInfo.getHeader("content-type");
+
+        String status = "200 OK";
+        String error = null;
+        try {
+            if ((contentType != null && contentType.contains("json")) || startsWithArray(body))
+                readJson(body, batch);
+            else
+                readLines(body, batch);
+        } catch (Json.SyntaxException e) {
+            status = "400 Bad Request";
+            error = e.getMessage();
+            batch.discard();
+        }
+        batch.finish();
+
+        StringBuilder json = new StringBuilder(batch.toJson());
+        if (error != null) {
+            json.setLength(json.length() - 1);
+            Json.appendString(json.append(",\"error\":"), error).append('}');
+        }
+        byte[] content = json.toString().getBytes(StandardCharsets.UTF_8);
+        toClient.write(("HTTP/1.1 " + status + "\r\n").getBytes());
+        toClient.write(("Content-Type: application/json\r\n").getBytes());
+        toClient.write(("Content-Length: " + content.length + "\r\n").getBytes());
+        toClient.write(("\r\n").getBytes());
+        toClient.write(content);
+    }
+
+    /**
+     * this method checks whether the body starts with a JSON array, without consuming it.
+     * @param body the body of the request.
+     * @return true if the first character that is not white space is '['.
+     * @throws IOException if the body cannot be read.
+     */
+    private static boolean startsWithArray(BufferedReader body) throws IOException {
+        while (true) {
+            body.mark(1);
+            int c = body.read();
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                body.reset();
+                return c == '[';
+            }
+        }
+    }
+
+    /**
+     * this method reads "topic=value" lines. Empty lines are skipped, and lines without '=' or without a
+     * topic name are counted as malformed.
+     * @param body the body of the request.
+     * @param batch the batch the values are added to.
+     * @throws IOException if the body cannot be read.
+     */
+    private static void readLines(BufferedReader body, Batch batch) throws IOException {
+        String line;
+        while ((line = body.readLine()) != null) {
+            if (line.isBlank())
+                continue;
+            int equals = line.indexOf('=');
+            String topicName = equals == -1 ? "" : line.substring(0, equals).trim();
+            if (topicName.isEmpty()) {
+                batch.m_malformed++;
+                continue;
+            }
+            batch.add(topicName, line.substring(equals + 1).trim());
+        }
+    }
+
+    /**
+     * this method reads a JSON array an element at a time. Elements that are not a pair or an object with a
+     * string topic and a value are counted as malformed.
+     * @param body the body of the request.
+     * @param batch the batch the values are added to.
+     * @throws IOException if the body cannot be read or is not a valid JSON array.
+     */
+    private static void readJson(BufferedReader body, Batch batch) throws IOException {
+        Json.Parser parser = new Json.Parser(body);
+        if (parser.open('[', ']')) {
+            do {
+                Object element = parser.readValue();
+                Object topicName = null;
+                Object value = null;
+                if (element instanceof List && ((List<?>) element).size() == 2) {
+                    topicName = ((List<?>) element).get(0);
+                    value = ((List<?>) element).get(1);
+                } else if (element instanceof Map) {
+                    topicName = ((Map<?, ?>) element).get("topic");
+                    value = ((Map<?, ?>) element).get("value");
+                }
+                if (topicName instanceof String && value != null && !(value instanceof List || value instanceof Map))
+                    batch.add((String) topicName, value.toString());
+                else
+                    batch.m_malformed++;
+            } while (parser.next(']'));
+        }
+        if (parser.peek() != -1)
+            throw new Json.SyntaxException("Unexpected content after the array");
+    }
+
+    @Override
+    public void close() throws IOException {
+        // do nothing
+    }
+}
@@ -3,10 +3,14 @@ package servlets;
 import configs.GenericConfig;
 import graph.Graph;
 import graph.TopicManagerSingleton;
+import server.MultipartParser;
 import server.RequestParser.RequestInfo;
 import views.HtmlGraphWriter;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 
 /**
@@ -14,25 +18,36 @@ import java.io.*;
  */
 public class ConfLoader implements Servlet {
 
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final long DEFAULT_MAX_UPLOAD_SIZE = 64L * 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 16 * 1024;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final long m_maxUploadSize;
+
     //------------------------------------------------------------------------------------------------------------------
     // Class methods:
     //------------------------------------------------------------------------------------------------------------------
 
     /**
-     * this method sends the content to the client using the provided OutputStream.
-     * 
-     * @param content the array of strings representing the content to be sent to the client.
-     * @param toClient the OutputStream to which the content will be written.
-     * @throws IOException if an I/O error occurs while writing to the OutputStream.
+     * Constructor for ConfLoader with the default upload limit of 64 MB.
      */
-    private void sendContent(String[] content, OutputStream toClient) throws IOException {
-        toClient.write(("HTTP/1.1 200 OK\r\n").getBytes());
-        toClient.write(("Content-Type: text/html\r\n").getBytes());
-        toClient.write(("\r\n").getBytes());
-        for (String line : content)
-            toClient.write(line.getBytes());
+    public ConfLoader() {
+        this(DEFAULT_MAX_UPLOAD_SIZE);
     }
 
+    /**
+     * Constructor for ConfLoader.
+     *
+     * @param maxUploadSize the largest request body accepted, in bytes.
+     */
+    public ConfLoader(long maxUploadSize) {
+        this.m_maxUploadSize = maxUploadSize;
+    }
 
     /** 
      * this method handles the incoming request related to configuration loading.
@@ -43,19 +58,15 @@ public class ConfLoader implements Servlet {
      */
     @Override
     public void handle(RequestInfo requestInfo, OutputStream toClient) throws IOException {
-        // Check if the request contains a filename parameter
-        if (!requestInfo.getParameters().containsKey("filename"))
-            return;
-        String filename = requestInfo.getParameters().get("filename");
-
-        // Write the request content to the specified configuration file
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("config_files/" + filename))) {
-            writer.write(new String(requestInfo.getContent(), 0));
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (requestInfo.getContentLength() > m_maxUploadSize) {
+            toClient.write("HTTP/1.1 413 Payload Too Large\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes());
             return;
         }
 
+        // Stream the uploaded file part to the configuration file
+        String filename = receiveFile(requestInfo);
+        if (filename == null)
+            return;
         // Get the topic manager and clear it
         TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get();
         topicManager.clear();
@@ -69,9 +80,41 @@ public class ConfLoader implements Servlet {
         Graph topicsGraph = new Graph();
         topicsGraph.createFromTopics();
 
-        // Generate HTML content for the graph and send
-        String[] content = HtmlGraphWriter.getGraphHTML(topicsGraph, "html_files/graph.html");
-        sendContent(content, toClient);
+        // Generate HTML content for the graph and send it while it is rendered
+        try (OutputStream out = ContentEncoding.beginResponse(requestInfo, toClient, "text/html", -1)) {
+            HtmlGraphWriter.writeGraphHTML(topicsGraph, "html_files/graph.html", out);
+        }
+    }
+
+    /**
+     * this method copies the uploaded file of a multipart request to the configuration folder.
+     * The body is read from the connection through a fixed-size buffer, so the size of the file does not matter.
+     *
+     * @param requestInfo the RequestInfo object of the upload request.
+     * @return the name of the stored file, or null if the request holds no file.
+     */
+    private String receiveFile(RequestInfo requestInfo) {
+        String boundary = MultipartParser.boundaryOf(requestInfo.getHeader("content-type"));
+        if (boundary == null)
+            return null;
+        try {
+            MultipartParser parser = new MultipartParser(requestInfo.getBodyStream(), boundary, COPY_BUFFER_SIZE);
+            while (parser.nextPart()) {
+                if (parser.getFilename() == null || parser.getFilename().isEmpty())
+                    continue;
+                // keep only the last name element, the client must not choose the folder
+                Path name = Paths.get(parser.getFilename()).getFileName();
+                if (name == null)
+                    continue;
+                try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(Paths.get("config_files").resolve(name)), COPY_BUFFER_SIZE)) {
+                    parser.copyPart(file);
+                }
+                return name.toString();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
     }
 
     @Override
@@ -0,0 +1,188 @@
+package servlets;
+
+import server.RequestParser.RequestInfo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class chooses the content coding of a response from the Accept-Encoding header of the request,
+ * and compresses response bodies with gzip or deflate.
+ */
+final class ContentEncoding {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    // smaller bodies gain too little to pay for the compression
+    static final int MIN_COMPRESSED_SIZE = 1024;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner classes:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A stream over the response that only flushes it when it is closed, the connection belongs to the server.
+     */
+    private static final class BodyStream extends FilterOutputStream {
+        BodyStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * this method chooses the coding of a response, preferring gzip over deflate.
+     * @param acceptEncoding the Accept-Encoding header of the request, or null.
+     * @return {@link #GZIP}, {@link #DEFLATE}, or null if the response is sent as it is.
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return null;
+        boolean deflate = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase();
+            if (isRefused(parts))
+                continue;
+            if (name.equals(GZIP) || name.equals("x-gzip") || name.equals("*"))
+                return GZIP;
+            if (name.equals(DEFLATE))
+                deflate = true;
+        }
+        return deflate ? DEFLATE : null;
+    }
+
+    /**
+     * @param parts a coding of the Accept-Encoding header split on ';'.
+     * @return true if the coding has a quality of zero.
+     */
+    private static boolean isRefused(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) <= 0;
+                } catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param extension the lower case extension of a file name.
+     * @return true if files of this kind are text that compresses well.
+     */
+    static boolean isCompressible(String extension) {
+        switch (extension) {
+            case "html":
+            case "htm":
+            case "css":
+            case "js":
+            case "json":
+            case "svg":
+            case "txt":
+            case "xml":
+            case "conf":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * this method compresses a whole body.
+     * @param content the body.
+     * @param coding {@link #GZIP} or {@link #DEFLATE}.
+     * @return the compressed body.
+     */
+    static byte[] compress(byte[] content, String coding) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 3 + 64);
+        try (OutputStream out = encode(compressed, coding)) {
+            out.write(content);
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * this method writes the head of a 200 response and returns the stream its body is written to.
+     * The body is compressed while it is written when the client accepts it, and is larger than a kilobyte
+     * or of unknown length. A compressed body is sent without Content-Length, the server frames it.
+     * The returned stream must be closed to complete the body.
+     *
+     * @param requestInfo the request being answered.
+     * @param toClient the OutputStream of the response.
+     * @param contentType the Content-Type of the body.
+     * @param contentLength the length of the body, or -1 if it is not known in advance.
+     * @return the stream the body is written to.
+     * @throws IOException if an I/O error occurs while writing to the OutputStream.
+     */
+    static OutputStream beginResponse(RequestInfo requestInfo, OutputStream toClient, String contentType,
+                                      long contentLength) throws IOException {
+        String coding = negotiate(requestInfo.getHeader("accept-encoding"));
+        if (contentLength >= 0 && contentLength < MIN_COMPRESSED_SIZE)
+            coding = null;
+
+        StringBuilder head = new StringBuilder("HTTP/1.1 200 OK\r\n");
+        head.append("Content-Type: ").append(contentType).append("\r\n");
+        head.append("Vary: Accept-Encoding\r\n");
+        if (coding != null)
+            head.append("Content-Encoding: ").append(coding).append("\r\n");
+        else if (contentLength >= 0)
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+        head.append("\r\n");
+        toClient.write(head.toString().getBytes());
+
+        OutputStream body = new BodyStream(toClient);
+        return coding == null ? body : encode(body, coding);
+    }
+
+    /**
+     * @param out the stream the compressed bytes are written to.
+     * @param coding {@link #GZIP} or {@link #DEFLATE}.
+     * @return a stream compressing into the given stream, closing it finishes the compressed data.
+     * @throws IOException if the gzip header cannot be written.
+     */
+    private static OutputStream encode(OutputStream out, String coding) throws IOException {
+        if (coding.equals(GZIP))
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        return new DeflaterOutputStream(out, new Deflater(), BUFFER_SIZE, false) {
+            @Override
+            public void close() throws IOException {
+                // the deflater is not shared, release its native memory with the stream
+                super.close();
+                def.end();
+            }
+        };
+    }
+}
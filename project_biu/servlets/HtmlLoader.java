@@ -1,10 +1,11 @@
 package servlets;
 
+import server.ByteBufferOutput;
 import server.RequestParser.RequestInfo;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
@@ -14,11 +15,18 @@ import java.util.Arrays;
  */
 public class HtmlLoader implements Servlet {
 
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final long DEFAULT_CACHE_SIZE = 32L * 1024 * 1024;
+    private static final long DEFAULT_MAP_THRESHOLD = 64 * 1024;
+
     //------------------------------------------------------------------------------------------------------------------
     // Class variables:
     //------------------------------------------------------------------------------------------------------------------
 
     private final String m_htmlFolder;
+    private final AssetCache m_cache;
 
     //------------------------------------------------------------------------------------------------------------------
     // Class methods:
@@ -29,7 +37,18 @@ public class HtmlLoader implements Servlet {
      * @param htmlFolder the folder containing the HTML files.
      */
     public HtmlLoader(String htmlFolder) {
+        this(htmlFolder, DEFAULT_CACHE_SIZE, DEFAULT_MAP_THRESHOLD);
+    }
+
+    /**
+     * this constructor initializes the HtmlLoader object with the bounds of its file cache.
+     * @param htmlFolder the folder containing the HTML files.
+     * @param cacheSize the largest total size of the files kept in memory.
+     * @param mapThreshold the size from which a file is memory-mapped instead of read into the heap.
+     */
+    public HtmlLoader(String htmlFolder, long cacheSize, long mapThreshold) {
         this.m_htmlFolder = htmlFolder;
+        this.m_cache = new AssetCache(cacheSize, mapThreshold);
     }
 
     /**
@@ -48,33 +67,94 @@ public class HtmlLoader implements Servlet {
         }
 
         Path requestedPath = Paths.get(m_htmlFolder, uriSegments);
+        AssetCache.Asset asset = m_cache.get(requestedPath);
+        if (asset == null) {
+            sendNotFound(toClient);
+            return;
+        }
+
+        // send the compressed variant of the file if the client accepts it
+        String coding = ContentEncoding.negotiate(requestInfo.getHeader("accept-encoding"));
+        AssetCache.Asset encoded = asset.encoded(coding);
+        if (encoded == null)
+            coding = null;
+        else
+            asset = encoded;
 
-        if (Files.exists(requestedPath)) {
-            sendFile(requestedPath, toClient);
-        } else if (Files.isRegularFile(requestedPath)) {
-            sendFile(requestedPath, toClient);
+        if (isCached(requestInfo.getHeader("if-none-match"), asset.getEtag())) {
+            sendNotModified(asset, toClient);
         } else {
-            sendNotFound(toClient);
+            sendFile(requestedPath, asset, coding, toClient);
         }
     }
 
+    /**
+     * this method checks whether the client already holds the current version of a file.
+     * @param ifNoneMatch the If-None-Match header of the request, or null.
+     * @param etag the entity tag of the file.
+     * @return true if one of the tags sent by the client matches the file.
+     */
+    private static boolean isCached(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null)
+            return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (tag.equals(etag) || tag.equals("*"))
+                return true;
+        }
+        return false;
+    }
+
     /**
      * this method sends a file to the client using HTTP 200 OK response.
+     * The content is handed to the connection as a buffer when it supports it, so a mapped file is not copied.
      * @param filePath the path to the file to be sent.
+     * @param asset the cached content of the file.
+     * @param coding the content coding of the cached content, or null if it is not compressed.
      * @param toClient the OutputStream to which the response will be written.
-     * @throws IOException if an I/O error occurs while reading the file or writing to the OutputStream.
+     * @throws IOException if an I/O error occurs while writing to the OutputStream.
      */
-    private void sendFile(Path filePath, OutputStream toClient) throws IOException {
-        byte[] content = Files.readAllBytes(filePath);
+    private void sendFile(Path filePath, AssetCache.Asset asset, String coding, OutputStream toClient) throws IOException {
+        String extension = AssetCache.extension(filePath);
         toClient.write(("HTTP/1.1 200 OK\r\n").getBytes());
         toClient.write(("Content-Type: text/").getBytes());
-        toClient.write(filePath.getFileName().toString().split("\\.")[1].toLowerCase().getBytes()); // hml, css, ...
+        toClient.write(extension.getBytes()); // hml, css, ...
         toClient.write(("\r\n").getBytes());
-        toClient.write(("Content-Length: " + content.length + "\r\n").getBytes());
+        toClient.write(("Content-Length: " + asset.getSize() + "\r\n").getBytes());
+        if (coding != null)
+            toClient.write(("Content-Encoding: " + coding + "\r\n").getBytes());
+        if (ContentEncoding.isCompressible(extension))
+            toClient.write(("Vary: Accept-Encoding\r\n").getBytes());
+        toClient.write(("ETag: " + asset.getEtag() + "\r\n").getBytes());
+        // the client may keep the file but has to check it is still current
+        toClient.write(("Cache-Control: no-cache\r\n").getBytes());
         toClient.write(("\r\n").getBytes());
-        toClient.write(content);
+
+        ByteBuffer content = asset.getContent();
+        if (toClient instanceof ByteBufferOutput) {
+            ((ByteBufferOutput) toClient).write(content);
+            return;
+        }
+        byte[] chunk = new byte[Math.min(content.remaining(), 16 * 1024)];
+        while (content.hasRemaining()) {
+            int n = Math.min(chunk.length, content.remaining());
+            content.get(chunk, 0, n);
+            toClient.write(chunk, 0, n);
+        }
     }
 
+    /**
+     * this method tells the client that its copy of the file is still current.
+     * @param asset the cached file.
+     * @param toClient the OutputStream to which the response will be written.
+     * @throws IOException if an I/O error occurs while writing to the OutputStream.
+     */
+    private void sendNotModified(AssetCache.Asset asset, OutputStream toClient) throws IOException {
+        String response = "HTTP/1.1 304 Not Modified\r\nETag: " + asset.getEtag() + "\r\nCache-Control: no-cache\r\n\r\n";
+        toClient.write(response.getBytes());
+    }
 
     /**
      * this method sends a 404 Not Found HTTP response to the client.
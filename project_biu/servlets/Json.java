@@ -0,0 +1,304 @@
+package servlets;
+
+import graph.Message;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class writes the JSON values sent by the servlets, and reads the JSON documents they receive.
+ */
+final class Json {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner classes:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * An error in the syntax of a JSON document.
+     */
+    static final class SyntaxException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        SyntaxException(String reason) {
+            super(reason);
+        }
+    }
+
+    /**
+     * A reader of JSON values from a stream. A document can be read a value at a time, so the elements of a
+     * large array are handled without holding the whole array in memory.
+     * Objects are read as maps, arrays as lists, strings as strings, true and false as booleans, and null as null.
+     * Numbers are read as the string of their literal, so their text is kept exactly as it was sent.
+     */
+    static final class Parser {
+        // the arrays and objects a value may be nested in, a deeper document would exhaust the stack of the reader
+        static final int MAX_DEPTH = 64;
+
+        private final Reader m_in;
+        private int m_next;
+        private int m_depth;
+
+        /**
+         * Constructor for Parser.
+         * @param in the stream of the document, it should be buffered.
+         * @throws IOException if the stream cannot be read.
+         */
+        Parser(Reader in) throws IOException {
+            this.m_in = in;
+            this.m_next = in.read();
+        }
+
+        /**
+         * this method skips the white space before the next character of the document.
+         * @return the next character, or -1 at the end of the document.
+         * @throws IOException if the stream cannot be read.
+         */
+        int peek() throws IOException {
+            while (m_next == ' ' || m_next == '\t' || m_next == '\n' || m_next == '\r')
+                m_next = m_in.read();
+            return m_next;
+        }
+
+        /**
+         * this method reads the next character of the document, which must be the given one.
+         * @param expected the expected character.
+         * @throws IOException if the stream cannot be read or has another character.
+         */
+        void expect(char expected) throws IOException {
+            if (peek() != expected)
+                throw new SyntaxException("Expected '" + expected + "'" + found());
+            m_next = m_in.read();
+        }
+
+        /**
+         * this method reads the separator after an element of an array or a member of an object.
+         * @param close the character closing the array or the object.
+         * @return true if another element follows, false if the closing character was read.
+         * @throws IOException if the stream cannot be read or has another character.
+         */
+        boolean next(char close) throws IOException {
+            int c = peek();
+            if (c == ',' || c == close) {
+                m_next = m_in.read();
+                return c == ',';
+            }
+            throw new SyntaxException("Expected ',' or '" + close + "'" + found());
+        }
+
+        /**
+         * this method reads the opening of an array or an object.
+         * @param open the character opening the array or the object.
+         * @param close the character closing it.
+         * @return true if the array or object has elements, false if it is empty and was read whole.
+         * @throws IOException if the stream cannot be read or has another character.
+         */
+        boolean open(char open, char close) throws IOException {
+            expect(open);
+            if (peek() != close)
+                return true;
+            m_next = m_in.read();
+            return false;
+        }
+
+        /**
+         * this method reads a whole value.
+         * @return the value, see the class comment for the types used.
+         * @throws IOException if the stream cannot be read or the value is not valid JSON.
+         */
+        Object readValue() throws IOException {
+            int c = peek();
+            switch (c) {
+                case '{':
+                    Map<String, Object> object = new LinkedHashMap<>();
+                    if (open('{', '}')) {
+                        enter();
+                        do {
+                            if (peek() != '"')
+                                throw new SyntaxException("Expected a member name" + found());
+                            String name = readString();
+                            expect(':');
+                            object.put(name, readValue());
+                        } while (next('}'));
+                        m_depth--;
+                    }
+                    return object;
+                case '[':
+                    List<Object> array = new ArrayList<>();
+                    if (open('[', ']')) {
+                        enter();
+                        do {
+                            array.add(readValue());
+                        } while (next(']'));
+                        m_depth--;
+                    }
+                    return array;
+                case '"':
+                    return readString();
+                case 't':
+                    readWord("true");
+                    return Boolean.TRUE;
+                case 'f':
+                    readWord("false");
+                    return Boolean.FALSE;
+                case 'n':
+                    readWord("null");
+                    return null;
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9'))
+                        return readNumber();
+                    throw new SyntaxException("Unexpected value" + found());
+            }
+        }
+
+        /**
+         * this method counts an array or an object being read, the document is not read any further once it
+         * is nested too deep.
+         * @throws SyntaxException if the values are nested deeper than {@value #MAX_DEPTH} levels.
+         */
+        private void enter() throws SyntaxException {
+            if (++m_depth > MAX_DEPTH)
+                throw new SyntaxException("Values nested deeper than " + MAX_DEPTH + " levels");
+        }
+
+        /**
+         * @return a string value, without its quotes and with its escapes decoded.
+         * @throws IOException if the stream cannot be read or the string is not terminated.
+         */
+        private String readString() throws IOException {
+            StringBuilder value = new StringBuilder();
+            int c = m_in.read(); // m_next is the opening quote
+            while (c != '"') {
+                if (c == -1 || c < 0x20)
+                    throw new SyntaxException("Unterminated string");
+                if (c == '\\') {
+                    c = m_in.read();
+                    switch (c) {
+                        case 'b': c = '\b'; break;
+                        case 'f': c = '\f'; break;
+                        case 'n': c = '\n'; break;
+                        case 'r': c = '\r'; break;
+                        case 't': c = '\t'; break;
+                        case 'u':
+                            char[] hex = new char[4];
+                            for (int i = 0; i < 4; i++)
+                                hex[i] = (char) m_in.read();
+                            try {
+                                c = Integer.parseInt(new String(hex), 16);
+                            } catch (NumberFormatException e) {
+                                throw new SyntaxException("Invalid escape \\u" + new String(hex));
+                            }
+                            break;
+                        case '"':
+                        case '\\':
+                        case '/':
+                            break;
+                        default:
+                            throw new SyntaxException("Invalid escape in a string");
+                    }
+                }
+                value.append((char) c);
+                c = m_in.read();
+            }
+            m_next = m_in.read();
+            return value.toString();
+        }
+
+        /**
+         * @return the literal of a number value.
+         * @throws IOException if the stream cannot be read.
+         */
+        private String readNumber() throws IOException {
+            StringBuilder literal = new StringBuilder();
+            while ((m_next >= '0' && m_next <= '9') || m_next == '-' || m_next == '+' || m_next == '.'
+                    || m_next == 'e' || m_next == 'E') {
+                literal.append((char) m_next);
+                m_next = m_in.read();
+            }
+            return literal.toString();
+        }
+
+        /**
+         * this method reads one of the words true, false and null.
+         * @param word the expected word.
+         * @throws IOException if the stream cannot be read or has another word.
+         */
+        private void readWord(String word) throws IOException {
+            for (int i = 0; i < word.length(); i++) {
+                if (m_next != word.charAt(i))
+                    throw new SyntaxException("Expected " + word + found());
+                m_next = m_in.read();
+            }
+        }
+
+        /**
+         * @return the end of an error message naming the character found.
+         */
+        private String found() {
+            return m_next == -1 ? " at the end of the document" : " but found '" + (char) m_next + "'";
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    private Json() {
+    }
+
+    /**
+     * this method appends the value of a message: a number when the message is numeric, a string otherwise.
+     * @param json the JSON being built.
+     * @param msg the message, or null for the JSON null.
+     * @return the JSON being built.
+     */
+    static StringBuilder appendValue(StringBuilder json, Message msg) {
+        if (msg == null)
+            return json.append("null");
+        if (Double.isNaN(msg.asDouble) || Double.isInfinite(msg.asDouble))
+            return appendString(json, msg.getText());
+        return json.append(msg.asDouble);
+    }
+
+    /**
+     * this method appends a string as a quoted JSON string.
+     * @param json the JSON being built.
+     * @param value the string, or null for the JSON null.
+     * @return the JSON being built.
+     */
+    static StringBuilder appendString(StringBuilder json, String value) {
+        if (value == null)
+            return json.append("null");
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        json.append(String.format("\\u%04x", (int) c));
+                    else
+                        json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+}
@@ -0,0 +1,76 @@
+package servlets;
+
+import ingest.IngestStats;
+import server.RequestParser.RequestInfo;
+import server.ServerStats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class exports the metrics of a server in the Prometheus text format, to be scraped by a Prometheus
+ * server or read with curl.
+ */
+public class MetricsExporter implements Servlet {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final ServerStats m_stats;
+    private final Map<String, IngestStats> m_ingestStats;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for MetricsExporter.
+     *
+     * @param stats the metrics of the server, from {@link server.HTTPServer#getStats()}.
+     */
+    public MetricsExporter(ServerStats stats) {
+        this(stats, Collections.emptyMap());
+    }
+
+    /**
+     * Constructor for MetricsExporter that also exports the counters of ingestion listeners.
+     *
+     * @param stats       the metrics of the server, from {@link server.HTTPServer#getStats()}.
+     * @param ingestStats the counters of each ingestion listener, by the value of its listener label.
+     */
+    public MetricsExporter(ServerStats stats, Map<String, IngestStats> ingestStats) {
+        this.m_stats = stats;
+        this.m_ingestStats = new LinkedHashMap<>(ingestStats);
+    }
+
+    /**
+     * this method writes the current metrics of the server.
+     * @param requestInfo the RequestInfo object containing information about the incoming request.
+     * @param toClient the OutputStream to which the response will be written.
+     * @throws IOException if an I/O error occurs while writing to the OutputStream.
+     */
+    @Override
+    public void handle(RequestInfo requestInfo, OutputStream toClient) throws IOException {
+        StringBuilder metrics = new StringBuilder(8 * 1024);
+        m_stats.writePrometheus(metrics);
+        IngestStats.writePrometheus(metrics, m_ingestStats);
+        byte[] content = metrics.toString().getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = ContentEncoding.beginResponse(requestInfo, toClient, CONTENT_TYPE, content.length)) {
+            out.write(content);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // do nothing
+    }
+}
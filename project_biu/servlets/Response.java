@@ -0,0 +1,101 @@
+package servlets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * This class is a response produced by an {@link AsyncServlet}: a status, headers and a body.
+ * The body is given as a supplier, it is produced when the server writes the response, on a server thread.
+ * Every setter returns the response itself so that a response can be built in one expression.
+ */
+public class Response {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final int m_status;
+    private final String m_reason;
+    private final Map<String, String> m_headers;
+    private Supplier<byte[]> m_body;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for Response, without a body.
+     *
+     * @param status the status code.
+     * @param reason the reason phrase of the status line.
+     */
+    public Response(int status, String reason) {
+        this.m_status = status;
+        this.m_reason = reason;
+        this.m_headers = new LinkedHashMap<>();
+        this.m_body = null;
+    }
+
+    /**
+     * Constructor for Response with a text body.
+     *
+     * @param status      the status code.
+     * @param reason      the reason phrase of the status line.
+     * @param contentType the Content-Type of the body.
+     * @param body        the body, sent in UTF-8.
+     */
+    public Response(int status, String reason, String contentType, String body) {
+        this(status, reason);
+        setHeader("Content-Type", contentType);
+        setBody(() -> body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * this method sets a header, replacing the header of the same name. Content-Length is set by the response.
+     * @param name  the name of the header.
+     * @param value the value of the header.
+     * @return this response.
+     */
+    public Response setHeader(String name, String value) {
+        m_headers.put(name, value);
+        return this;
+    }
+
+    /**
+     * this method sets the body of the response.
+     * @param body the supplier of the body bytes, called once when the response is written.
+     * @return this response.
+     */
+    public Response setBody(Supplier<byte[]> body) {
+        this.m_body = body;
+        return this;
+    }
+
+    /**
+     * @return the status code.
+     */
+    public int getStatus() {
+        return m_status;
+    }
+
+    /**
+     * this method writes the response with a Content-Length header.
+     * @param out the stream the response is written to.
+     * @throws IOException if an I/O error occurs while writing to the stream.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        byte[] body = m_body == null ? new byte[0] : m_body.get();
+        StringBuilder head = new StringBuilder("HTTP/1.1 ").append(m_status).append(' ').append(m_reason).append("\r\n");
+        for (Map.Entry<String, String> header : m_headers.entrySet()) {
+            if (!header.getKey().equalsIgnoreCase("Content-Length"))
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+}
@@ -0,0 +1,102 @@
+package servlets;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class serves the values of the topics as JSON, for dashboards that poll them:
+ * <pre>
+ * GET /api/topics             every topic
+ * GET /api/topics?since=42    only the topics whose value changed after version 42
+ * </pre>
+ * The answer is {"version": ..., "full": ..., "topics": [{"name": ..., "value": ..., "timestamp": ...}, ...]}.
+ * The version is the one to send as since in the next request. When full is true the list holds every topic
+ * and replaces what the client knew, e.g. after a new configuration was loaded; otherwise it holds only the
+ * changed topics. A topic without a value has a null value and timestamp.
+ */
+public class TopicApi implements Servlet {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * this method writes the topics asked for.
+     * @param requestInfo the RequestInfo object containing information about the incoming request.
+     * @param toClient the OutputStream to which the response will be written.
+     * @throws IOException if an I/O error occurs while writing to the OutputStream.
+     */
+    @Override
+    public void handle(RequestInfo requestInfo, OutputStream toClient) throws IOException {
+        String sinceParameter = requestInfo.getParameters().get("since");
+        long since = -1;
+        if (sinceParameter != null) {
+            try {
+                since = Long.parseLong(sinceParameter.trim());
+            } catch (NumberFormatException e) {
+                byte[] content = "The since parameter must be a version number\n".getBytes(StandardCharsets.UTF_8);
+                toClient.write(("HTTP/1.1 400 Bad Request\r\n").getBytes());
+                toClient.write(("Content-Type: text/plain\r\n").getBytes());
+                toClient.write(("Content-Length: " + content.length + "\r\n").getBytes());
+                toClient.write(("\r\n").getBytes());
+                toClient.write(content);
+                return;
+            }
+        }
+
+        TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get();
+        List<Topic> topics = new ArrayList<>();
+        long version;
+        // a version from before the last clear, or from another run of the server, cannot be continued
+        boolean full = since < topicManager.getClearVersion() || since > topicManager.getVersion();
+        if (full) {
+            version = topicManager.getVersion();
+            topics.addAll(topicManager.getTopics());
+        } else {
+            version = topicManager.collectChangesSince(since, topics);
+        }
+
+        StringBuilder json = new StringBuilder(64 + topics.size() * 48);
+        json.append("{\"version\":").append(version).append(",\"full\":").append(full).append(",\"topics\":[");
+        for (int i = 0; i < topics.size(); i++) {
+            if (i > 0)
+                json.append(',');
+            appendTopic(json, topics.get(i));
+        }
+        json.append("]}\n");
+
+        byte[] content = json.toString().getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = ContentEncoding.beginResponse(requestInfo, toClient, "application/json", content.length)) {
+            out.write(content);
+        }
+    }
+
+    /**
+     * this method appends a topic and its last value.
+     * @param json the JSON being built.
+     * @param topic the topic.
+     */
+    private static void appendTopic(StringBuilder json, Topic topic) {
+        Message msg = topic.getLastMsg();
+        Json.appendString(json.append("{\"name\":"), topic.getName()).append(",\"value\":");
+        Json.appendValue(json, msg).append(",\"timestamp\":");
+        if (msg == null)
+            json.append("null");
+        else
+            json.append(msg.getTimestamp());
+        json.append('}');
+    }
+
+    @Override
+    public void close() throws IOException {
+        // do nothing
+    }
+}
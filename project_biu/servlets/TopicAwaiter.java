@@ -0,0 +1,78 @@
+package servlets;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicListener;
+import graph.TopicManagerSingleton;
+import server.RequestParser.RequestInfo;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class publishes a value to a topic and answers with the next value of another topic, typically an output
+ * of the graph: GET /await?topic=A&message=5&output=C. The answer is the JSON object
+ * {"name": ..., "value": ..., "timestamp": ...} of the output topic.
+ * <p>
+ * No thread waits for the output: the response is completed by the thread that publishes it, so many clients
+ * can wait for slow graphs at once. The waiters are kept with their output topic, a publish to another topic
+ * does not call them. A request that waits longer than the async timeout of the server is
+ * answered with 503.
+ */
+public class TopicAwaiter implements AsyncServlet {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * this method publishes the message and returns the future of the next message of the output topic.
+     * @param requestInfo the RequestInfo object containing information about the incoming request.
+     * @return the future of the response, 400 or 404 at once if the parameters are missing or the topics unknown.
+     */
+    @Override
+    public CompletableFuture<Response> handleAsync(RequestInfo requestInfo) {
+        Map<String, String> parameters = requestInfo.getParameters();
+        String topicName = parameters.get("topic");
+        String message = parameters.get("message");
+        String outputName = parameters.get("output");
+        if (topicName == null || message == null || outputName == null)
+            return CompletableFuture.completedFuture(new Response(400, "Bad Request", "text/plain",
+                    "The topic, message and output parameters are required\n"));
+
+        TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get();
+        Topic topic = topicManager.findTopic(topicName);
+        Topic output = topicManager.findTopic(outputName);
+        if (topic == null || output == null)
+            return CompletableFuture.completedFuture(new Response(404, "Not Found", "text/plain",
+                    "Unknown topic " + (topic == null ? topicName : outputName) + "\n"));
+
+        CompletableFuture<Response> response = new CompletableFuture<>();
+        // only the waiters of the output are called, not those of every topic
+        TopicListener listener = (published, msg) ->
+                response.complete(new Response(200, "OK", "application/json", toJson(published, msg)));
+        // listen before publishing, the graph may publish the output before publish returns
+        topicManager.addListener(outputName, listener);
+        // stop listening once answered, timed out or cancelled
+        response.whenComplete((result, error) -> topicManager.removeListener(outputName, listener));
+        topic.publish(new Message(message));
+        return response;
+    }
+
+    /**
+     * @param topic the topic.
+     * @param msg a message of the topic.
+     * @return the message as a JSON object, the value is a number when the message is numeric.
+     */
+    private static String toJson(Topic topic, Message msg) {
+        StringBuilder json = new StringBuilder("{\"name\":");
+        Json.appendString(json, topic.getName()).append(",\"value\":");
+        Json.appendValue(json, msg);
+        return json.append(",\"timestamp\":").append(msg.getTimestamp()).append("}\n").toString();
+    }
+
+    @Override
+    public void close() {
+        // do nothing
+    }
+}
@@ -4,21 +4,79 @@ import graph.Message;
 import graph.Topic;
 import graph.TopicManagerSingleton;
 import server.RequestParser.RequestInfo;
-import views.HtmlReader;
+import views.HtmlTemplate;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
 
 /**
  * This class is used to handle incoming requests related to topic display.
+ * <p>
+ * The rendered page is kept with the global version of the topics it was rendered at, and sent again as it is
+ * until a topic changes, so viewing the values costs no rendering while nothing is published. The compressed
+ * variants of a page are made once, when a client first asks for them.
  */
 public class TopicDisplayer implements Servlet {
 
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner classes:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A page rendered at a version of the topics and of the template file.
+     */
+    private static final class Snapshot {
+        private final long m_version;
+        private final long m_lastModified;
+        private final byte[] m_content;
+        private byte[] m_gzip;
+        private byte[] m_deflate;
+
+        Snapshot(long version, long lastModified, byte[] content) {
+            this.m_version = version;
+            this.m_lastModified = lastModified;
+            this.m_content = content;
+        }
+
+        /**
+         * this method returns the page in a content coding, compressing it the first time.
+         * @param coding {@link ContentEncoding#GZIP}, {@link ContentEncoding#DEFLATE}, or null.
+         * @return the compressed page, or null if the page is sent as it is.
+         */
+        synchronized byte[] encoded(String coding) {
+            if (ContentEncoding.GZIP.equals(coding)) {
+                if (m_gzip == null)
+                    m_gzip = ContentEncoding.compress(m_content, coding);
+                return m_gzip;
+            }
+            if (ContentEncoding.DEFLATE.equals(coding)) {
+                if (m_deflate == null)
+                    m_deflate = ContentEncoding.compress(m_content, coding);
+                return m_deflate;
+            }
+            return null;
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final HtmlTemplate m_template;
+    private volatile Snapshot m_snapshot;
+
     //------------------------------------------------------------------------------------------------------------------
     // Class methods:
     //------------------------------------------------------------------------------------------------------------------
 
+    /**
+     * this constructor compiles the values page template.
+     */
+    public TopicDisplayer() {
+        this.m_template = HtmlTemplate.of("html_files/values.html", "<!--PLACE_TABLE-->", "\"PLACE_VALUES\":\"VALUES\"");
+    }
+
     /**
      * this method handles the incoming request related to topic display.
      * @param requestInfo the RequestInfo object containing information about the incoming request.
@@ -29,13 +87,65 @@ public class TopicDisplayer implements Servlet {
     public void handle(RequestInfo requestInfo, OutputStream toClient) throws IOException {
         sendMessage(requestInfo.getParameters().get("topic"), requestInfo.getParameters().get("message"));
 
-        String content = HtmlReader.readHtmlFile("html_files/values.html");
+        Snapshot snapshot = snapshot();
+        byte[] content = snapshot.m_content;
+        String coding = null;
+        if (content.length >= ContentEncoding.MIN_COMPRESSED_SIZE) {
+            coding = ContentEncoding.negotiate(requestInfo.getHeader("accept-encoding"));
+            byte[] encoded = snapshot.encoded(coding);
+            if (encoded != null)
+                content = encoded;
+        }
+
+        toClient.write(("HTTP/1.1 200 OK\r\n").getBytes());
+        toClient.write(("Content-Type: text/html\r\n").getBytes());
+        toClient.write(("Content-Length: " + content.length + "\r\n").getBytes());
+        if (coding != null)
+            toClient.write(("Content-Encoding: " + coding + "\r\n").getBytes());
+        toClient.write(("Vary: Accept-Encoding\r\n").getBytes());
+        toClient.write(("\r\n").getBytes());
+        toClient.write(content);
+    }
+
+    /**
+     * this method returns the page of the current topics, rendering it only if a topic or the template changed
+     * since it was last rendered. Concurrent requests wait for a single rendering.
+     * @return the page.
+     * @throws IOException if the page cannot be rendered.
+     */
+    private Snapshot snapshot() throws IOException {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        Snapshot snapshot = m_snapshot;
+        long version = tm.getVersion();
+        long lastModified = m_template.getLastModified();
+        if (isCurrent(snapshot, version, lastModified))
+            return snapshot;
+        synchronized (this) {
+            snapshot = m_snapshot;
+            // the page may have been rendered at a newer version while this request waited
+            version = tm.getVersion();
+            if (isCurrent(snapshot, version, lastModified))
+                return snapshot;
+            // the version is read before the topics, the page shows at least every change up to it
+            ByteArrayOutputStream page = new ByteArrayOutputStream(snapshot == null ? 8 * 1024
+                    : snapshot.m_content.length + 256);
+            m_template.render(page,
+                    table -> HtmlTemplate.write(table, createTable()),
+                    values -> HtmlTemplate.write(values, createValuesMap()));
+            snapshot = new Snapshot(version, lastModified, page.toByteArray());
+            m_snapshot = snapshot;
+            return snapshot;
+        }
+    }
 
-        String tableContent = createTable();
-        String valuesContent = createValuesMap();
-        content = content != null ? content.replace("<!--PLACE_TABLE-->", tableContent) : null;
-        content = content != null ? content.replace("\"PLACE_VALUES\":\"VALUES\"", valuesContent) : null;
-        sendContent(content.split("\n"), toClient);
+    /**
+     * @param snapshot     the page last rendered, or null.
+     * @param version      the current version of the topics.
+     * @param lastModified the modification time of the template file.
+     * @return true if the page was rendered from the current topics and template.
+     */
+    private static boolean isCurrent(Snapshot snapshot, long version, long lastModified) {
+        return snapshot != null && snapshot.m_version == version && snapshot.m_lastModified == lastModified;
     }
 
     /**
@@ -46,7 +156,7 @@ public class TopicDisplayer implements Servlet {
     private void sendMessage(String topic, String msg) {
         TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
         for (Topic t : tm.getTopics()) {
-            if (t.m_topicName.equals(topic)) {
+            if (t.getName().equals(topic)) {
                 t.publish(new Message(msg));
                 break;
             }
@@ -65,12 +175,12 @@ public class TopicDisplayer implements Servlet {
         StringBuilder tableContent = new StringBuilder();
         for (Topic topic : tm.getTopics()) {
             tableContent.append("<tr><td>");
-            tableContent.append(topic.m_topicName);
+            tableContent.append(topic.getName());
             tableContent.append("</td><td>");
             Message msg;
             if ((msg = topic.getLastMsg()) != null) {
                 if (Double.isNaN(msg.asDouble))
-                    tableContent.append(msg.asText);
+                    tableContent.append(msg.getText());
                 else
                     tableContent.append(String.format("%.02f", msg.asDouble));
             }
@@ -95,7 +205,7 @@ public class TopicDisplayer implements Servlet {
                 continue;
 
             if (Double.isNaN(topic.getLastMsg().asDouble))
-                valuesContent.append(String.format("\"%s\": %s,\n", topic.getId(), topic.getLastMsg().asText));
+                valuesContent.append(String.format("\"%s\": %s,\n", topic.getId(), topic.getLastMsg().getText()));
             else {
                 valuesContent.append(String.format("\"%s\": %.02f,\n", topic.getId(), topic.getLastMsg().asDouble));
             }
@@ -104,20 +214,6 @@ public class TopicDisplayer implements Servlet {
     }
 
 
-    /**
-     * this method sends the content to the client using the provided output stream.
-     * @param content the content to be sent to the client.
-     * @param toClient the output stream to which the content will be written.
-     * @throws IOException if an I/O error occurs while writing to the output stream.
-     */
-    private void sendContent(String[] content, OutputStream toClient) throws IOException {
-        toClient.write(("HTTP/1.1 200 OK\r\n").getBytes());
-        toClient.write(("Content-Type: text/html\r\n").getBytes());
-        toClient.write(("\r\n").getBytes());
-        for (String line : content)
-            toClient.write(line.getBytes());
-    }
-
     @Override   
     public void close() throws IOException {
         // do nothing
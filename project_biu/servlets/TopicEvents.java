@@ -0,0 +1,220 @@
+package servlets;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicListener;
+import graph.TopicManagerSingleton;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class streams topic updates to the client as Server-Sent Events. The connection stays open and an event
+ * is sent for every topic that changed, with its name, value and timestamp. Updates are conflated per client:
+ * a client that reads slowly gets the latest value of each topic instead of a backlog.
+ * <p>
+ * Each stream holds the thread running the servlet for as long as the client is connected, so many dashboards
+ * are best served with virtual threads.
+ */
+public class TopicEvents implements Servlet {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final long DEFAULT_HEARTBEAT_MILLIS = 15_000;
+    // how long the browser waits before reconnecting a lost stream
+    private static final int RETRY_MILLIS = 2_000;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner classes:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * The updates waiting to be sent to one client, only the latest message of each topic is kept.
+     */
+    private static final class Subscription implements TopicListener {
+        private Map<String, Message> m_pending = new LinkedHashMap<>();
+        private boolean m_closed;
+
+        @Override
+        public synchronized void onPublish(Topic topic, Message msg) {
+            m_pending.put(topic.getName(), msg);
+            notifyAll();
+        }
+
+        /**
+         * this method waits for updates.
+         * @param timeoutMillis the longest time to wait.
+         * @return the latest message of each changed topic, empty if none changed in time, or null once closed.
+         * @throws InterruptedException if the thread is interrupted while waiting.
+         */
+        synchronized Map<String, Message> take(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining = timeoutMillis;
+            while (m_pending.isEmpty() && !m_closed && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            if (m_closed)
+                return null;
+            Map<String, Message> updates = m_pending;
+            m_pending = new LinkedHashMap<>();
+            return updates;
+        }
+
+        synchronized void close() {
+            m_closed = true;
+            notifyAll();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final long m_heartbeatMillis;
+    private final Set<Subscription> m_subscriptions;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for TopicEvents, a comment is sent every 15 seconds on an idle stream.
+     */
+    public TopicEvents() {
+        this(DEFAULT_HEARTBEAT_MILLIS);
+    }
+
+    /**
+     * Constructor for TopicEvents.
+     *
+     * @param heartbeatMillis how often a comment is sent on an idle stream, it keeps proxies from closing the
+     *                        connection and detects clients that are gone.
+     */
+    public TopicEvents(long heartbeatMillis) {
+        this.m_heartbeatMillis = heartbeatMillis;
+        this.m_subscriptions = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * this method streams the updates until the client disconnects or the servlet is closed.
+     * The current value of every topic is sent first. With a topics parameter, e.g. /events?topics=A,C, only the
+     * listed topics are streamed and a publish to another topic does not involve the stream.
+     *
+     * @param requestInfo the RequestInfo object containing information about the incoming request.
+     * @param toClient the OutputStream to which the events are written.
+     * @throws IOException if an I/O error occurs while writing to the OutputStream.
+     */
+    @Override
+    public void handle(RequestInfo requestInfo, OutputStream toClient) throws IOException {
+        TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get();
+        Subscription subscription = new Subscription();
+        Set<String> topicNames = parseTopics(requestInfo.getParameters().get("topics"));
+        m_subscriptions.add(subscription);
+        // listen before taking the snapshot, so no update is lost in between
+        if (topicNames == null) {
+            topicManager.addListener(subscription);
+        } else {
+            for (String topicName : topicNames)
+                topicManager.addListener(topicName, subscription);
+        }
+        try {
+            toClient.write(("HTTP/1.1 200 OK\r\n").getBytes());
+            toClient.write(("Content-Type: text/event-stream\r\n").getBytes());
+            toClient.write(("Cache-Control: no-cache\r\n").getBytes());
+            toClient.write(("\r\n").getBytes());
+
+            StringBuilder events = new StringBuilder("retry: ").append(RETRY_MILLIS).append("\n\n");
+            for (Topic topic : topicManager.getTopics()) {
+                Message msg = topic.getLastMsg();
+                if (msg != null && (topicNames == null || topicNames.contains(topic.getName())))
+                    appendEvent(events, topic.getName(), msg);
+            }
+            send(events, toClient);
+
+            Map<String, Message> updates;
+            while ((updates = subscription.take(m_heartbeatMillis)) != null) {
+                events.setLength(0);
+                if (updates.isEmpty())
+                    events.append(": keep-alive\n\n");
+                for (Map.Entry<String, Message> update : updates.entrySet())
+                    appendEvent(events, update.getKey(), update.getValue());
+                send(events, toClient);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // the client went away, end the stream quietly
+        } finally {
+            if (topicNames == null) {
+                topicManager.removeListener(subscription);
+            } else {
+                for (String topicName : topicNames)
+                    topicManager.removeListener(topicName, subscription);
+            }
+            m_subscriptions.remove(subscription);
+        }
+    }
+
+    /**
+     * this method reads the topics a stream is limited to.
+     * @param topics the comma separated names of the topics, or null.
+     * @return the names, or null to stream every topic.
+     */
+    private static Set<String> parseTopics(String topics) {
+        if (topics == null)
+            return null;
+        Set<String> topicNames = new LinkedHashSet<>();
+        for (String topicName : topics.split(",")) {
+            if (!topicName.isEmpty())
+                topicNames.add(topicName);
+        }
+        return topicNames.isEmpty() ? null : topicNames;
+    }
+
+    /**
+     * this method appends the event of a topic update: {"name":..., "value":..., "timestamp":...}.
+     * The value is a JSON number when the message is numeric, a string otherwise.
+     * @param events the events being built.
+     * @param topicName the name of the topic.
+     * @param msg the latest message of the topic.
+     */
+    private static void appendEvent(StringBuilder events, String topicName, Message msg) {
+        events.append("event: topic\ndata: {\"name\":");
+        Json.appendString(events, topicName).append(",\"value\":");
+        if (Double.isNaN(msg.asDouble) || Double.isInfinite(msg.asDouble))
+            Json.appendString(events, msg.getText());
+        else
+            events.append(msg.asDouble);
+        events.append(",\"timestamp\":").append(msg.getTimestamp()).append("}\n\n");
+    }
+
+    /**
+     * this method writes events and pushes them to the client.
+     * @param events the events to write.
+     * @param toClient the OutputStream to which the events are written.
+     * @throws IOException if the client disconnected.
+     */
+    private static void send(StringBuilder events, OutputStream toClient) throws IOException {
+        if (events.length() == 0)
+            return;
+        toClient.write(events.toString().getBytes(StandardCharsets.UTF_8));
+        toClient.flush();
+    }
+
+    /**
+     * this method ends every open stream.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Subscription subscription : m_subscriptions)
+            subscription.close();
+    }
+}
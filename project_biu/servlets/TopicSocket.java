@@ -0,0 +1,297 @@
+package servlets;
+
+import graph.Message;
+import graph.Topic;
+import graph.TopicListener;
+import graph.TopicManagerSingleton;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This class is a WebSocket endpoint to publish to topics and subscribe to them over a single connection.
+ * The client sends text messages holding one command per line:
+ * <pre>
+ * pub &lt;topic&gt; &lt;value&gt;      publish a value to an existing topic
+ * sub &lt;topic&gt; ...          receive the updates of the topics, "*" for every topic
+ * unsub &lt;topic&gt; ...        stop receiving the updates of the topics
+ * </pre>
+ * The server answers with one line per update, "&lt;topic&gt; &lt;timestamp&gt; &lt;value&gt;", several updates may share
+ * a message. Updates are conflated: a client that reads slowly gets the latest value of each topic.
+ * A command that cannot be understood is answered with "err &lt;reason&gt;".
+ * <p>
+ * The endpoint needs a server that hands its connections over to the servlet, it answers 501 otherwise.
+ */
+public class TopicSocket implements Servlet {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final int MAX_MESSAGE_SIZE = 64 * 1024;
+    private static final String ALL_TOPICS = "*";
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner classes:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * The subscriptions of one client, and the updates waiting to be sent to it. The updates are written by a
+     * writer thread, so a slow client never holds back the thread publishing to a topic.
+     */
+    private final class Session implements TopicListener {
+        private final WebSocket m_socket;
+        private final Set<String> m_topics;
+        private Map<String, Message> m_pending;
+        private boolean m_scheduled;
+        private volatile boolean m_closed;
+
+        Session(WebSocket socket) {
+            this.m_socket = socket;
+            this.m_topics = ConcurrentHashMap.newKeySet();
+            this.m_pending = new LinkedHashMap<>();
+        }
+
+        @Override
+        public void onPublish(Topic topic, Message msg) {
+            // registered for the subscribed topics only, or for every topic with "*"
+            offer(topic.getName(), msg);
+        }
+
+        /**
+         * this method queues an update, replacing the pending update of the same topic.
+         * @param topicName the name of the topic.
+         * @param msg the latest message of the topic.
+         */
+        void offer(String topicName, Message msg) {
+            synchronized (this) {
+                if (m_closed)
+                    return;
+                m_pending.put(topicName, msg);
+                if (m_scheduled)
+                    return;
+                m_scheduled = true;
+            }
+            try {
+                m_writers.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                m_closed = true;
+            }
+        }
+
+        /**
+         * this method sends the pending updates until there are none left.
+         */
+        private void drain() {
+            while (true) {
+                Map<String, Message> updates;
+                synchronized (this) {
+                    if (m_pending.isEmpty() || m_closed) {
+                        m_scheduled = false;
+                        return;
+                    }
+                    updates = m_pending;
+                    m_pending = new LinkedHashMap<>();
+                }
+                StringBuilder text = new StringBuilder();
+                for (Map.Entry<String, Message> update : updates.entrySet()) {
+                    Message msg = update.getValue();
+                    text.append(update.getKey()).append(' ').append(msg.getTimestamp()).append(' ')
+                            .append(msg.getText()).append('\n');
+                }
+                try {
+                    m_socket.sendText(text.toString());
+                } catch (IOException e) {
+                    // the reading thread notices the broken connection and ends the session
+                    m_closed = true;
+                }
+            }
+        }
+
+        /**
+         * this method runs the commands of a message of the client.
+         * @param message the message, one command per line.
+         * @throws IOException if an error answer cannot be sent.
+         */
+        void onMessage(String message) throws IOException {
+            TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get();
+            for (String line : message.split("\n")) {
+                line = line.trim();
+                if (line.isEmpty())
+                    continue;
+                String[] words = line.split(" ");
+                switch (words[0]) {
+                    case "pub":
+                        String[] publish = line.split(" ", 3);
+                        Topic topic = publish.length == 3 ? topicManager.findTopic(publish[1]) : null;
+                        if (topic == null)
+                            m_socket.sendText("err unknown topic " + (publish.length > 1 ? publish[1] : ""));
+                        else
+                            topic.publish(new Message(publish[2]));
+                        break;
+                    case "sub":
+                        for (int i = 1; i < words.length; i++)
+                            subscribe(topicManager, words[i]);
+                        break;
+                    case "unsub":
+                        for (int i = 1; i < words.length; i++)
+                            unsubscribe(topicManager, words[i]);
+                        break;
+                    default:
+                        m_socket.sendText("err unknown command " + words[0]);
+                }
+            }
+        }
+
+        /**
+         * this method subscribes to a topic and queues its current value.
+         * @param topicManager the topic manager.
+         * @param topicName the name of the topic, or "*" for every topic.
+         */
+        private void subscribe(TopicManagerSingleton.TopicManager topicManager, String topicName) {
+            if (topicName.isEmpty() || !m_topics.add(topicName))
+                return;
+            // listen before reading the current values, so no update is lost in between
+            if (topicName.equals(ALL_TOPICS))
+                topicManager.addListener(this);
+            else
+                topicManager.addListener(topicName, this);
+            for (Topic topic : topicManager.getTopics()) {
+                Message msg = topic.getLastMsg();
+                if (msg != null && (topicName.equals(ALL_TOPICS) || topic.getName().equals(topicName)))
+                    offer(topic.getName(), msg);
+            }
+        }
+
+        /**
+         * this method stops the updates of a topic.
+         * @param topicManager the topic manager.
+         * @param topicName the name of the topic, or "*" for every topic.
+         */
+        private void unsubscribe(TopicManagerSingleton.TopicManager topicManager, String topicName) {
+            if (!m_topics.remove(topicName))
+                return;
+            if (topicName.equals(ALL_TOPICS))
+                topicManager.removeListener(this);
+            else
+                topicManager.removeListener(topicName, this);
+        }
+
+        /**
+         * this method stops every update of the session.
+         */
+        void close() {
+            synchronized (this) {
+                m_closed = true;
+            }
+            TopicManagerSingleton.TopicManager topicManager = TopicManagerSingleton.get();
+            for (String topicName : m_topics)
+                unsubscribe(topicManager, topicName);
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final ExecutorService m_writers;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for TopicSocket.
+     */
+    public TopicSocket() {
+        this.m_writers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "topic-socket-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * this method performs the WebSocket handshake and serves the connection until it is closed.
+     * When the client is silent for the idle timeout of the server it is pinged, and a client that does not
+     * answer until the next timeout is disconnected.
+     *
+     * @param requestInfo the RequestInfo object containing information about the incoming request.
+     * @param toClient the OutputStream to which the response will be written.
+     * @throws IOException if an I/O error occurs while writing to the OutputStream.
+     */
+    @Override
+    public void handle(RequestInfo requestInfo, OutputStream toClient) throws IOException {
+        InputStream fromClient = requestInfo.getConnectionStream();
+        String key = requestInfo.getHeader("sec-websocket-key");
+        if (fromClient == null) {
+            toClient.write("HTTP/1.1 501 Not Implemented\r\nContent-Length: 0\r\n\r\n".getBytes());
+            return;
+        }
+        if (!"websocket".equalsIgnoreCase(requestInfo.getHeader("upgrade")) || key == null
+                || !"13".equals(requestInfo.getHeader("sec-websocket-version"))) {
+            toClient.write("HTTP/1.1 400 Bad Request\r\nSec-WebSocket-Version: 13\r\nContent-Length: 0\r\n\r\n".getBytes());
+            return;
+        }
+        toClient.write(("HTTP/1.1 101 Switching Protocols\r\n").getBytes());
+        toClient.write(("Upgrade: websocket\r\n").getBytes());
+        toClient.write(("Connection: Upgrade\r\n").getBytes());
+        toClient.write(("Sec-WebSocket-Accept: " + WebSocket.acceptKey(key) + "\r\n").getBytes());
+        toClient.write(("\r\n").getBytes());
+        toClient.flush();
+
+        WebSocket socket = new WebSocket(fromClient, toClient, MAX_MESSAGE_SIZE);
+        Session session = new Session(socket);
+        try {
+            while (!session.m_closed) {
+                String message;
+                try {
+                    message = socket.readMessage();
+                } catch (SocketTimeoutException e) {
+                    if (!socket.ping())
+                        break;
+                    continue;
+                }
+                if (message == null)
+                    break;
+                session.onMessage(message);
+            }
+        } catch (WebSocket.ProtocolException e) {
+            closeQuietly(socket, e.getCloseCode());
+        } catch (IOException e) {
+            // the client went away, end the session quietly
+        } finally {
+            session.close();
+            // waits for an update being written, and fails the later ones
+            closeQuietly(socket, WebSocket.CLOSE_NORMAL);
+        }
+    }
+
+    /**
+     * this method sends a close frame if the connection still works.
+     * @param socket the WebSocket connection.
+     * @param code the status code of the close frame.
+     */
+    private static void closeQuietly(WebSocket socket, int code) {
+        try {
+            socket.close(code);
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * this method stops the writer threads.
+     */
+    @Override
+    public void close() throws IOException {
+        m_writers.shutdownNow();
+    }
+}
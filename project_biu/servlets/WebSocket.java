@@ -0,0 +1,294 @@
+package servlets;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * This class reads and writes the frames of a WebSocket connection (RFC 6455) once the handshake is done.
+ * Control frames are answered while messages are read: a ping gets a pong, and a close gets a close.
+ */
+final class WebSocket {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    static final int OP_CONTINUATION = 0x0;
+    static final int OP_TEXT = 0x1;
+    static final int OP_BINARY = 0x2;
+    static final int OP_CLOSE = 0x8;
+    static final int OP_PING = 0x9;
+    static final int OP_PONG = 0xA;
+
+    static final int CLOSE_NORMAL = 1000;
+    static final int CLOSE_GOING_AWAY = 1001;
+    static final int CLOSE_PROTOCOL_ERROR = 1002;
+    static final int CLOSE_TOO_BIG = 1009;
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner classes:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * An error of the client that ends the connection with a close frame.
+     */
+    static final class ProtocolException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final int m_closeCode;
+
+        ProtocolException(int closeCode, String reason) {
+            super(reason);
+            this.m_closeCode = closeCode;
+        }
+
+        int getCloseCode() {
+            return m_closeCode;
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private final InputStream m_in;
+    private final OutputStream m_out;
+    private final int m_maxMessageSize;
+    private final byte[] m_header;
+
+    // a fragmented message being received, kept across timeouts
+    private byte[] m_message;
+    private int m_messageLength;
+
+    private boolean m_closeSent;
+    private volatile boolean m_pingPending;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for WebSocket.
+     *
+     * @param in             the input of the connection, after the handshake request.
+     * @param out            the output of the connection, after the handshake response.
+     * @param maxMessageSize the largest message accepted from the client.
+     */
+    WebSocket(InputStream in, OutputStream out, int maxMessageSize) {
+        this.m_in = in;
+        this.m_out = out;
+        this.m_maxMessageSize = maxMessageSize;
+        this.m_header = new byte[14];
+    }
+
+    /**
+     * this method computes the Sec-WebSocket-Accept value of the handshake response.
+     * @param key the Sec-WebSocket-Key header of the request.
+     * @return the value proving the server understood the handshake.
+     */
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key.trim() + ACCEPT_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform provides SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * this method reads the next message of the client, answering the control frames that come before it.
+     * A timeout of the connection is thrown between frames, a frame that started gets two more timeouts
+     * to arrive.
+     *
+     * @return the message as text, or null once the client closed the connection.
+     * @throws SocketTimeoutException if the client sent nothing for the timeout of the connection.
+     * @throws IOException if the connection fails or the client breaks the protocol.
+     */
+    String readMessage() throws IOException {
+        while (true) {
+            if (!readFully(m_header, 0, 2, true))
+                return null;
+            m_pingPending = false;
+            boolean fin = (m_header[0] & 0x80) != 0;
+            int opcode = m_header[0] & 0x0F;
+            boolean masked = (m_header[1] & 0x80) != 0;
+            long length = m_header[1] & 0x7F;
+            if ((m_header[0] & 0x70) != 0 || !masked)
+                throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Reserved bits set or unmasked client frame");
+            if (length == 126) {
+                readFully(m_header, 2, 2, false);
+                length = ((m_header[2] & 0xFF) << 8) | (m_header[3] & 0xFF);
+            } else if (length == 127) {
+                readFully(m_header, 2, 8, false);
+                length = 0;
+                for (int i = 2; i < 10; i++)
+                    length = (length << 8) | (m_header[i] & 0xFF);
+                // the most significant bit must be 0, and a payload is read into a single array
+                if (length < 0 || length > Integer.MAX_VALUE)
+                    throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Invalid payload length");
+            }
+
+            boolean control = (opcode & 0x8) != 0;
+            if (control && (length > MAX_CONTROL_PAYLOAD || !fin))
+                throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Invalid control frame");
+            if (!control && length > m_maxMessageSize - m_messageLength)
+                throw new ProtocolException(CLOSE_TOO_BIG, "Message too big");
+
+            byte[] mask = new byte[4];
+            readFully(mask, 0, 4, false);
+            byte[] payload = new byte[(int) length];
+            readFully(payload, 0, payload.length, false);
+            for (int i = 0; i < payload.length; i++)
+                payload[i] ^= mask[i & 3];
+
+            switch (opcode) {
+                case OP_PING:
+                    writeFrame(OP_PONG, payload, 0, payload.length);
+                    break;
+                case OP_PONG:
+                    break;
+                case OP_CLOSE:
+                    close(CLOSE_NORMAL);
+                    return null;
+                case OP_TEXT:
+                case OP_BINARY:
+                case OP_CONTINUATION:
+                    if ((opcode == OP_CONTINUATION) != (m_message != null))
+                        throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Unexpected continuation");
+                    if (fin && m_message == null)
+                        return new String(payload, StandardCharsets.UTF_8);
+                    if (m_message == null)
+                        m_message = new byte[Math.max(payload.length * 2, 256)];
+                    if (m_messageLength + payload.length > m_message.length)
+                        m_message = Arrays.copyOf(m_message, Math.max(m_message.length * 2, m_messageLength + payload.length));
+                    System.arraycopy(payload, 0, m_message, m_messageLength, payload.length);
+                    m_messageLength += payload.length;
+                    if (fin) {
+                        String text = new String(m_message, 0, m_messageLength, StandardCharsets.UTF_8);
+                        m_message = null;
+                        m_messageLength = 0;
+                        return text;
+                    }
+                    break;
+                default:
+                    throw new ProtocolException(CLOSE_PROTOCOL_ERROR, "Unknown opcode " + opcode);
+            }
+        }
+    }
+
+    /**
+     * this method sends a text message.
+     * @param text the message.
+     * @throws IOException if the connection fails.
+     */
+    void sendText(String text) throws IOException {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        writeFrame(OP_TEXT, payload, 0, payload.length);
+    }
+
+    /**
+     * this method checks that the client is still there. It sends a ping, unless the previous ping was not
+     * answered by any frame, then it closes the connection.
+     * @return false if the client did not answer the previous ping and the connection was closed.
+     * @throws IOException if the connection fails.
+     */
+    boolean ping() throws IOException {
+        if (m_pingPending) {
+            close(CLOSE_GOING_AWAY);
+            return false;
+        }
+        m_pingPending = true;
+        writeFrame(OP_PING, new byte[0], 0, 0);
+        return true;
+    }
+
+    /**
+     * this method sends a close frame, once.
+     * @param code the status code of the close frame.
+     * @throws IOException if the connection fails.
+     */
+    synchronized void close(int code) throws IOException {
+        if (m_closeSent)
+            return;
+        writeFrame(OP_CLOSE, new byte[]{(byte) (code >> 8), (byte) code}, 0, 2);
+        m_closeSent = true;
+    }
+
+    /**
+     * this method sends an unmasked frame and pushes it to the client. Frames written by different threads
+     * do not interleave.
+     *
+     * @param opcode  the opcode of the frame.
+     * @param payload the payload bytes.
+     * @param offset  the offset of the payload in the array.
+     * @param length  the length of the payload.
+     * @throws IOException if the connection fails or was closed.
+     */
+    synchronized void writeFrame(int opcode, byte[] payload, int offset, int length) throws IOException {
+        if (m_closeSent)
+            throw new EOFException("WebSocket closed");
+        byte[] header = new byte[10];
+        int headerLength;
+        header[0] = (byte) (0x80 | opcode);
+        if (length < 126) {
+            header[1] = (byte) length;
+            headerLength = 2;
+        } else if (length <= 0xFFFF) {
+            header[1] = 126;
+            header[2] = (byte) (length >> 8);
+            header[3] = (byte) length;
+            headerLength = 4;
+        } else {
+            header[1] = 127;
+            for (int i = 0; i < 8; i++)
+                header[2 + i] = (byte) ((long) length >> (56 - 8 * i));
+            headerLength = 10;
+        }
+        m_out.write(header, 0, headerLength);
+        m_out.write(payload, offset, length);
+        m_out.flush();
+    }
+
+    /**
+     * this method reads exactly the given number of bytes.
+     *
+     * @param bytes      the array to fill.
+     * @param offset     the offset to fill from.
+     * @param length     the number of bytes.
+     * @param frameStart true if these are the first bytes of a frame, only then the end of the stream or a
+     *                   timeout are not errors.
+     * @return false if the stream ended before a frame started.
+     * @throws IOException if the connection fails or ends inside a frame.
+     */
+    private boolean readFully(byte[] bytes, int offset, int length, boolean frameStart) throws IOException {
+        int read = 0;
+        int timeouts = 0;
+        while (read < length) {
+            int n;
+            try {
+                n = m_in.read(bytes, offset + read, length - read);
+            } catch (SocketTimeoutException e) {
+                if ((frameStart && read == 0) || ++timeouts > 2)
+                    throw e;
+                continue; // give a frame that started some more time
+            }
+            if (n == -1) {
+                if (frameStart && read == 0)
+                    return false;
+                throw new EOFException("Connection closed inside a frame");
+            }
+            read += n;
+        }
+        return true;
+    }
+}
@@ -3,11 +3,21 @@ package views;
 import graph.Graph;
 import graph.Node;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
 /**
  * This class is used to generate an HTML representation of a given graph.
  */
 public class HtmlGraphWriter {
 
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final String GRAPH_DATA = "\"GRAPH_DATA\"";
+
     //------------------------------------------------------------------------------------------------------------------
     // Class methods:
     //------------------------------------------------------------------------------------------------------------------
@@ -19,14 +29,28 @@ public class HtmlGraphWriter {
      * @return an array of strings representing the HTML representation of the graph.
      */
     public static String[] getGraphHTML(Graph graph, String filePath) {
-        String htmlTemplate = HtmlReader.readHtmlFile(filePath);
-        if (htmlTemplate == null) {
+        ByteArrayOutputStream html = new ByteArrayOutputStream();
+        try {
+            if (!writeGraphHTML(graph, filePath, html))
+                return new String[]{""};
+        } catch (IOException e) {
+            e.printStackTrace();
             return new String[]{""};
         }
+        return html.toString(StandardCharsets.UTF_8).split("\n");
+    }
 
-        String graphJson = GraphToJson(graph);
-        String modifiedHtml = htmlTemplate.replace("\"GRAPH_DATA\"", graphJson);
-        return modifiedHtml.split("\n");
+    /**
+     * this method writes an HTML representation of a given graph directly to a stream.
+     * The template is compiled once and only the graph data is generated for each page.
+     * @param graph the graph to be represented.
+     * @param filePath the path to the HTML file to be used as a template.
+     * @param out the stream the page is written to.
+     * @return false if the template could not be read, nothing is written then.
+     * @throws IOException if an I/O error occurs while writing to the stream.
+     */
+    public static boolean writeGraphHTML(Graph graph, String filePath, OutputStream out) throws IOException {
+        return HtmlTemplate.of(filePath, GRAPH_DATA).render(out, part -> HtmlTemplate.write(part, GraphToJson(graph)));
     }
 
 
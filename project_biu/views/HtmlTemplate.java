@@ -0,0 +1,189 @@
+package views;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is an HTML file split into static chunks around its placeholders. The file is read once and
+ * rendering writes the static chunks and the dynamic parts straight to the output stream, without building
+ * the page as a string. The file is read again when it changes on disk.
+ */
+public class HtmlTemplate {
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class constants:
+    //------------------------------------------------------------------------------------------------------------------
+    // how often the modification time of the file is checked
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Inner classes:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A dynamic part of a page, written in place of a placeholder.
+     */
+    @FunctionalInterface
+    public interface Part {
+        /**
+         * this method writes the part.
+         * @param out the stream the page is written to.
+         * @throws IOException if an I/O error occurs while writing to the stream.
+         */
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * The compiled content of the file: static chunks[i] is followed by the part of placeholder slots[i].
+     */
+    private static final class Compiled {
+        private final long m_lastModified;
+        private final byte[][] m_chunks;
+        private final int[] m_slots;
+
+        Compiled(long lastModified, byte[][] chunks, int[] slots) {
+            this.m_lastModified = lastModified;
+            this.m_chunks = chunks;
+            this.m_slots = slots;
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class variables:
+    //------------------------------------------------------------------------------------------------------------------
+    private static final ConcurrentHashMap<String, HtmlTemplate> templates = new ConcurrentHashMap<>();
+
+    private final Path m_path;
+    private final String[] m_placeholders;
+    private volatile Compiled m_compiled;
+    private volatile long m_nextCheck;
+
+    //------------------------------------------------------------------------------------------------------------------
+    // Class methods:
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Constructor for HtmlTemplate.
+     *
+     * @param filePath     the path to the HTML file.
+     * @param placeholders the texts of the file that are replaced when the page is rendered.
+     */
+    public HtmlTemplate(String filePath, String... placeholders) {
+        this.m_path = Paths.get(filePath);
+        this.m_placeholders = placeholders.clone();
+    }
+
+    /**
+     * this method returns the shared template of a file, so every page rendered from the file uses the same
+     * compiled chunks. The placeholders of the first call are kept.
+     *
+     * @param filePath     the path to the HTML file.
+     * @param placeholders the texts of the file that are replaced when the page is rendered.
+     * @return the template of the file.
+     */
+    public static HtmlTemplate of(String filePath, String... placeholders) {
+        return templates.computeIfAbsent(filePath, path -> new HtmlTemplate(path, placeholders));
+    }
+
+    /**
+     * this method writes the page: the static chunks of the file, and in place of each placeholder the part
+     * given at the same index.
+     *
+     * @param out   the stream the page is written to.
+     * @param parts the dynamic parts, one for each placeholder.
+     * @return false if the file could not be read, nothing is written then.
+     * @throws IOException if an I/O error occurs while writing to the stream.
+     */
+    public boolean render(OutputStream out, Part... parts) throws IOException {
+        Compiled compiled = compiled();
+        if (compiled == null)
+            return false;
+        for (int i = 0; i < compiled.m_chunks.length; i++) {
+            out.write(compiled.m_chunks[i]);
+            if (i < compiled.m_slots.length)
+                parts[compiled.m_slots[i]].write(out);
+        }
+        return true;
+    }
+
+    /**
+     * this method returns the modification time of the file the next page will be rendered from, so a rendered
+     * page can be kept until the file changes.
+     * @return the modification time of the file, or -1 if it cannot be read.
+     */
+    public long getLastModified() {
+        Compiled compiled = compiled();
+        return compiled == null ? -1 : compiled.m_lastModified;
+    }
+
+    /**
+     * this method writes a text part of a page.
+     * @param out  the stream the page is written to.
+     * @param text the text to write.
+     * @throws IOException if an I/O error occurs while writing to the stream.
+     */
+    public static void write(OutputStream out, CharSequence text) throws IOException {
+        out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * this method returns the compiled file, compiling it again if the file changed since it was last checked.
+     * @return the compiled file, or null if it cannot be read.
+     */
+    private Compiled compiled() {
+        Compiled compiled = m_compiled;
+        long now = System.currentTimeMillis();
+        if (compiled != null && now < m_nextCheck)
+            return compiled;
+        m_nextCheck = now + CHECK_INTERVAL_MILLIS;
+        try {
+            long lastModified = Files.getLastModifiedTime(m_path).toMillis();
+            if (compiled == null || compiled.m_lastModified != lastModified) {
+                compiled = compile(lastModified);
+                m_compiled = compiled;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return compiled;
+    }
+
+    /**
+     * this method reads the file and splits it around its placeholders.
+     * @param lastModified the modification time of the file being read.
+     * @return the compiled file.
+     * @throws IOException if the file cannot be read.
+     */
+    private Compiled compile(long lastModified) throws IOException {
+        String html = new String(Files.readAllBytes(m_path), StandardCharsets.UTF_8);
+        List<byte[]> chunks = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        int from = 0;
+        while (true) {
+            // find the next placeholder in the file
+            int next = -1;
+            int slot = -1;
+            for (int i = 0; i < m_placeholders.length; i++) {
+                int index = html.indexOf(m_placeholders[i], from);
+                if (index != -1 && (next == -1 || index < next)) {
+                    next = index;
+                    slot = i;
+                }
+            }
+            if (next == -1)
+                break;
+            chunks.add(html.substring(from, next).getBytes(StandardCharsets.UTF_8));
+            slots.add(slot);
+            from = next + m_placeholders[slot].length();
+        }
+        chunks.add(html.substring(from).getBytes(StandardCharsets.UTF_8));
+        return new Compiled(lastModified, chunks.toArray(new byte[0][]), slots.stream().mapToInt(Integer::intValue).toArray());
+    }
+}